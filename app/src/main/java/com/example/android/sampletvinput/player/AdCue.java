@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sampletvinput.player;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.metadata.emsg.EventMessage;
+import com.google.android.exoplayer2.metadata.id3.TextInformationFrame;
+
+/**
+ * An ad break cue carried in the media, modelled on the SCTE-35 cue tags of HLS playlists:
+ * <ul>
+ * <li>{@code CUE-OUT[:DURATION=<seconds>][,LEAD=<seconds>]} announces a break, which starts
+ * {@code LEAD} seconds after the cue, or right away;</li>
+ * <li>{@code CUE-IN} ends the break.</li>
+ * </ul>
+ * DASH streams carry the cue as the value of an event message of the {@link #SCHEME_ID_URI}
+ * scheme, whose duration is used if the cue has none. HLS streams carry it as the value of an ID3
+ * text frame.
+ */
+/* package */ final class AdCue {
+    /** The scheme of the DASH event messages that carry ad cues. */
+    public static final String SCHEME_ID_URI = "urn:android:tv:sampletvinput:adcue";
+
+    private static final String TAG = "AdCue";
+    private static final String CUE_OUT = "CUE-OUT";
+    private static final String CUE_IN = "CUE-IN";
+    private static final String ATTRIBUTE_DURATION = "DURATION";
+    private static final String ATTRIBUTE_LEAD = "LEAD";
+
+    /** Whether the cue starts a break, as opposed to ending one. */
+    public final boolean isBreakStart;
+    /** How long after the cue the break starts, in milliseconds. */
+    public final long leadTimeMs;
+    /** How long the break lasts in milliseconds, or 0 if the cue does not say. */
+    public final long durationMs;
+
+    private AdCue(boolean isBreakStart, long leadTimeMs, long durationMs) {
+        this.isBreakStart = isBreakStart;
+        this.leadTimeMs = leadTimeMs;
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * @return The cue carried by a metadata entry, or null if it does not carry one.
+     */
+    public static AdCue fromMetadataEntry(Metadata.Entry entry) {
+        if (entry instanceof EventMessage) {
+            EventMessage eventMessage = (EventMessage) entry;
+            if (!SCHEME_ID_URI.equals(eventMessage.schemeIdUri)) {
+                return null;
+            }
+            AdCue cue = parse(eventMessage.value);
+            if (cue != null && cue.isBreakStart && cue.durationMs == 0
+                    && eventMessage.durationMs > 0) {
+                return new AdCue(true, cue.leadTimeMs, eventMessage.durationMs);
+            }
+            return cue;
+        } else if (entry instanceof TextInformationFrame) {
+            return parse(((TextInformationFrame) entry).value);
+        }
+        return null;
+    }
+
+    private static AdCue parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        text = text.trim();
+        if (text.equals(CUE_IN)) {
+            return new AdCue(false, 0, 0);
+        }
+        if (!text.startsWith(CUE_OUT)) {
+            return null;
+        }
+        long leadTimeMs = 0;
+        long durationMs = 0;
+        int attributesStart = text.indexOf(':');
+        if (attributesStart == CUE_OUT.length()) {
+            for (String attribute : text.substring(attributesStart + 1).split(",")) {
+                int separator = attribute.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                String name = attribute.substring(0, separator).trim();
+                try {
+                    long valueMs = (long) (Double.parseDouble(
+                            attribute.substring(separator + 1).trim()) * 1000);
+                    if (ATTRIBUTE_DURATION.equals(name)) {
+                        durationMs = Math.max(0, valueMs);
+                    } else if (ATTRIBUTE_LEAD.equals(name)) {
+                        leadTimeMs = Math.max(0, valueMs);
+                    }
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring malformed cue attribute " + attribute);
+                }
+            }
+        } else if (text.length() != CUE_OUT.length()) {
+            return null;
+        }
+        return new AdCue(true, leadTimeMs, durationMs);
+    }
+}
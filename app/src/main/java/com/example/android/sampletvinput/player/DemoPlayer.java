@@ -28,10 +28,12 @@ import android.util.Log;
 import android.view.Surface;
 
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.RendererCapabilities;
 import com.google.android.exoplayer2.Timeline;
@@ -39,6 +41,7 @@ import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
 import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
 import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
 import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.metadata.MetadataRenderer;
 import com.google.android.exoplayer2.metadata.emsg.EventMessage;
 import com.google.android.exoplayer2.metadata.id3.ApicFrame;
 import com.google.android.exoplayer2.metadata.id3.CommentFrame;
@@ -46,6 +49,8 @@ import com.google.android.exoplayer2.metadata.id3.GeobFrame;
 import com.google.android.exoplayer2.metadata.id3.PrivFrame;
 import com.google.android.exoplayer2.metadata.id3.TextInformationFrame;
 import com.google.android.exoplayer2.metadata.id3.UrlLinkFrame;
+import com.google.android.exoplayer2.source.ClippingMediaSource;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroup;
@@ -60,6 +65,7 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
@@ -86,7 +92,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * <p/>
  * This code was originally taken from the ExoPlayer demo application.
  */
-public class DemoPlayer implements ExoPlayer.EventListener,TvPlayer {
+public class DemoPlayer implements ExoPlayer.EventListener, MetadataRenderer.Output, TvPlayer {
 
 
     private void printMetadata(Metadata metadata, String prefix) {
@@ -248,17 +254,63 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
 
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
-
+        if (playbackState == STATE_READY && playWhenReady && !startReported) {
+            startReported = true;
+            for (TvPlayer.Callback callback : mTvPlayerCallbacks) {
+                callback.onStarted();
+            }
+        } else if (playbackState == STATE_ENDED) {
+            notifyCompleted();
+        }
     }
 
     @Override
     public void onPlayerError(ExoPlaybackException error) {
-
+        for (TvPlayer.Callback callback : mTvPlayerCallbacks) {
+            callback.onError();
+        }
     }
 
     @Override
     public void onPositionDiscontinuity() {
+        int windowIndex = player.getCurrentWindowIndex();
+        if (windowIndex != currentWindowIndex) {
+            if (windowIndex > currentWindowIndex) {
+                // The media of the previous window, e.g. an inserted ad, played to its end.
+                notifyCompleted();
+            }
+            currentWindowIndex = windowIndex;
+            startReported = false;
+            // The media after an inserted ad was already playing before it, so only the windows
+            // after it start queued media.
+            if (playlistListener != null && windowIndex > adWindowCount) {
+                playlistListener.onQueuedMediaStarted(
+                        firstWindowMediaIndex + windowIndex - adWindowCount - 1);
+            }
+        }
+    }
+
+    @Override
+    public void onMetadata(Metadata metadata) {
+        for (int i = 0; i < metadata.length(); i++) {
+            AdCue cue = AdCue.fromMetadataEntry(metadata.get(i));
+            if (cue == null) {
+                continue;
+            }
+            for (TvPlayer.Callback callback : mTvPlayerCallbacks) {
+                if (cue.isBreakStart) {
+                    callback.onAdBreakStartCue(cue.leadTimeMs, cue.durationMs);
+                } else {
+                    callback.onAdBreakEndCue();
+                }
+            }
+        }
+    }
 
+    private void notifyCompleted() {
+        for (TvPlayer.Callback callback : mTvPlayerCallbacks) {
+            callback.onCompleted();
+        }
     }
 
     @Override
@@ -293,6 +345,17 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
         void onId3Metadata(List<Id3Frame> id3Frames);
     }
 
+    /**
+     * A listener for playback moving on to media queued with
+     * {@link #setMedia(int, Uri, List)}.
+     */
+    public interface PlaylistListener {
+        /**
+         * @param queueIndex The index of the media in the list of queued media.
+         */
+        void onQueuedMediaStarted(int queueIndex);
+    }
+
     // Constants pulled into this class for convenience.
     public static final int STATE_IDLE = ExoPlayer.STATE_IDLE;
     public static final int STATE_BUFFERING = ExoPlayer.STATE_BUFFERING;
@@ -336,6 +399,18 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
 
     private CaptionListener captionListener;
     private Id3MetadataListener id3MetadataListener;
+    private PlaylistListener playlistListener;
+    private int currentWindowIndex;
+    private boolean startReported;
+
+    // The media passed to setMedia(), followed by the queued media
+    private List<Uri> playlistUris;
+    // The index in playlistUris of the media of the first window after the inserted ad
+    private int firstWindowMediaIndex;
+    // 1 if an ad was inserted at the start of the timeline by insertAd(), 0 otherwise
+    private int adWindowCount;
+    // Where the media of the window after the inserted ad resumes, in milliseconds
+    private long resumePositionMs;
 
     private static final DefaultBandwidthMeter BANDWIDTH_METER = new DefaultBandwidthMeter();
     private EventLogger eventLogger;
@@ -348,10 +423,25 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
 
     private PlaybackParams playbackParams;
 
+    private Uri mUri;
+    private final PreloadLoadControl loadControl;
+
     private static final String TAG = "DemoPlayer";
 
     public DemoPlayer(Context context, int videoType, Uri uri){
+        this(context, videoType, uri, false);
+    }
+
+    /**
+     * Creates a player for the given media.
+     *
+     * @param preload Whether to only buffer the start of the media and stay paused, so that the
+     *                player is ready to start quickly once {@link #finishPreload()} is called.
+     */
+    public DemoPlayer(Context context, int videoType, Uri uri, boolean preload) {
         mContext = context;
+        mUri = uri;
+        playlistUris = Collections.singletonList(uri);
 
         mediaDataSourceFactory = buildDataSourceFactory(BANDWIDTH_METER);
 
@@ -369,12 +459,17 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
         audioRenderer = new MediaCodecAudioRenderer(MediaCodecSelector.DEFAULT);
         renderersList.add(audioRenderer);
 
+        // Decodes DASH event messages and ID3 tags, which may carry ad cues.
+        renderersList.add(new MetadataRenderer(this, context.getMainLooper()));
+
         mRenderers = renderersList.toArray(new Renderer[renderersList.size()]);
 
         // Create the player
-        player = ExoPlayerFactory.newInstance(mRenderers,trackSelector);
+        loadControl = new PreloadLoadControl(new DefaultLoadControl());
+        loadControl.setPreloading(preload);
+        player = ExoPlayerFactory.newInstance(mRenderers, trackSelector, loadControl);
 
-        MediaSource mediaSource = buildMediaSource(uri, null);
+        MediaSource mediaSource = buildPlaylistSource(uri, Collections.<Uri>emptyList());
         player.prepare(mediaSource, true, false);
 
         eventLogger = new EventLogger(trackSelector);
@@ -383,7 +478,7 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
         Log.d("DemoPlayer", "We just initialized the player");
         Log.d("DemoPlayer", "**************************");
 
-        player.setPlayWhenReady(true);
+        player.setPlayWhenReady(!preload);
 
         mainHandler = new Handler();
         listeners = new CopyOnWriteArrayList<>();
@@ -456,6 +551,10 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
         id3MetadataListener = listener;
     }
 
+    public void setPlaylistListener(PlaylistListener listener) {
+        playlistListener = listener;
+    }
+
     public void setSurface(Surface surface) {
         this.surface = surface;
         pushSurface(false);
@@ -501,12 +600,158 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
     }
 
 
+    /**
+     * Switches this player to other media. The ExoPlayer instance, its renderers, track selector,
+     * surface and audio session are kept, which is much faster than creating a new player. Call
+     * {@link #prepare()} afterwards, as for a new player.
+     *
+     * @param videoType The type of the new media, as for
+     *                  {@link #DemoPlayer(Context, int, Uri)}.
+     * @param uri The new media.
+     */
+    public void setMedia(int videoType, Uri uri) {
+        setMedia(videoType, uri, Collections.<Uri>emptyList());
+    }
+
+    /**
+     * Switches this player to other media, as {@link #setMedia(int, Uri)}, and queues more media
+     * to play after it. Playback moves on to each queued media without a gap, and the
+     * {@link PlaylistListener} is told when it does.
+     *
+     * @param videoType The type of the new media, as for
+     *                  {@link #DemoPlayer(Context, int, Uri)}.
+     * @param uri The new media.
+     * @param queuedUris The media to play after it, in order.
+     */
+    public void setMedia(int videoType, Uri uri, List<Uri> queuedUris) {
+        mUri = uri;
+        loadControl.setPreloading(false);
+        videoFormat = null;
+        // Report the new media's state to the listeners as if this was a new player.
+        rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        lastReportedPlaybackState = STATE_IDLE;
+        currentWindowIndex = 0;
+        startReported = false;
+        playlistUris = new ArrayList<>(queuedUris.size() + 1);
+        playlistUris.add(uri);
+        playlistUris.addAll(queuedUris);
+        firstWindowMediaIndex = 0;
+        adWindowCount = 0;
+        resumePositionMs = 0;
+        player.prepare(buildPlaylistSource(uri, queuedUris), true, true);
+    }
+
+    /**
+     * @return Whether {@link #insertAd(Uri, long)} can insert an ad into the media that is
+     * playing, which has to be seekable and of a known duration.
+     */
+    public boolean canInsertAd() {
+        Timeline timeline = player.getCurrentTimeline();
+        int windowIndex = player.getCurrentWindowIndex();
+        if (timeline == null || windowIndex >= timeline.getWindowCount()) {
+            return false;
+        }
+        Timeline.Window window = timeline.getWindow(windowIndex, new Timeline.Window());
+        return window.isSeekable && !window.isDynamic;
+    }
+
+    /**
+     * Plays an ad in the middle of the media that is playing, without preparing another player.
+     * The ad is put in front of the rest of the media and the media queued after it, so that they
+     * buffer while the ad plays and the media resumes where it was interrupted once the ad ends.
+     * <p>
+     * The {@link TvPlayer.Callback}s are told when the ad starts and completes. While the ad
+     * plays, {@link #getCurrentPosition()} and {@link #getDuration()} are those of the ad.
+     *
+     * @param adUri The ad video, which must be progressive media.
+     * @param adPositionMs Where to start playing the ad, in milliseconds.
+     * @return Whether the ad was inserted. It is not if {@link #canInsertAd()} is false.
+     */
+    public boolean insertAd(Uri adUri, long adPositionMs) {
+        int windowIndex = player.getCurrentWindowIndex();
+        int mediaIndex;
+        long positionMs;
+        if (windowIndex < adWindowCount) {
+            // Another ad of the same break, so the media still resumes where the first ad
+            // interrupted it.
+            mediaIndex = firstWindowMediaIndex;
+            positionMs = resumePositionMs;
+        } else if (canInsertAd()) {
+            mediaIndex = firstWindowMediaIndex + windowIndex - adWindowCount;
+            positionMs = getCurrentPosition();
+        } else {
+            return false;
+        }
+
+        MediaSource[] mediaSources = new MediaSource[playlistUris.size() - mediaIndex + 1];
+        mediaSources[0] = new ExtractorMediaSource(adUri, mediaDataSourceFactory,
+                new DefaultExtractorsFactory(), mainHandler, eventLogger);
+        mediaSources[1] = new ClippingMediaSource(
+                buildMediaSource(playlistUris.get(mediaIndex), null), positionMs * 1000,
+                C.TIME_END_OF_SOURCE);
+        for (int i = 2; i < mediaSources.length; i++) {
+            mediaSources[i] = buildMediaSource(playlistUris.get(mediaIndex + i - 1), null);
+        }
+        firstWindowMediaIndex = mediaIndex;
+        adWindowCount = 1;
+        resumePositionMs = positionMs;
+        currentWindowIndex = 0;
+        startReported = false;
+        player.prepare(new ConcatenatingMediaSource(mediaSources), true, true);
+        if (adPositionMs > 0) {
+            player.seekTo(0, adPositionMs);
+        }
+        return true;
+    }
+
+    private MediaSource buildPlaylistSource(Uri uri, List<Uri> queuedUris) {
+        if (queuedUris.isEmpty()) {
+            return buildMediaSource(uri, null);
+        }
+        MediaSource[] mediaSources = new MediaSource[queuedUris.size() + 1];
+        mediaSources[0] = buildMediaSource(uri, null);
+        for (int i = 0; i < queuedUris.size(); i++) {
+            mediaSources[i + 1] = buildMediaSource(queuedUris.get(i), null);
+        }
+        return new ConcatenatingMediaSource(mediaSources);
+    }
+
+    /**
+     * @return The media this player is playing.
+     */
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * @return Whether the player only buffers the start of its media.
+     */
+    public boolean isPreloading() {
+        return loadControl.isPreloading();
+    }
+
+    /**
+     * Lets a player created to preload its media buffer normally. Playback still has to be
+     * started with {@link #setPlayWhenReady(boolean)}.
+     */
+    public void finishPreload() {
+        loadControl.setPreloading(false);
+    }
+
     public void setPlayWhenReady(boolean playWhenReady) {
         player.setPlayWhenReady(playWhenReady);
     }
 
     public void seekTo(long positionMs) {
-        player.seekTo(positionMs);
+        if (adWindowCount > 0 && player.getCurrentWindowIndex() == adWindowCount
+                && positionMs < resumePositionMs) {
+            // The part of the media before the ad is not in the timeline any more.
+            List<Uri> uris = playlistUris.subList(firstWindowMediaIndex, playlistUris.size());
+            setMedia(0, uris.get(0), new ArrayList<>(uris.subList(1, uris.size())));
+            player.seekTo(positionMs);
+            return;
+        }
+        player.seekTo(positionMs - getResumePositionOffset());
     }
 
     @Override
@@ -529,12 +774,22 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
 
     @Override
     public long getCurrentPosition() {
-        return player.getCurrentPosition();
+        return player.getCurrentPosition() + getResumePositionOffset();
     }
 
     @Override
     public long getDuration() {
-        return player.getDuration();
+        long durationMs = player.getDuration();
+        return durationMs == C.TIME_UNSET ? durationMs : durationMs + getResumePositionOffset();
+    }
+
+    /**
+     * Returns how much of the media of the current window was cut off by {@link #insertAd}, so
+     * that positions are reported in the whole media.
+     */
+    private long getResumePositionOffset() {
+        return adWindowCount > 0 && player.getCurrentWindowIndex() == adWindowCount
+                ? resumePositionMs : 0;
     }
 
     public int getBufferedPercentage() {
@@ -582,6 +837,69 @@ MappingTrackSelector.MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentM
     }
 
 
+    /**
+     * A {@link LoadControl} that stops loading after the first few seconds of media while the
+     * player is preloading, so that a player kept ready for a channel the user may tune to does
+     * not use more bandwidth and memory than it needs to start.
+     */
+    private static final class PreloadLoadControl implements LoadControl {
+        private static final long PRELOAD_BUFFER_US = 2500000;
+
+        private final LoadControl delegate;
+        private volatile boolean preloading;
+
+        PreloadLoadControl(LoadControl delegate) {
+            this.delegate = delegate;
+        }
+
+        void setPreloading(boolean preloading) {
+            this.preloading = preloading;
+        }
+
+        boolean isPreloading() {
+            return preloading;
+        }
+
+        @Override
+        public void onPrepared() {
+            delegate.onPrepared();
+        }
+
+        @Override
+        public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                TrackSelectionArray trackSelections) {
+            delegate.onTracksSelected(renderers, trackGroups, trackSelections);
+        }
+
+        @Override
+        public void onStopped() {
+            delegate.onStopped();
+        }
+
+        @Override
+        public void onReleased() {
+            delegate.onReleased();
+        }
+
+        @Override
+        public Allocator getAllocator() {
+            return delegate.getAllocator();
+        }
+
+        @Override
+        public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+            return delegate.shouldStartPlayback(bufferedDurationUs, rebuffering);
+        }
+
+        @Override
+        public boolean shouldContinueLoading(long bufferedDurationUs) {
+            if (preloading && bufferedDurationUs >= PRELOAD_BUFFER_US) {
+                return false;
+            }
+            return delegate.shouldContinueLoading(bufferedDurationUs);
+        }
+    }
+
     private void pushSurface(boolean blockForSurfacePush) {
         if (videoRenderer == null) {
             Log.d("DemoPlayer","The video renderer is null!");
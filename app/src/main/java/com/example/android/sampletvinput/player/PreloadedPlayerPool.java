@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sampletvinput.player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps {@link DemoPlayer}s prepared and paused for programs the user is likely to tune to next,
+ * so that tuning to one of them hands over a player that has already loaded the manifest and the
+ * first segments.
+ * <p>
+ * The number of players bounds the memory used, and each player only buffers the first few
+ * seconds of its media until it is handed over, which bounds the bandwidth used.
+ */
+public class PreloadedPlayerPool {
+    private final Context mContext;
+    private final int mMaxPlayers;
+    private final Map<Uri, DemoPlayer> mPlayers = new LinkedHashMap<>();
+
+    /**
+     * @param maxPlayers The maximum number of players to keep prepared at the same time.
+     */
+    public PreloadedPlayerPool(Context context, int maxPlayers) {
+        mContext = context;
+        mMaxPlayers = maxPlayers;
+    }
+
+    /**
+     * Prepares players for the most likely programs and releases the players of programs that
+     * are no longer predicted.
+     *
+     * @param programs The predicted programs, most likely first.
+     */
+    public void preload(List<Program> programs) {
+        Map<Uri, Program> wanted = new LinkedHashMap<>();
+        for (Program program : programs) {
+            if (wanted.size() >= mMaxPlayers) {
+                break;
+            }
+            InternalProviderData data = program.getReadOnlyInternalProviderData();
+            if (data != null && data.getVideoUrl() != null) {
+                wanted.put(Uri.parse(data.getVideoUrl()), program);
+            }
+        }
+
+        Iterator<Map.Entry<Uri, DemoPlayer>> iterator = mPlayers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Uri, DemoPlayer> entry = iterator.next();
+            if (!wanted.containsKey(entry.getKey())) {
+                entry.getValue().release();
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<Uri, Program> entry : wanted.entrySet()) {
+            if (!mPlayers.containsKey(entry.getKey())) {
+                Program program = entry.getValue();
+                DemoPlayer player = new DemoPlayer(mContext,
+                        program.getReadOnlyInternalProviderData().getVideoType(), entry.getKey(),
+                        true);
+                // Buffer around where playback will start if the user tunes in soon.
+                long positionMs = System.currentTimeMillis() - program.getStartTimeUtcMillis();
+                if (positionMs > 0) {
+                    player.seekTo(positionMs);
+                }
+                mPlayers.put(entry.getKey(), player);
+            }
+        }
+    }
+
+    /**
+     * @return Whether a player is prepared for the given media.
+     */
+    public boolean contains(Uri uri) {
+        return mPlayers.containsKey(uri);
+    }
+
+    /**
+     * Takes the prepared player for the given media out of the pool.
+     *
+     * @param uri The media to play.
+     * @return A paused player that buffers normally, or null if none was prepared for the media.
+     */
+    public DemoPlayer acquire(Uri uri) {
+        DemoPlayer player = mPlayers.remove(uri);
+        if (player != null) {
+            player.finishPreload();
+        }
+        return player;
+    }
+
+    /**
+     * Releases every prepared player.
+     */
+    public void release() {
+        for (DemoPlayer player : mPlayers.values()) {
+            player.release();
+        }
+        mPlayers.clear();
+    }
+}
@@ -40,6 +40,7 @@ import android.view.accessibility.CaptioningManager;
 
 import com.example.android.sampletvinput.R;
 import com.example.android.sampletvinput.player.DemoPlayer;
+import com.example.android.sampletvinput.player.PreloadedPlayerPool;
 
 import com.example.android.sampletvinput.SampleJobService;
 import com.google.android.exoplayer2.ExoPlayer;
@@ -58,6 +59,7 @@ import com.google.android.media.tv.companionlibrary.EpgSyncJobService;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -68,6 +70,9 @@ public class RichTvInputService extends BaseTvInputService {
     private static final String TAG = "RichTvInputService";
     private static final boolean DEBUG = false;
     private static final long EPG_SYNC_DELAYED_PERIOD_MS = 1000 * 2; // 2 Seconds
+    // Each prepared player holds buffers and network connections, so only the most likely next
+    // channel gets one.
+    private static final int MAX_PRELOADED_PLAYERS = 1;
 
     private CaptioningManager mCaptioningManager;
 
@@ -112,7 +117,8 @@ public class RichTvInputService extends BaseTvInputService {
         return new RichRecordingSession(this, inputId);
     }
 
-    class RichTvInputSessionImpl extends BaseTvInputService.Session implements DemoPlayer.Listener, DemoPlayer.CaptionListener {
+    class RichTvInputSessionImpl extends BaseTvInputService.Session implements DemoPlayer.Listener,
+            DemoPlayer.CaptionListener, DemoPlayer.PlaylistListener {
         private static final float CAPTION_LINE_HEIGHT_RATIO = 0.0533f;
         private static final int TEXT_UNIT_PIXELS = 0;
         private static final String UNKNOWN_LANGUAGE = "und";
@@ -120,6 +126,10 @@ public class RichTvInputService extends BaseTvInputService {
         private int mSelectedSubtitleTrackIndex;
         private SubtitleView mSubtitleView;
         private DemoPlayer mPlayer;
+        private final PreloadedPlayerPool mPreloadedPlayers;
+        // Buffers the video of the next ad break before it starts
+        private DemoPlayer mPrefetchedAdPlayer;
+        private final List<Uri> mQueuedUris = new ArrayList<>();
         private boolean mCaptionEnabled;
         private String mInputId;
         private Context mContext;
@@ -129,6 +139,7 @@ public class RichTvInputService extends BaseTvInputService {
             mCaptionEnabled = mCaptioningManager.isEnabled();
             mContext = context;
             mInputId = inputId;
+            mPreloadedPlayers = new PreloadedPlayerPool(context, MAX_PRELOADED_PLAYERS);
         }
 
         @Override
@@ -164,8 +175,10 @@ public class RichTvInputService extends BaseTvInputService {
                 return false;
             }
 
-            createPlayer(program.getInternalProviderData().getVideoType(),
-                    Uri.parse(program.getInternalProviderData().getVideoUrl()));
+            createPlayer(program.getReadOnlyInternalProviderData().getVideoType(),
+                    Uri.parse(program.getReadOnlyInternalProviderData().getVideoUrl()),
+                    mQueuedUris);
+            mQueuedUris.clear();
 
             if (startPosMs > 0) {
                 mPlayer.seekTo(startPosMs);
@@ -179,10 +192,10 @@ public class RichTvInputService extends BaseTvInputService {
 
         @RequiresApi(api = Build.VERSION_CODES.N)
         public boolean onPlayRecordedProgram(RecordedProgram recordedProgram) {
-            createPlayer(recordedProgram.getInternalProviderData().getVideoType(),
-                    Uri.parse(recordedProgram.getInternalProviderData().getVideoUrl()));
+            createPlayer(recordedProgram.getReadOnlyInternalProviderData().getVideoType(),
+                    Uri.parse(recordedProgram.getReadOnlyInternalProviderData().getVideoUrl()));
 
-            long recordingStartTime = recordedProgram.getInternalProviderData()
+            long recordingStartTime = recordedProgram.getReadOnlyInternalProviderData()
                     .getRecordedProgramStartTime();
             mPlayer.seekTo(recordingStartTime - recordedProgram.getStartTimeUtcMillis());
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -202,7 +215,9 @@ public class RichTvInputService extends BaseTvInputService {
                 Log.d(TAG, "Tune to " + channelUri.toString());
             }
             notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
-            releasePlayer();
+            // The player is kept and switched to the new channel's content once it is known.
+            stopPlayer();
+            releasePrefetchedAdPlayer();
             return super.onTune(channelUri);
         }
 
@@ -219,17 +234,106 @@ public class RichTvInputService extends BaseTvInputService {
             createPlayer(TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE,Uri.parse(advertisement.getRequestUrl()));
         }
 
+        @Override
+        public boolean onStitchAdvertisement(Advertisement advertisement, long adPositionMs) {
+            if (mPlayer == null
+                    || !mPlayer.insertAd(Uri.parse(advertisement.getRequestUrl()), adPositionMs)) {
+                return false;
+            }
+            releasePrefetchedAdPlayer();
+            return true;
+        }
+
+        @Override
+        public void onPrefetchAdvertisement(Advertisement advertisement) {
+            if (mPlayer != null && mPlayer.canInsertAd()) {
+                // The ad will be stitched into the content, so the content player buffers it.
+                return;
+            }
+            releasePrefetchedAdPlayer();
+            mPrefetchedAdPlayer = new DemoPlayer(mContext,
+                    TvContractUtils.SOURCE_TYPE_HTTP_PROGRESSIVE,
+                    Uri.parse(advertisement.getRequestUrl()), true);
+        }
+
+
+        @Override
+        public int onQueuePrograms(Program program, List<Program> followingPrograms) {
+            mQueuedUris.clear();
+            InternalProviderData data = program.getReadOnlyInternalProviderData();
+            if (data == null || data.getVideoUrl() == null
+                    || mPreloadedPlayers.contains(Uri.parse(data.getVideoUrl()))) {
+                // A preloaded player starts faster than one that loads the queued media too.
+                return 0;
+            }
+            for (Program followingProgram : followingPrograms) {
+                InternalProviderData followingData =
+                        followingProgram.getReadOnlyInternalProviderData();
+                if (followingData == null || followingData.getVideoUrl() == null) {
+                    break;
+                }
+                mQueuedUris.add(Uri.parse(followingData.getVideoUrl()));
+            }
+            return mQueuedUris.size();
+        }
+
+        @Override
+        public void onQueuedMediaStarted(int queueIndex) {
+            notifyQueuedProgramStarted();
+        }
+
+        @Override
+        public void onPredictedProgramsChanged(List<Program> programs) {
+            mPreloadedPlayers.preload(programs);
+        }
 
         private void createPlayer(int videoType, Uri videoUrl) {
-            releasePlayer();
-            mPlayer = new DemoPlayer(mContext, videoType, videoUrl);
+            createPlayer(videoType, videoUrl, Collections.<Uri>emptyList());
+        }
+
+        private void createPlayer(int videoType, Uri videoUrl, List<Uri> queuedUrls) {
+            DemoPlayer preloadedPlayer =
+                    queuedUrls.isEmpty() ? acquirePreloadedPlayer(videoUrl) : null;
+            if (preloadedPlayer != null) {
+                releasePlayer();
+                mPlayer = preloadedPlayer;
+            } else if (mPlayer != null) {
+                // Switching the media of the current player keeps its decoders and surface, which
+                // avoids a black screen while a new player is set up.
+                mPlayer.setMedia(videoType, videoUrl, queuedUrls);
+                mPlayer.prepare();
+                return;
+            } else {
+                mPlayer = new DemoPlayer(mContext, videoType, videoUrl);
+                if (!queuedUrls.isEmpty()) {
+                    mPlayer.setMedia(videoType, videoUrl, queuedUrls);
+                }
+            }
             mPlayer.addListener(this);
             mPlayer.setCaptionListener(this);
+            mPlayer.setPlaylistListener(this);
             mPlayer.prepare();
         }
 
 
 
+        private DemoPlayer acquirePreloadedPlayer(Uri videoUrl) {
+            if (mPrefetchedAdPlayer != null && mPrefetchedAdPlayer.getUri().equals(videoUrl)) {
+                DemoPlayer player = mPrefetchedAdPlayer;
+                mPrefetchedAdPlayer = null;
+                player.finishPreload();
+                return player;
+            }
+            return mPreloadedPlayers.acquire(videoUrl);
+        }
+
+        private void releasePrefetchedAdPlayer() {
+            if (mPrefetchedAdPlayer != null) {
+                mPrefetchedAdPlayer.release();
+                mPrefetchedAdPlayer = null;
+            }
+        }
+
         @Override
         public boolean onSelectTrack(int type, String trackId) {
             if (trackId == null) {
@@ -251,6 +355,12 @@ public class RichTvInputService extends BaseTvInputService {
             return false;
         }
 
+        private void stopPlayer() {
+            if (mPlayer != null) {
+                mPlayer.stop();
+            }
+        }
+
         private void releasePlayer() {
             if (mPlayer != null) {
                 mPlayer.removeListener(this);
@@ -265,12 +375,14 @@ public class RichTvInputService extends BaseTvInputService {
         public void onRelease() {
             super.onRelease();
             releasePlayer();
+            releasePrefetchedAdPlayer();
+            mPreloadedPlayers.release();
         }
 
         @Override
         public void onBlockContent(TvContentRating rating) {
             super.onBlockContent(rating);
-            releasePlayer();
+            stopPlayer();
         }
 
         private float getCaptionFontSize() {
@@ -387,7 +499,7 @@ public class RichTvInputService extends BaseTvInputService {
             RecordedProgram recordedProgram = new RecordedProgram.Builder(programToRecord)
                         .setInputId(mInputId)
                         .setRecordingDataUri(
-                                programToRecord.getInternalProviderData().getVideoUrl())
+                                programToRecord.getReadOnlyInternalProviderData().getVideoUrl())
                         .setRecordingDurationMillis(currentTime - mStartTimeMs)
                         .setInternalProviderData(internalProviderData)
                         .build();
@@ -17,6 +17,7 @@
 package com.google.android.media.tv.companionlibrary;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.ViewGroup;
@@ -32,25 +33,47 @@ import com.google.ads.interactivemedia.v3.api.AdsRequest;
 import com.google.ads.interactivemedia.v3.api.ImaSdkFactory;
 import com.google.ads.interactivemedia.v3.api.player.VideoAdPlayer;
 import com.google.ads.interactivemedia.v3.api.player.VideoProgressUpdate;
+import com.google.android.media.tv.companionlibrary.utils.AdResponseCache;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A controller class integrated with <a href="https://developers.google.com/interactive-media-ads/docs/sdks/android/">Google IMA SDK</a>,
  * which can be used to request <a href="http://www.iab.com/guidelines/digital-video-ad-serving-template-vast-3-0/">VAST</a>
  * video ads, handle ad error and track the progress of ad playback.
+ * <p>
+ * A controller is meant to live as long as its session, as creating the IMA {@link AdsLoader}
+ * is expensive. Each ad is an {@link AdRequest}, which is cheap to create and release. An ad
+ * pod, i.e. a break made of several ads, is an {@link AdPod}.
  * @hide
  */
 public class AdController implements AdErrorEvent.AdErrorListener,
-        AdsLoader.AdsLoadedListener, AdEvent.AdEventListener {
+        AdsLoader.AdsLoadedListener {
     private static final String TAG = "AdController";
     private static final boolean DEBUG = false;
+    private static final int AD_RESPONSE_CONNECTION_TIMEOUT_MS = 1000 * 5;
+    private static final int AD_RESPONSE_READ_TIMEOUT_MS = 1000 * 10;
 
     /**
      * Callback interface used to delegate major ad request events.
      */
     public interface AdControllerCallback {
+        /**
+         * This is called when the advertisement request finished and the ad video is known, which
+         * can be well before it is played if the ad was requested with {@link #prefetchAds}.
+         *
+         * @param adVideoUrl URL of advertisement video.
+         */
+        void onAdLoaded(String adVideoUrl);
+
         /**
          * This is called when the advertisement request finished and advertisement video is about
          * to be played.
@@ -74,15 +97,9 @@ public class AdController implements AdErrorEvent.AdErrorListener,
         void onAdError();
     }
 
-    // Container with references to video player and ad UI ViewGroup.
-    private AdDisplayContainer mAdDisplayContainer;
-
     // The AdsLoader instance exposes the requestAds method.
     private AdsLoader mAdsLoader;
 
-    // AdsManager exposes methods to control ad playback and listen to ad events.
-    private AdsManager mAdsManager;
-
     // Factory class for creating SDK objects.
     private ImaSdkFactory mSdkFactory;
 
@@ -90,11 +107,24 @@ public class AdController implements AdErrorEvent.AdErrorListener,
     // component.
     private ViewGroup mStubViewGroup;
 
-    // Callback used to define behavior of the ad.
-    private AdControllerCallback mAdControllerCallback;
+    // Requests that have not been released, so that they can be released with the controller.
+    private final Set<AdRequest> mAdRequests = new HashSet<>();
+
+    // VAST responses by ad tag, or null to let IMA fetch every ad tag itself.
+    private final AdResponseCache mAdResponseCache;
 
     public AdController(Context context) {
-        // Create an AdsLoader.
+        this(context, null);
+    }
+
+    /**
+     * @param adResponseCache The cache to read VAST responses from and store them in, or null to
+     *                        always request them from the ad server.
+     */
+    public AdController(Context context, AdResponseCache adResponseCache) {
+        mAdResponseCache = adResponseCache;
+        // Create an AdsLoader. Its listeners are registered once, and each response is routed to
+        // its request through the user request context.
         mSdkFactory = ImaSdkFactory.getInstance();
         mAdsLoader = mSdkFactory.createAdsLoader(context);
         mAdsLoader.addAdErrorListener(this);
@@ -104,46 +134,120 @@ public class AdController implements AdErrorEvent.AdErrorListener,
     }
 
     /**
-     * Requests video ads from the given VAST ad tag.
+     * Requests video ads from the given VAST ad tag and plays them as soon as they are loaded.
      *
      * @param adRequestUrl URL of the ad's VAST XML.
+     * @return The request, which should be released once the ads are done.
      */
-    public void requestAds(@NonNull String adRequestUrl,
+    public AdRequest requestAds(@NonNull String adRequestUrl,
            @NonNull AdControllerCallback adControllerCallback) {
-        mAdControllerCallback = adControllerCallback;
+        AdRequest adRequest = prefetchAds(adRequestUrl, adControllerCallback);
+        adRequest.startAds();
+        return adRequest;
+    }
+
+    /**
+     * Requests video ads from the given VAST ad tag and loads them without playing them, so that
+     * {@link AdRequest#startAds()} can play them without waiting for the ad server.
+     *
+     * @param adRequestUrl URL of the ad's VAST XML.
+     * @return The request, which should be released once the ads are done.
+     */
+    public AdRequest prefetchAds(@NonNull String adRequestUrl,
+            @NonNull AdControllerCallback adControllerCallback) {
+        AdRequest adRequest = new AdRequest(adRequestUrl, adControllerCallback);
+        mAdRequests.add(adRequest);
+        if (mAdResponseCache == null) {
+            sendAdsRequest(adRequest, null);
+            return adRequest;
+        }
+
+        long currentTimeMs = System.currentTimeMillis();
+        String adResponse = mAdResponseCache.getResponse(adRequestUrl, currentTimeMs);
+        if (adResponse != null) {
+            // The ad video can start buffering while IMA parses the response.
+            String adVideoUrl = mAdResponseCache.getAdVideoUrl(adRequestUrl, currentTimeMs);
+            if (adVideoUrl != null) {
+                adRequest.onAdVideoUrlResolved(adVideoUrl);
+            }
+            sendAdsRequest(adRequest, adResponse);
+        } else {
+            new FetchAdResponseTask(adRequest).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return adRequest;
+    }
+
+    /**
+     * Requests the ads of an ad pod in parallel and plays them back to back as soon as the first
+     * of them is loaded.
+     *
+     * @param adRequestUrls URLs of the VAST XML of each ad, in the order they play.
+     * @return The pod, which should be released once the ads are done.
+     */
+    public AdPod requestAdPod(@NonNull List<String> adRequestUrls,
+            @NonNull AdControllerCallback adControllerCallback) {
+        AdPod adPod = prefetchAdPod(adRequestUrls, adControllerCallback);
+        adPod.startAds();
+        return adPod;
+    }
 
-        mAdDisplayContainer = mSdkFactory.createAdDisplayContainer();
-        mAdDisplayContainer.setPlayer(new VideoAdPlayerImpl());
-        mAdDisplayContainer.setAdContainer(mStubViewGroup);
+    /**
+     * Requests the ads of an ad pod in parallel without playing them, so that
+     * {@link AdPod#startAds()} can play them back to back without waiting for the ad server.
+     *
+     * @param adRequestUrls URLs of the VAST XML of each ad, in the order they play.
+     * @return The pod, which should be released once the ads are done.
+     */
+    public AdPod prefetchAdPod(@NonNull List<String> adRequestUrls,
+            @NonNull AdControllerCallback adControllerCallback) {
+        return new AdPod(adRequestUrls, adControllerCallback);
+    }
 
+    /**
+     * Passes a request to IMA.
+     *
+     * @param adResponse The VAST response of the request's ad tag, or null to let IMA request it.
+     */
+    private void sendAdsRequest(AdRequest adRequest, String adResponse) {
         // Create the ads request.
         AdsRequest request = mSdkFactory.createAdsRequest();
-        request.setAdTagUrl(adRequestUrl);
-        request.setAdDisplayContainer(mAdDisplayContainer);
+        if (adResponse != null) {
+            request.setAdsResponse(adResponse);
+        } else {
+            request.setAdTagUrl(adRequest.mAdTagUrl);
+        }
+        request.setAdDisplayContainer(adRequest.mAdDisplayContainer);
+        request.setUserRequestContext(adRequest);
 
         // Request the ad. After the ad is loaded, onAdsManagerLoaded() will be called.
         mAdsLoader.requestAds(request);
     }
 
     /**
-     * Releases related resources.
+     * Releases every request and the ads loader. The controller cannot be used afterwards.
      */
     public void release() {
-        if (mAdsManager != null) {
-            mAdsManager.destroy();
-            mAdsManager = null;
+        for (AdRequest adRequest : new ArrayList<>(mAdRequests)) {
+            adRequest.release();
         }
         if (mAdsLoader != null) {
             mAdsLoader.removeAdsLoadedListener(this);
             mAdsLoader.removeAdErrorListener(this);
+            mAdsLoader = null;
         }
     }
 
+    /**
+     * An error raised by the AdsLoader, i.e. while requesting ads.
+     */
     @Override
     public void onAdError(AdErrorEvent adErrorEvent) {
-        Log.e(TAG, adErrorEvent.getError().getMessage());
-        mAdControllerCallback.onAdError();
-        release();
+        Object adRequest = adErrorEvent.getUserRequestContext();
+        if (adRequest instanceof AdRequest && mAdRequests.contains(adRequest)) {
+            ((AdRequest) adRequest).onAdError(adErrorEvent);
+        } else {
+            Log.e(TAG, adErrorEvent.getError().getMessage());
+        }
     }
 
     /**
@@ -153,58 +257,342 @@ public class AdController implements AdErrorEvent.AdErrorListener,
     public void onAdsManagerLoaded(AdsManagerLoadedEvent adsManagerLoadedEvent) {
         // Ads were successfully loaded, so get the AdsManager instance. AdsManager has
         // events for ad playback and errors.
-        mAdsManager = adsManagerLoadedEvent.getAdsManager();
-
-        // Attach event and error event listeners.
-        mAdsManager.addAdErrorListener(this);
-        mAdsManager.addAdEventListener(this);
-        mAdsManager.init();
+        AdsManager adsManager = adsManagerLoadedEvent.getAdsManager();
+        Object adRequest = adsManagerLoadedEvent.getUserRequestContext();
+        if (adRequest instanceof AdRequest && mAdRequests.contains(adRequest)) {
+            ((AdRequest) adRequest).onAdsManagerLoaded(adsManager);
+        } else {
+            // The request was released while it was loading.
+            adsManager.destroy();
+        }
     }
 
     /**
-     * Responds to AdEvents.
+     * The ads of one ad break, requested with {@link #requestAds} or {@link #prefetchAds}.
      */
-    @Override
-    public void onAdEvent(AdEvent adEvent) {
-        if (DEBUG) {
-            Log.d(TAG, "Event: " + adEvent.getType());
-        }
-        // These are the suggested event types to handle. For full list of all ad event types,
-        // see the documentation for AdEvent.AdEventType.
-        switch (adEvent.getType()) {
-            case LOADED:
-                // AdEventType.LOADED will be fired when ads are ready to be played.
-                // AdsManager.start() begins ad playback. This method is ignored for VMAP or ad
-                // rules playlists, as the SDK will automatically start executing the playlist.
+    public final class AdRequest implements AdErrorEvent.AdErrorListener,
+            AdEvent.AdEventListener {
+        private final String mAdTagUrl;
+
+        // Container with references to video player and ad UI ViewGroup.
+        private final AdDisplayContainer mAdDisplayContainer;
+
+        private final VideoAdPlayerImpl mVideoAdPlayer;
+
+        // Callback used to define behavior of the ad.
+        private final AdControllerCallback mAdControllerCallback;
+
+        // AdsManager exposes methods to control ad playback and listen to ad events.
+        private AdsManager mAdsManager;
+
+        // Whether the AdsManager has loaded the ad, so it can be started.
+        private boolean mAdLoaded;
+
+        // Whether the ad should play as soon as it is loaded.
+        private boolean mStartRequested;
+
+        // Whether the request failed before the ad was started.
+        private boolean mFailed;
+
+        // The ad video URL last passed to AdControllerCallback.onAdLoaded().
+        private String mAdVideoUrl;
+
+        private AdRequest(String adTagUrl, AdControllerCallback adControllerCallback) {
+            mAdTagUrl = adTagUrl;
+            mAdControllerCallback = adControllerCallback;
+            mVideoAdPlayer = new VideoAdPlayerImpl(this);
+            mAdDisplayContainer = mSdkFactory.createAdDisplayContainer();
+            mAdDisplayContainer.setPlayer(mVideoAdPlayer);
+            mAdDisplayContainer.setAdContainer(mStubViewGroup);
+        }
+
+        /**
+         * Plays the ads requested with {@link #prefetchAds}, as soon as they are loaded if they
+         * are not yet.
+         *
+         * @return {@code false} if the request already failed, in which case nothing is played
+         * and the ads have to be requested again.
+         */
+        public boolean startAds() {
+            if (mFailed) {
+                return false;
+            }
+            mStartRequested = true;
+            if (mAdLoaded) {
                 mAdsManager.start();
-                break;
-            case COMPLETED:
-                // AdEventType.COMPLETED is fire when ad is completed, but before the fire of
-                // AdEventType.CONTENT_RESUME_REQUESTED.
+            }
+            return true;
+        }
+
+        /**
+         * Stops listening to the ads and releases the AdsManager. This is done automatically
+         * when the ads complete or fail.
+         */
+        public void release() {
+            if (mAdsManager != null) {
+                mAdsManager.removeAdErrorListener(this);
+                mAdsManager.removeAdEventListener(this);
+                mAdsManager.destroy();
+                mAdsManager = null;
+            }
+            mVideoAdPlayer.release();
+            mAdRequests.remove(this);
+        }
+
+        private void onAdVideoUrlResolved(String adVideoUrl) {
+            if (mAdResponseCache != null) {
+                mAdResponseCache.putAdVideoUrl(mAdTagUrl, adVideoUrl, System.currentTimeMillis());
+            }
+            // IMA resolves the same URL that was read from the cache, which was reported already.
+            if (!adVideoUrl.equals(mAdVideoUrl)) {
+                mAdVideoUrl = adVideoUrl;
+                mAdControllerCallback.onAdLoaded(adVideoUrl);
+            }
+        }
+
+        private void onAdsManagerLoaded(AdsManager adsManager) {
+            mAdsManager = adsManager;
+
+            // Attach event and error event listeners.
+            mAdsManager.addAdErrorListener(this);
+            mAdsManager.addAdEventListener(this);
+            mAdsManager.init();
+        }
+
+        @Override
+        public void onAdError(AdErrorEvent adErrorEvent) {
+            Log.e(TAG, adErrorEvent.getError().getMessage());
+            if (mStartRequested) {
+                mAdControllerCallback.onAdError();
+            } else {
+                // Nobody is waiting for the ad yet. startAds() reports the failure.
+                mFailed = true;
+            }
+            release();
+        }
+
+        /**
+         * Responds to AdEvents.
+         */
+        @Override
+        public void onAdEvent(AdEvent adEvent) {
+            if (DEBUG) {
+                Log.d(TAG, "Event: " + adEvent.getType());
+            }
+            // These are the suggested event types to handle. For full list of all ad event types,
+            // see the documentation for AdEvent.AdEventType.
+            switch (adEvent.getType()) {
+                case LOADED:
+                    // AdEventType.LOADED will be fired when ads are ready to be played.
+                    // AdsManager.start() begins ad playback. This method is ignored for VMAP or ad
+                    // rules playlists, as the SDK will automatically start executing the playlist.
+                    mAdLoaded = true;
+                    if (mStartRequested) {
+                        mAdsManager.start();
+                    }
+                    break;
+                case COMPLETED:
+                    // AdEventType.COMPLETED is fire when ad is completed, but before the fire of
+                    // AdEventType.CONTENT_RESUME_REQUESTED.
+                    mAdControllerCallback.onAdCompleted();
+                    release();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The ads of an ad break that play back to back, requested with {@link #requestAdPod} or
+     * {@link #prefetchAdPod}. Every ad is requested up front, and each ad is started once the
+     * one before it completes, so the callback sees a single break: it gets
+     * {@link AdControllerCallback#onAdReadyToPlay} for every ad but only one
+     * {@link AdControllerCallback#onAdCompleted} or {@link AdControllerCallback#onAdError}
+     * at the end. Ads that fail are skipped.
+     */
+    public final class AdPod {
+        private final AdControllerCallback mAdControllerCallback;
+        private final List<AdRequest> mAdRequests;
+        // The index of the ad that is playing, or -1 before the pod is started.
+        private int mCurrentIndex = -1;
+        private boolean mAdPlayed;
+
+        private AdPod(List<String> adRequestUrls, AdControllerCallback adControllerCallback) {
+            mAdControllerCallback = adControllerCallback;
+            mAdRequests = new ArrayList<>(adRequestUrls.size());
+            for (int i = 0; i < adRequestUrls.size(); i++) {
+                mAdRequests.add(prefetchAds(adRequestUrls.get(i), new PodAdCallback(i)));
+            }
+        }
+
+        /**
+         * Plays the ads of the pod in order, each as soon as it is loaded if it is not yet.
+         *
+         * @return {@code false} if every request already failed, in which case nothing is
+         * played and the ads have to be requested again.
+         */
+        public boolean startAds() {
+            if (mCurrentIndex >= 0) {
+                return true;
+            }
+            return startNextAd();
+        }
+
+        /**
+         * @return Whether an ad of the pod has started playing.
+         */
+        public boolean isAdPlayed() {
+            return mAdPlayed;
+        }
+
+        /**
+         * Stops listening to the ads and releases their AdsManagers.
+         */
+        public void release() {
+            for (AdRequest adRequest : mAdRequests) {
+                adRequest.release();
+            }
+        }
+
+        private boolean startNextAd() {
+            while (++mCurrentIndex < mAdRequests.size()) {
+                if (mAdRequests.get(mCurrentIndex).startAds()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void onAdDone() {
+            if (startNextAd()) {
+                return;
+            }
+            if (mAdPlayed) {
                 mAdControllerCallback.onAdCompleted();
-                release();
-                break;
-            default:
-                break;
+            } else {
+                mAdControllerCallback.onAdError();
+            }
+        }
+
+        private final class PodAdCallback implements AdControllerCallback {
+            private final int mIndex;
+
+            PodAdCallback(int index) {
+                mIndex = index;
+            }
+
+            @Override
+            public void onAdLoaded(String adVideoUrl) {
+                // Only the first ad can be buffered ahead of the break.
+                if (mIndex == 0) {
+                    mAdControllerCallback.onAdLoaded(adVideoUrl);
+                }
+            }
+
+            @Override
+            public TvPlayer onAdReadyToPlay(String adVideoUrl) {
+                mAdPlayed = true;
+                return mAdControllerCallback.onAdReadyToPlay(adVideoUrl);
+            }
+
+            @Override
+            public void onAdCompleted() {
+                onAdDone();
+            }
+
+            @Override
+            public void onAdError() {
+                Log.w(TAG, "Skipping ad " + mIndex + " of the pod");
+                onAdDone();
+            }
         }
     }
 
-    private class VideoAdPlayerImpl extends TvPlayer.Callback implements VideoAdPlayer {
+    /**
+     * Reads the VAST response of a request on a background thread and passes it to IMA. If it
+     * cannot be read, IMA is left to request the ad tag itself.
+     */
+    private class FetchAdResponseTask extends AsyncTask<Void, Void, String> {
+        private final AdRequest mAdRequest;
+
+        FetchAdResponseTask(AdRequest adRequest) {
+            mAdRequest = adRequest;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            InputStream is = null;
+            try {
+                URLConnection urlConnection = new URL(mAdRequest.mAdTagUrl).openConnection();
+                urlConnection.setConnectTimeout(AD_RESPONSE_CONNECTION_TIMEOUT_MS);
+                urlConnection.setReadTimeout(AD_RESPONSE_READ_TIMEOUT_MS);
+                is = urlConnection.getInputStream();
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, length);
+                }
+                return os.toString("UTF-8");
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read the ad response of " + mAdRequest.mAdTagUrl, e);
+                return null;
+            } finally {
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                        // Ignore exception.
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String adResponse) {
+            if (adResponse != null) {
+                mAdResponseCache.putResponse(mAdRequest.mAdTagUrl, adResponse,
+                        System.currentTimeMillis());
+            }
+            if (mAdsLoader != null && mAdRequests.contains(mAdRequest)) {
+                sendAdsRequest(mAdRequest, adResponse);
+            }
+        }
+    }
+
+    private static class VideoAdPlayerImpl extends TvPlayer.Callback implements VideoAdPlayer {
+        final AdRequest mAdRequest;
+        final AdControllerCallback mAdControllerCallback;
         String mAdVideoUrl;
         TvPlayer mTvPlayer;
         List<VideoAdPlayerCallback> mAdCallbacks;
 
-        VideoAdPlayerImpl() {
+        VideoAdPlayerImpl(AdRequest adRequest) {
+            mAdRequest = adRequest;
+            mAdControllerCallback = adRequest.mAdControllerCallback;
             mAdCallbacks = new ArrayList<>(1);
         }
 
+        /**
+         * Stops following the player, which outlives the ad.
+         */
+        void release() {
+            if (mTvPlayer != null) {
+                mTvPlayer.unregisterCallback(this);
+                mTvPlayer = null;
+            }
+        }
+
         @Override
         public void loadAd(String adVideoUrl) {
             mAdVideoUrl = adVideoUrl;
+            mAdRequest.onAdVideoUrlResolved(adVideoUrl);
         }
 
         @Override
         public void playAd() {
+            release();
             mTvPlayer = mAdControllerCallback.onAdReadyToPlay(mAdVideoUrl);
             mTvPlayer.registerCallback(this);
             mTvPlayer.play();
@@ -253,6 +641,9 @@ public class AdController implements AdErrorEvent.AdErrorListener,
 
         @Override
         public void onCompleted() {
+            // The player goes on with the content when the ad is stitched into it, so stop
+            // following it before IMA may play the next ad on it.
+            release();
             for (VideoAdPlayerCallback callback : mAdCallbacks) {
                 callback.onEnded();
             }
@@ -260,6 +651,7 @@ public class AdController implements AdErrorEvent.AdErrorListener,
 
         @Override
         public void onError() {
+            release();
             for (VideoAdPlayerCallback callback : mAdCallbacks) {
                 callback.onError();
             }
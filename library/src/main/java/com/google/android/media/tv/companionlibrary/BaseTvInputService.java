@@ -36,6 +36,7 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.util.LongSparseArray;
@@ -45,13 +46,30 @@ import com.google.android.media.tv.companionlibrary.model.Advertisement;
 import com.google.android.media.tv.companionlibrary.model.Channel;
 import com.google.android.media.tv.companionlibrary.model.Program;
 import com.google.android.media.tv.companionlibrary.model.RecordedProgram;
+import com.google.android.media.tv.companionlibrary.utils.AdResponseCache;
+import com.google.android.media.tv.companionlibrary.utils.AdTimeline;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMap;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMapStore;
+import com.google.android.media.tv.companionlibrary.utils.NowNextCache;
+import com.google.android.media.tv.companionlibrary.utils.NowNextIndex;
+import com.google.android.media.tv.companionlibrary.utils.NowNextIndexStore;
+import com.google.android.media.tv.companionlibrary.utils.OnTuneAdHistory;
+import com.google.android.media.tv.companionlibrary.utils.ParentalControlsCache;
+import com.google.android.media.tv.companionlibrary.utils.ProviderExecutor;
+import com.google.android.media.tv.companionlibrary.utils.RepeatSchedule;
+import com.google.android.media.tv.companionlibrary.utils.RepeatScheduleStore;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -77,28 +95,84 @@ public abstract class BaseTvInputService extends TvInputService {
     public static final String SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY =
             "last_program_ad_time_ms";
 
-    // For database calls
-    private static HandlerThread mDbHandlerThread;
+    /** How long channel change notifications are coalesced before the channel map is updated. */
+    private static final long CHANNEL_MAP_UPDATE_DELAY_MILLIS = 500;
+    /** Upper bound on how long a steady stream of notifications can postpone the update. */
+    private static final long CHANNEL_MAP_MAX_UPDATE_DELAY_MILLIS = 2000;
+    /** Above this many changed channels, the whole map is rebuilt with a single query. */
+    private static final int MAX_INCREMENTAL_CHANNEL_UPDATES = 50;
+    /**
+     * How long program change notifications must stop before the index and repeat schedules
+     * written by a sync are read again, so that a sync in another process has written them after
+     * its last programs.
+     */
+    private static final long PROGRAM_INDEX_RELOAD_DELAY_MILLIS = 2000;
+    private static final String PATH_CHANNEL = "channel";
+    private static final String PATH_LOGO = "logo";
+
+    /** Number of threads sessions query the TV provider on. */
+    private static final int PROVIDER_THREAD_COUNT = 2;
+    /** How long a tune waits for the channels to be read when there is no snapshot. */
+    private static final long CHANNEL_MAP_WAIT_MILLIS = 2000;
+
+    // For channel map updates, which are confined to this thread
+    private static HandlerThread mChannelMapThread;
+    // For the database calls of sessions
+    private static ProviderExecutor mProviderExecutor;
+    // Released once the channels have been read from the TV provider
+    private static CountDownLatch mChannelMapLatch;
 
     // Map of channel {@link TvContract.Channels#_ID} to Channel objects
-    private static LongSparseArray<Channel> mChannelMap;
+    // Channel snapshots keyed by input id. A snapshot is immutable and replaced as a whole, so
+    // sessions can read it on any thread while the database thread builds the next one.
+    private static final Map<String, ChannelMap> mChannelMaps = new ConcurrentHashMap<>();
     private static ContentResolver mContentResolver;
     private static ContentObserver mChannelObserver;
+    private static ContentObserver mProgramObserver;
+    // VAST responses shared by every session, as channels and programs reuse ad tags
+    private static final AdResponseCache mAdResponseCache = new AdResponseCache();
+
+    private String mInputId;
+
+    // Startup metrics
+    private long mStartupTimeMillis;
+    private boolean mStartedFromSnapshot;
+    private volatile long mChannelMapRefreshTimeMillis = -1;
+
+    // Pending channel changes, only accessed on mChannelMapThread
+    private Handler mChannelMapHandler;
+    private final Set<Long> mChangedChannelIds = new HashSet<>();
+    private boolean mChannelMapRebuildPending;
+    private long mFirstPendingChannelChangeMillis;
+    private final Runnable mUpdateChannelMapRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyPendingChannelChanges();
+        }
+    };
+    private final Runnable mReloadProgramIndexRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Sessions notice the new instance and drop the programs they cached.
+            NowNextIndexStore.reload(BaseTvInputService.this, mInputId);
+            RepeatScheduleStore.reload(BaseTvInputService.this, mInputId);
+        }
+    };
 
-    // For content ratings
-    private static final List<Session> mSessions = new ArrayList<>();
-    private final BroadcastReceiver mParentalControlsBroadcastReceiver = new BroadcastReceiver() {
+    // For content ratings. Sessions are added and removed on the main thread while the
+    // broadcast receiver iterates over them, so iterations go over a snapshot.
+    private static final List<Session> mSessions = new CopyOnWriteArrayList<>();
+    // Parental control settings, read again only after they change. The cache and the receiver
+    // that invalidates it are package-private for tests.
+    static final ParentalControlsCache mParentalControlsCache = new ParentalControlsCache();
+    final BroadcastReceiver mParentalControlsBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
+            mParentalControlsCache.invalidate();
+            // Each session checks its program in its own message, so a burst of broadcasts or
+            // many sessions do not hold up the main thread in one go.
             for (Session session : mSessions) {
-                TvInputManager manager =
-                        (TvInputManager) context.getSystemService(Context.TV_INPUT_SERVICE);
-
-                if (!manager.isParentalControlsEnabled()) {
-                    session.onUnblockContent(null);
-                } else {
-                    session.checkCurrentProgramContent();
-                }
+                session.onParentalControlsChanged();
             }
         }
     };
@@ -106,34 +180,226 @@ public abstract class BaseTvInputService extends TvInputService {
     @Override
     public void onCreate() {
         super.onCreate();
-        // Create background thread
-        mDbHandlerThread = new HandlerThread(getClass().getSimpleName());
-        mDbHandlerThread.start();
+        final long startTimeMillis = SystemClock.elapsedRealtime();
+        // Create background threads
+        mChannelMapThread = new HandlerThread(getClass().getSimpleName());
+        mChannelMapThread.start();
+        mProviderExecutor = new ProviderExecutor(getClass().getSimpleName() + "-provider",
+                PROVIDER_THREAD_COUNT);
 
         // Initialize the channel map and set observer for changes
         mContentResolver = BaseTvInputService.this.getContentResolver();
-        updateChannelMap();
-        mChannelObserver = new ContentObserver(new Handler(mDbHandlerThread.getLooper())) {
+        mInputId = TvContract.buildInputId(new ComponentName(BaseTvInputService.this
+                .getPackageName(), BaseTvInputService.this.getClass().getName()));
+        mChannelMapHandler = new Handler(mChannelMapThread.getLooper());
+        // Serve sessions from the snapshot written by the last sync, and refresh it from the
+        // TV provider in the background. Without a snapshot, tunes wait for the refresh before
+        // they read their program, so that the program plays with its channel.
+        ChannelMap snapshot = ChannelMapStore.read(this, mInputId);
+        mStartedFromSnapshot = snapshot != null;
+        mChannelMapLatch = new CountDownLatch(mStartedFromSnapshot ? 0 : 1);
+        if (mStartedFromSnapshot) {
+            mChannelMaps.put(mInputId, snapshot);
+        }
+        final CountDownLatch channelMapLatch = mChannelMapLatch;
+        mChannelMapHandler.post(new Runnable() {
             @Override
-            public void onChange(boolean selfChange) {
+            public void run() {
+                // Read the index of the last sync, so that tunes can look their program up in it
+                // without leaving the main thread.
+                NowNextIndexStore.get(BaseTvInputService.this, mInputId);
                 updateChannelMap();
+                channelMapLatch.countDown();
+                mChannelMapRefreshTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+                if (DEBUG) {
+                    Log.d(TAG, "Channel map refreshed " + mChannelMapRefreshTimeMillis
+                            + "ms after startup");
+                }
+            }
+        });
+        mChannelObserver = new ContentObserver(mChannelMapHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onChannelChanged(uri);
             }
         };
         mContentResolver.registerContentObserver(TvContract.Channels.CONTENT_URI, true,
                 mChannelObserver);
+        // A sync in another process only replaces the files of the index and repeat schedules, so
+        // read them again once the sync stops writing programs.
+        mProgramObserver = new ContentObserver(mChannelMapHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mChannelMapHandler.removeCallbacks(mReloadProgramIndexRunnable);
+                mChannelMapHandler.postDelayed(mReloadProgramIndexRunnable,
+                        PROGRAM_INDEX_RELOAD_DELAY_MILLIS);
+            }
+        };
+        mContentResolver.registerContentObserver(TvContract.Programs.CONTENT_URI, true,
+                mProgramObserver);
 
         // Setup our BroadcastReceiver
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(TvInputManager.ACTION_BLOCKED_RATINGS_CHANGED);
         intentFilter.addAction(TvInputManager.ACTION_PARENTAL_CONTROLS_ENABLED_CHANGED);
         registerReceiver(mParentalControlsBroadcastReceiver, intentFilter);
+
+        // Start loading the on-tune ad times, so that the first tune does not wait for them.
+        OnTuneAdHistory.getInstance(this);
+
+        mStartupTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+        if (DEBUG) {
+            Log.d(TAG, "Started in " + mStartupTimeMillis + "ms, "
+                    + (mStartedFromSnapshot ? "from a channel snapshot" : "without channels"));
+        }
+    }
+
+    /**
+     * @return How long {@link #onCreate()} took, in milliseconds. This is the time before the
+     * service can serve sessions.
+     */
+    public long getStartupTimeMillis() {
+        return mStartupTimeMillis;
+    }
+
+    /**
+     * @return Whether the channels were available right after {@link #onCreate()}, because a
+     * snapshot was written by an earlier sync.
+     */
+    public boolean isStartedFromSnapshot() {
+        return mStartedFromSnapshot;
+    }
+
+    /**
+     * @return How long after the start of {@link #onCreate()} the channels were first read from
+     * the TV provider, in milliseconds, or -1 if they have not been read yet.
+     */
+    public long getChannelMapRefreshTimeMillis() {
+        return mChannelMapRefreshTimeMillis;
     }
 
     private void updateChannelMap() {
-        ComponentName component = new ComponentName(BaseTvInputService.this.getPackageName(),
-                BaseTvInputService.this.getClass().getName());
-        String inputId = TvContract.buildInputId(component);
-        mChannelMap = TvContractUtils.buildChannelMap(mContentResolver, inputId);
+        LongSparseArray<Channel> channels =
+                TvContractUtils.buildChannelMap(mContentResolver, mInputId);
+        mChannelMaps.put(mInputId, new ChannelMap(channels));
+    }
+
+    /**
+     * Records a change notification for the channels table and schedules the channel map update.
+     * Notifications are coalesced, so a sync that writes many channels one at a time only causes
+     * a few updates. Called on {@link #mChannelMapThread}.
+     *
+     * @param uri The changed URI, which identifies a single channel when the provider supplies it.
+     */
+    private void onChannelChanged(Uri uri) {
+        List<String> segments = uri != null ? uri.getPathSegments() : null;
+        if (segments != null && segments.size() == 3 && PATH_CHANNEL.equals(segments.get(0))
+                && PATH_LOGO.equals(segments.get(2))) {
+            // Logos are not part of the channel map.
+            return;
+        }
+        long channelId = -1;
+        if (segments != null && segments.size() == 2 && PATH_CHANNEL.equals(segments.get(0))) {
+            try {
+                channelId = Long.parseLong(segments.get(1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (channelId < 0) {
+            mChannelMapRebuildPending = true;
+        } else {
+            mChangedChannelIds.add(channelId);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (mFirstPendingChannelChangeMillis == 0) {
+            mFirstPendingChannelChangeMillis = now;
+        }
+        long delay = Math.min(CHANNEL_MAP_UPDATE_DELAY_MILLIS,
+                mFirstPendingChannelChangeMillis + CHANNEL_MAP_MAX_UPDATE_DELAY_MILLIS - now);
+        mChannelMapHandler.removeCallbacks(mUpdateChannelMapRunnable);
+        mChannelMapHandler.postDelayed(mUpdateChannelMapRunnable, Math.max(0, delay));
+    }
+
+    /**
+     * Applies the channel changes recorded by {@link #onChannelChanged(Uri)}, either by querying
+     * just the changed channels or by rebuilding the whole map.
+     */
+    private void applyPendingChannelChanges() {
+        boolean rebuild = mChannelMapRebuildPending
+                || mChangedChannelIds.size() > MAX_INCREMENTAL_CHANNEL_UPDATES;
+        long[] channelIds = new long[mChangedChannelIds.size()];
+        int i = 0;
+        for (Long channelId : mChangedChannelIds) {
+            channelIds[i++] = channelId;
+        }
+        mChangedChannelIds.clear();
+        mChannelMapRebuildPending = false;
+        mFirstPendingChannelChangeMillis = 0;
+
+        ChannelMap channelMap = mChannelMaps.get(mInputId);
+        if (rebuild || channelMap == null) {
+            updateChannelMap();
+            return;
+        }
+        LongSparseArray<Channel> changedChannels =
+                TvContractUtils.queryChannels(mContentResolver, mInputId, channelIds);
+        if (changedChannels == null) {
+            updateChannelMap();
+            return;
+        }
+        mChannelMaps.put(mInputId, channelMap.update(channelIds, changedChannels));
+    }
+
+    /**
+     * Returns the latest channel snapshot of a TV input. This never blocks, so it is safe to call
+     * on the main thread.
+     *
+     * @param inputId The id of the TV input.
+     * @return The channels of the input, or {@link ChannelMap#EMPTY} if the input has no running
+     * service or its channels have not been loaded.
+     * @hide
+     */
+    public static ChannelMap getChannelMap(String inputId) {
+        ChannelMap channelMap = inputId == null ? null : mChannelMaps.get(inputId);
+        return channelMap != null ? channelMap : ChannelMap.EMPTY;
+    }
+
+    /**
+     * Returns the cache of VAST responses used by every session to start ads without going to
+     * the ad server. Use it to change how long responses are kept, or to read its hit and miss
+     * counts.
+     *
+     * @return The ad response cache.
+     * @hide
+     */
+    public static AdResponseCache getAdResponseCache() {
+        return mAdResponseCache;
+    }
+
+    /**
+     * Returns the executor sessions query and write the TV provider on. Use it to read how many
+     * queries wait and for how long, e.g. to see whether tunes wait behind prefetching.
+     *
+     * @return The provider executor, or null if the service is not running.
+     * @hide
+     */
+    public static ProviderExecutor getProviderExecutor() {
+        return mProviderExecutor;
+    }
+
+    /**
+     * Waits until the channels have been read from the TV provider, if the service started
+     * without a snapshot of them. Called on a provider thread.
+     */
+    private static void awaitChannelMap(CountDownLatch channelMapLatch) {
+        try {
+            if (!channelMapLatch.await(CHANNEL_MAP_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Channels were not read in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -151,8 +417,15 @@ public abstract class BaseTvInputService extends TvInputService {
         super.onDestroy();
         unregisterReceiver(mParentalControlsBroadcastReceiver);
         mContentResolver.unregisterContentObserver(mChannelObserver);
-        mDbHandlerThread.quit();
-        mDbHandlerThread = null;
+        mContentResolver.unregisterContentObserver(mProgramObserver);
+        mChannelMapHandler.removeCallbacks(mUpdateChannelMapRunnable);
+        mChannelMapHandler.removeCallbacks(mReloadProgramIndexRunnable);
+        mChannelMaps.remove(mInputId);
+        OnTuneAdHistory.getInstance(this).flush();
+        mChannelMapThread.quit();
+        mChannelMapThread = null;
+        mProviderExecutor.shutdown();
+        mProviderExecutor = null;
     }
 
     /**
@@ -163,6 +436,8 @@ public abstract class BaseTvInputService extends TvInputService {
         private static final int MSG_PLAY_CONTENT = 1000;
         private static final int MSG_PLAY_AD = 1001;
         private static final int MSG_PLAY_RECORDED_CONTENT = 1002;
+        private static final int MSG_PREFETCH_AD = 1003;
+        private static final int MSG_PARENTAL_CONTROLS_CHANGED = 1004;
 
         /** Minimum difference between playback time and system time in order for playback
          * to be considered non-live (timeshifted). */
@@ -170,17 +445,37 @@ public abstract class BaseTvInputService extends TvInputService {
         /** Buffer around current time for scheduling ads. If an ad will stop within this
          * amount of time relative to the current time, it is considered past and will not load.  */
         private static final long PAST_AD_BUFFER_MILLIS = 2000L;
+        /** How far ahead programs are read when prefetching the current and next program. */
+        private static final long PREFETCH_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(6);
+        /** The most programs offered to {@link #onQueuePrograms(Program, List)} at a time. */
+        private static final int MAX_QUEUED_PROGRAMS = 3;
+        /** How long after a queued program is due the player may take to move on to it. */
+        private static final long QUEUED_PROGRAM_TRANSITION_TIMEOUT_MILLIS = 5000L;
+        /** How far content resumed after a stitched ad break may be from the schedule before it
+         * is seeked back to it. */
+        private static final long STITCHED_CONTENT_MAX_DRIFT_MILLIS = 2000L;
+        /** How far from its scheduled start an ad break may be cued by the media. */
+        private static final long AD_CUE_MATCH_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
         private final Context mContext;
+        private final String mInputId;
         private final TvInputManager mTvInputManager;
+        private final OnTuneAdHistory mOnTuneAdHistory;
         private Channel mCurrentChannel;
-        private Program mCurrentProgram;
+        // Written on the main thread only, and also read by GetCurrentProgramRunnable
+        private volatile Program mCurrentProgram;
         private long mElapsedProgramTime;
-        private long mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
+        private volatile long mTimeShiftedPlaybackPosition =
+                TvInputManager.TIME_SHIFT_INVALID_TIME;
         private boolean mTimeShiftIsPaused;
 
         private boolean mNeedToCheckChannelAd;
+        // Whether the player plays mCurrentProgram, so that an ad can be stitched into it
+        private boolean mPlayingContent;
         private long mElapsedAdsTime;
+        // The ads of mAdTimelineProgram, which is mCurrentProgram unless it changed since
+        private AdTimeline mAdTimeline = AdTimeline.EMPTY;
+        private Program mAdTimelineProgram;
 
         private boolean mPlayingRecordedProgram;
         private RecordedProgram mRecordedProgram;
@@ -190,12 +485,48 @@ public abstract class BaseTvInputService extends TvInputService {
         private TvContentRating[] mCurrentContentRatingSet;
 
         private final Set<TvContentRating> mUnblockedRatingSet = new HashSet<>();
-        private final Handler mDbHandler;
+        private final ProviderExecutor mDbExecutor;
+        private final CountDownLatch mChannelMapLatch;
         private final Handler mHandler;
-        private GetCurrentProgramRunnable mGetCurrentProgramRunnable;
+        // Set on the main thread and read by the runnables, which may run at the same time as an
+        // older one that has not finished yet
+        private volatile GetCurrentProgramRunnable mGetCurrentProgramRunnable;
+        private volatile PrefetchProgramsRunnable mPrefetchProgramsRunnable;
+        private final NowNextCache mNowNextCache = new NowNextCache();
+        // The index mNowNextCache was filled with. Every sync replaces the index, so a different
+        // one means the cached programs may be out of date.
+        private volatile NowNextIndex mNowNextCacheIndex;
+        private volatile int mPrefetchChannelCount = 2;
+        private volatile ZapPredictor mZapPredictor = new ZapPredictor.AdjacentChannels();
+        private List<Program> mPredictedPrograms = Collections.emptyList();
+        // Programs queued on the player behind mCurrentProgram, in order
+        private final List<Program> mQueuedPrograms = new ArrayList<>();
 
         private long mMinimumOnTuneAdInterval = TimeUnit.MINUTES.toMillis(5);
+        private long mAdPrefetchLeadTime = TimeUnit.SECONDS.toMillis(10);
+        // Created with the first ad and kept until the session is released
         private AdController mAdController;
+        private AdController.AdPod mAdPod;
+        // Requests mPrefetchedAd ahead of its break, until insertAd() takes it over
+        private AdController.AdPod mPrefetchedAdPod;
+        private Advertisement mPrefetchedAd;
+        // Whether ad breaks are timed by cues in the media instead of the program guide
+        private boolean mAdCuesEnabled;
+        // The player mAdCueCallback is registered with
+        private TvPlayer mAdCueTvPlayer;
+        // The scheduled ad the last cue was matched with, as media repeat their cues
+        private Advertisement mLastCuedAd;
+        private final TvPlayer.Callback mAdCueCallback = new TvPlayer.Callback() {
+            @Override
+            public void onAdBreakStartCue(long leadTimeMs, long durationMs) {
+                cueAdBreak(leadTimeMs, durationMs);
+            }
+
+            @Override
+            public void onAdBreakEndCue() {
+                cancelCuedAdBreak();
+            }
+        };
         private Uri mChannelUri;
         private Surface mSurface;
         private float mVolume;
@@ -203,17 +534,32 @@ public abstract class BaseTvInputService extends TvInputService {
         public Session(Context context, String inputId) {
             super(context);
             this.mContext = context;
+            mInputId = inputId;
             mTvInputManager = (TvInputManager) context.getSystemService(Context.TV_INPUT_SERVICE);
+            mOnTuneAdHistory = OnTuneAdHistory.getInstance(context);
             mLastBlockedRating = null;
-            mDbHandler = new Handler(mDbHandlerThread.getLooper());
+            mDbExecutor = mProviderExecutor;
+            mChannelMapLatch = BaseTvInputService.mChannelMapLatch;
             mHandler = new Handler(this);
         }
 
         @Override
         public void onRelease() {
-            mDbHandler.removeCallbacksAndMessages(null);
+            mDbExecutor.cancel(mGetCurrentProgramRunnable);
+            mDbExecutor.cancel(mPrefetchProgramsRunnable);
+            mGetCurrentProgramRunnable = null;
+            mPrefetchProgramsRunnable = null;
             mHandler.removeCallbacksAndMessages(null);
-            releaseAdController();
+            releaseAdPod();
+            releasePrefetchedAdPod();
+            if (mAdController != null) {
+                mAdController.release();
+                mAdController = null;
+            }
+            if (mAdCueTvPlayer != null) {
+                mAdCueTvPlayer.unregisterCallback(mAdCueCallback);
+                mAdCueTvPlayer = null;
+            }
             mSessions.remove(this);
         }
 
@@ -221,11 +567,28 @@ public abstract class BaseTvInputService extends TvInputService {
         public boolean handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_PLAY_CONTENT:
+                    // The channel map may have been refreshed since the tune, e.g. if it was
+                    // answered from a stale snapshot.
+                    Channel channel = getChannelMap(mInputId)
+                            .get(ContentUris.parseId(mChannelUri));
+                    if (channel != null) {
+                        mCurrentChannel = channel;
+                    }
                     mCurrentProgram = (Program) msg.obj;
                     playCurrentContent();
                     return true;
                 case MSG_PLAY_AD:
                     return insertAd((Advertisement) msg.obj);
+                case MSG_PREFETCH_AD:
+                    prefetchAd((Advertisement) msg.obj);
+                    return true;
+                case MSG_PARENTAL_CONTROLS_CHANGED:
+                    if (!isParentalControlsEnabled()) {
+                        onUnblockContent(null);
+                    } else {
+                        checkCurrentProgramContent();
+                    }
+                    return true;
                 case MSG_PLAY_RECORDED_CONTENT:
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                         mPlayingRecordedProgram = true;
@@ -265,32 +628,51 @@ public abstract class BaseTvInputService extends TvInputService {
         @Override
         public boolean onTune(Uri channelUri) {
             mNeedToCheckChannelAd = true;
+            mPlayingContent = false;
 
             notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_TUNING);
 
             mChannelUri = channelUri;
+            mQueuedPrograms.clear();
             long channelId = ContentUris.parseId(channelUri);
-            mCurrentChannel = mChannelMap.get(channelId);
+            mCurrentChannel = getChannelMap(mInputId).get(channelId);
 
             mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
 
             // Release Ads assets
-            releaseAdController();
-            mHandler.removeMessages(MSG_PLAY_AD);
-
-            if (mDbHandler != null) {
-                mUnblockedRatingSet.clear();
-                mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
-                mGetCurrentProgramRunnable = new GetCurrentProgramRunnable(mChannelUri);
-                mDbHandler.post(mGetCurrentProgramRunnable);
+            releaseAdPod();
+            releasePrefetchedAdPod();
+            removeAdMessages();
+
+            mUnblockedRatingSet.clear();
+            mDbExecutor.cancel(mGetCurrentProgramRunnable);
+            mGetCurrentProgramRunnable = new GetCurrentProgramRunnable(mChannelUri);
+            long nowMs = System.currentTimeMillis();
+            NowNextIndex nowNextIndex = NowNextIndexStore.peek(mInputId);
+            clearNowNextCacheIfStale(nowNextIndex);
+            // Prefetched while watching a neighbouring channel.
+            Program program = mNowNextCache.get(channelId, nowMs);
+            if (program == null && nowNextIndex != null && mChannelMapLatch.getCount() == 0) {
+                // Written by the last sync.
+                program = nowNextIndex.getProgramAt(channelId, nowMs);
+            }
+            if (program != null) {
+                mHandler.removeMessages(MSG_PLAY_CONTENT);
+                mHandler.obtainMessage(MSG_PLAY_CONTENT, program).sendToTarget();
+            } else {
+                mDbExecutor.execute(mGetCurrentProgramRunnable, ProviderExecutor.PRIORITY_TUNE);
             }
+            mDbExecutor.cancel(mPrefetchProgramsRunnable);
+            mPrefetchProgramsRunnable = new PrefetchProgramsRunnable(channelId);
+            mDbExecutor.execute(mPrefetchProgramsRunnable,
+                    ProviderExecutor.PRIORITY_BACKGROUND);
             return true;
         }
 
         @Override
         public void onTimeShiftPause() {
-            mHandler.removeMessages(MSG_PLAY_AD);
-            mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
+            removeAdMessages();
+            mDbExecutor.cancel(mGetCurrentProgramRunnable);
             mTimeShiftIsPaused = true;
             if (getTvPlayer() != null) {
                 getTvPlayer().pause();
@@ -308,37 +690,12 @@ public abstract class BaseTvInputService extends TvInputService {
             if (!mPlayingRecordedProgram) {
                 // If currently playing program content, past ad durations must be recalculated
                 // based on getTvPlayer.getCurrentPosition().
-                mElapsedAdsTime = 0;
+                AdTimeline adTimeline = getAdTimeline();
                 mElapsedProgramTime = getTvPlayer().getCurrentPosition();
-                long elapsedProgramTimeAdjusted = mElapsedProgramTime +
-                        mCurrentProgram.getStartTimeUtcMillis();
-                if (mCurrentProgram.getInternalProviderData() != null) {
-                    List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                    // First, sort the ads in time order.
-                    TreeMap<Long, Long> scheduledAds = new TreeMap<>();
-                    for (Advertisement ad : ads) {
-                        scheduledAds.put(ad.getStartTimeUtcMillis(), ad.getStopTimeUtcMillis());
-                    }
-                    // Second, add up all ad times which should have played before the elapsed
-                    // program time.
-                    long programDurationPlayed = 0;
-                    long totalDurationPlayed = 0;
-                    for (Long adStartTime : scheduledAds.keySet()) {
-                        programDurationPlayed += adStartTime - totalDurationPlayed;
-                        if (programDurationPlayed < elapsedProgramTimeAdjusted) {
-                            long adDuration = scheduledAds.get(adStartTime) - adStartTime;
-                            mElapsedAdsTime += adDuration;
-                            totalDurationPlayed = programDurationPlayed + adDuration;
-                        } else {
-                            break;
-                        }
-                    }
-                } else {
-                    Log.w(TAG, "Failed to get program provider data for " +
-                            mCurrentProgram.getTitle() + ". Try to do an EPG sync.");
-                }
-
-                mTimeShiftedPlaybackPosition = elapsedProgramTimeAdjusted + mElapsedAdsTime;
+                mElapsedAdsTime =
+                        adTimeline.getAdDurationBeforeContentPosition(mElapsedProgramTime);
+                mTimeShiftedPlaybackPosition =
+                        adTimeline.getTimeShiftPosition(mElapsedProgramTime);
 
                 scheduleNextAd();
                 scheduleNextProgram();
@@ -362,13 +719,13 @@ public abstract class BaseTvInputService extends TvInputService {
                 return;
             }
 
-            mHandler.removeMessages(MSG_PLAY_AD);
-            mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
+            removeAdMessages();
+            mDbExecutor.cancel(mGetCurrentProgramRunnable);
 
             // Update our handler because we have changed the playback time.
             if (getTvPlayer() != null) {
                 if (mPlayingRecordedProgram) {
-                    long recordingStartTime = mCurrentProgram.getInternalProviderData()
+                    long recordingStartTime = mCurrentProgram.getReadOnlyInternalProviderData()
                             .getRecordedProgramStartTime();
                     getTvPlayer().seekTo((timeMs - mRecordedPlaybackStartTime) +
                             (recordingStartTime - mCurrentProgram.getStartTimeUtcMillis()));
@@ -418,7 +775,7 @@ public abstract class BaseTvInputService extends TvInputService {
         public long onTimeShiftGetCurrentPosition() {
             if (getTvPlayer() != null && mCurrentProgram != null) {
                 if (mPlayingRecordedProgram) {
-                    long recordingStartTime = mCurrentProgram.getInternalProviderData()
+                    long recordingStartTime = mCurrentProgram.getReadOnlyInternalProviderData()
                             .getRecordedProgramStartTime();
                     // If time shifting somehow shifted past (before) recording start time,
                     // seek player back up to recording start time.
@@ -454,8 +811,8 @@ public abstract class BaseTvInputService extends TvInputService {
         @Override
         public void onTimeShiftSetPlaybackParams(PlaybackParams params) {
             if (params.getSpeed() != 1.0f) {
-                mHandler.removeMessages(MSG_PLAY_AD);
-                mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
+                removeAdMessages();
+                mDbExecutor.cancel(mGetCurrentProgramRunnable);
             }
 
             if (DEBUG) {
@@ -474,7 +831,7 @@ public abstract class BaseTvInputService extends TvInputService {
             }
             GetRecordedProgramRunnable getRecordedProgramRunnable =
                     new GetRecordedProgramRunnable(recordedProgramUri);
-            mDbHandler.post(getRecordedProgramRunnable);
+            mDbExecutor.execute(getRecordedProgramRunnable, ProviderExecutor.PRIORITY_TUNE);
         }
 
         /**
@@ -502,17 +859,26 @@ public abstract class BaseTvInputService extends TvInputService {
             }
         }
 
+        /**
+         * Schedules a check of the current program against the new parental control settings.
+         * Broadcasts that arrive before the check are coalesced into it.
+         */
+        private void onParentalControlsChanged() {
+            mHandler.removeMessages(MSG_PARENTAL_CONTROLS_CHANGED);
+            mHandler.sendEmptyMessage(MSG_PARENTAL_CONTROLS_CHANGED);
+        }
+
         private boolean checkCurrentProgramContent() {
-            mCurrentContentRatingSet = (mCurrentProgram == null
-                    || mCurrentProgram.getContentRatings() == null
-                    || mCurrentProgram.getContentRatings().length == 0) ? null :
-                    mCurrentProgram.getContentRatings();
+            TvContentRating[] ratings =
+                    mCurrentProgram != null ? mCurrentProgram.getContentRatings() : null;
+            mCurrentContentRatingSet = (ratings == null || ratings.length == 0) ? null : ratings;
             return blockContentIfNeeded();
         }
 
         private void playRecordedContent() {
             mCurrentProgram = mRecordedProgram.toProgram();
-            if (mTvInputManager.isParentalControlsEnabled() && !checkCurrentProgramContent()) {
+            mPlayingContent = false;
+            if (isParentalControlsEnabled() && !checkCurrentProgramContent()) {
                 return;
             }
 
@@ -537,13 +903,20 @@ public abstract class BaseTvInputService extends TvInputService {
         }
 
         private void scheduleNextProgram() {
-            mDbHandler.removeCallbacks(mGetCurrentProgramRunnable);
-            mDbHandler.postDelayed(mGetCurrentProgramRunnable,
-                    mCurrentProgram.getEndTimeUtcMillis() - getCurrentTime());
+            mDbExecutor.cancel(mGetCurrentProgramRunnable);
+            long delayMs = mCurrentProgram.getEndTimeUtcMillis() - getCurrentTime();
+            if (!mQueuedPrograms.isEmpty()) {
+                // The player moves on to the next program by itself. The program is only looked
+                // up again if that does not happen in time.
+                delayMs += QUEUED_PROGRAM_TRANSITION_TIMEOUT_MILLIS;
+            }
+            mDbExecutor.executeDelayed(mGetCurrentProgramRunnable,
+                    ProviderExecutor.PRIORITY_TUNE, delayMs);
         }
 
         private void playCurrentContent() {
-            if (mTvInputManager.isParentalControlsEnabled() && !checkCurrentProgramContent()) {
+            mPlayingContent = false;
+            if (isParentalControlsEnabled() && !checkCurrentProgramContent()) {
                 scheduleNextProgram();
                 return;
             }
@@ -565,23 +938,32 @@ public abstract class BaseTvInputService extends TvInputService {
 
         private void calculateElapsedTimesFromCurrentTime() {
             long currentTimeMs = getCurrentTime();
-            mElapsedAdsTime = 0;
-            mElapsedProgramTime = currentTimeMs - mCurrentProgram.getStartTimeUtcMillis();
-            if (mCurrentProgram.getInternalProviderData() != null) {
-                List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                for (Advertisement ad : ads) {
-                    if (ad.getStopTimeUtcMillis() < (currentTimeMs + PAST_AD_BUFFER_MILLIS)) {
-                        // Subtract past ad playback time to seek to
-                        // the correct content playback position.
-                        long adDuration = ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
-                        mElapsedAdsTime += adDuration;
-                        mElapsedProgramTime -= adDuration;
-                    }
+            // Subtract past ad playback time to seek to the correct content playback position.
+            mElapsedAdsTime =
+                    getAdTimeline().getAdDurationBefore(currentTimeMs + PAST_AD_BUFFER_MILLIS);
+            mElapsedProgramTime = currentTimeMs - mCurrentProgram.getStartTimeUtcMillis()
+                    - mElapsedAdsTime;
+        }
+
+        /**
+         * Returns the ad timeline of the current program, which is only built again when the
+         * current program changes.
+         */
+        private AdTimeline getAdTimeline() {
+            if (mAdTimelineProgram != mCurrentProgram) {
+                mAdTimelineProgram = mCurrentProgram;
+                if (mCurrentProgram == null) {
+                    mAdTimeline = AdTimeline.EMPTY;
+                } else if (mCurrentProgram.getReadOnlyInternalProviderData() != null) {
+                    mAdTimeline = new AdTimeline(mCurrentProgram.getStartTimeUtcMillis(),
+                            mCurrentProgram.getReadOnlyInternalProviderData().getAds());
+                } else {
+                    Log.w(TAG, "Failed to get program provider data for " +
+                            mCurrentProgram.getTitle() + ". Try to do an EPG sync.");
+                    mAdTimeline = AdTimeline.EMPTY;
                 }
-            } else {
-                Log.w(TAG, "Failed to get program provider data for " +
-                        mCurrentProgram.getTitle() + ". Try to do an EPG sync.");
             }
+            return mAdTimeline;
         }
 
         private boolean playCurrentProgram() {
@@ -594,58 +976,145 @@ public abstract class BaseTvInputService extends TvInputService {
             if (!scheduleNextAd()) {
                 return false;
             }
-            return onPlayProgram(mCurrentProgram, mElapsedProgramTime);
+            queueFollowingPrograms();
+            if (!onPlayProgram(mCurrentProgram, mElapsedProgramTime)) {
+                mQueuedPrograms.clear();
+                return false;
+            }
+            mPlayingContent = true;
+            updateAdCueCallback();
+            return true;
+        }
+
+        /**
+         * Goes on with the content that kept playing through an ad break, either because its ads
+         * were stitched into it or because none of them could be played.
+         */
+        private void resumeContent() {
+            if (mCurrentProgram == null
+                    || mCurrentProgram.getEndTimeUtcMillis() <= getCurrentTime()) {
+                // The program ended during the break.
+                playCurrentContent();
+                return;
+            }
+            calculateElapsedTimesFromCurrentTime();
+            TvPlayer player = getTvPlayer();
+            if (player != null && !mAdCuesEnabled
+                    && Math.abs(player.getCurrentPosition() - mElapsedProgramTime)
+                    > STITCHED_CONTENT_MAX_DRIFT_MILLIS) {
+                // The ads did not last as long as their break. Cued breaks follow the media
+                // rather than the schedule, so they are left alone.
+                player.seekTo(mElapsedProgramTime);
+            }
+            scheduleNextAd();
+            scheduleNextProgram();
+            notifyVideoAvailable();
+        }
+
+        /**
+         * Clears {@link #mNowNextCache} if a sync has written the programs again since it was
+         * filled.
+         *
+         * @param nowNextIndex The index the programs are looked up in now, or null if it has not
+         *         been read yet.
+         */
+        private void clearNowNextCacheIfStale(NowNextIndex nowNextIndex) {
+            if (nowNextIndex != null && nowNextIndex != mNowNextCacheIndex) {
+                mNowNextCache.clear();
+            }
+        }
+
+        /**
+         * Offers the programs that follow the current one back to back to
+         * {@link #onQueuePrograms(Program, List)}, so they can be played without a gap.
+         */
+        private void queueFollowingPrograms() {
+            mQueuedPrograms.clear();
+            if (mChannelUri == null) {
+                return;
+            }
+            clearNowNextCacheIfStale(NowNextIndexStore.peek(mInputId));
+            List<Program> programs = mNowNextCache.getFollowingPrograms(
+                    ContentUris.parseId(mChannelUri), mCurrentProgram, MAX_QUEUED_PROGRAMS);
+            if (programs.isEmpty()) {
+                return;
+            }
+            int queuedCount = onQueuePrograms(mCurrentProgram, programs);
+            mQueuedPrograms.addAll(
+                    programs.subList(0, Math.max(0, Math.min(queuedCount, programs.size()))));
+        }
+
+        /**
+         * Tells the session that the player has moved on to the next program queued by
+         * {@link #onQueuePrograms(Program, List)}. The session then updates the current program,
+         * its ads and its content rating, and notifies that video is available, as it would
+         * after {@link #onPlayProgram(Program, long)}.
+         * <p>
+         * This must be called on the main thread.
+         */
+        public void notifyQueuedProgramStarted() {
+            if (mQueuedPrograms.isEmpty()) {
+                // The queue was dropped, e.g. because another program was played since.
+                return;
+            }
+            mCurrentProgram = mQueuedPrograms.remove(0);
+            removeAdMessages();
+            if (isParentalControlsEnabled() && !checkCurrentProgramContent()) {
+                mPlayingContent = false;
+                scheduleNextProgram();
+                return;
+            }
+            calculateElapsedTimesFromCurrentTime();
+            scheduleNextAd();
+            scheduleNextProgram();
+            notifyVideoAvailable();
         }
 
         private boolean scheduleNextAd() {
-            mHandler.removeMessages(MSG_PLAY_AD);
+            removeAdMessages();
             if (mPlayingRecordedProgram) {
                 return false;
             }
+            if (mAdCuesEnabled) {
+                // The media starts the next break with a cue.
+                releasePrefetchedAdPod();
+                return true;
+            }
             long currentTimeMs = getCurrentTime();
-            if (mCurrentProgram.getInternalProviderData() != null) {
-                List<Advertisement> ads = mCurrentProgram.getInternalProviderData().getAds();
-                Advertisement adToPlay = null;
-                long timeTilAdToPlay = 0;
-                for (Advertisement ad : ads) {
-                    if (ad.getStopTimeUtcMillis() > currentTimeMs + PAST_AD_BUFFER_MILLIS) {
-                        long timeTilAd = ad.getStartTimeUtcMillis() - currentTimeMs;
-                        if (timeTilAd < 0) {
-                            // If tuning to the middle of a scheduled ad, the played portion
-                            // of the ad will be skipped by the AdControllerCallback.
-                            mHandler.sendMessage(mHandler.obtainMessage(MSG_PLAY_AD, ad));
-                            return false;
-                        } else if (adToPlay == null || timeTilAd < timeTilAdToPlay) {
-                            adToPlay = ad;
-                            timeTilAdToPlay = timeTilAd;
-                        }
-                    }
+            Advertisement adToPlay =
+                    getAdTimeline().getNextAd(currentTimeMs + PAST_AD_BUFFER_MILLIS);
+            if (adToPlay == null || !adToPlay.equals(mPrefetchedAd)) {
+                releasePrefetchedAdPod();
+            }
+            if (adToPlay != null) {
+                long timeTilAdToPlay = adToPlay.getStartTimeUtcMillis() - currentTimeMs;
+                if (timeTilAdToPlay < 0) {
+                    // If tuning to the middle of a scheduled ad, the played portion
+                    // of the ad will be skipped by the AdControllerCallback.
+                    mHandler.sendMessage(mHandler.obtainMessage(MSG_PLAY_AD, adToPlay));
+                    return false;
                 }
-
-                if (adToPlay != null) {
-                    Message pauseContentPlayAdMsg = mHandler.obtainMessage(MSG_PLAY_AD, adToPlay);
-                    mHandler.sendMessageDelayed(pauseContentPlayAdMsg, timeTilAdToPlay);
+                Message pauseContentPlayAdMsg = mHandler.obtainMessage(MSG_PLAY_AD, adToPlay);
+                mHandler.sendMessageDelayed(pauseContentPlayAdMsg, timeTilAdToPlay);
+                if (mAdPrefetchLeadTime > 0 && mPrefetchedAd == null) {
+                    mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_PREFETCH_AD, adToPlay),
+                            Math.max(0, timeTilAdToPlay - mAdPrefetchLeadTime));
                 }
-            } else {
-                Log.w(TAG, "Failed to get program provider data for " +
-                        mCurrentProgram.getTitle() + ". Try to do an EPG sync.");
             }
             return true;
         }
 
         private void playCurrentChannel() {
             Message playAd = null;
-            if (mCurrentChannel.getInternalProviderData() != null) {
+            if (mCurrentChannel.getReadOnlyInternalProviderData() != null) {
                 // Get the last played ad time for this channel.
                 long mostRecentOnTuneAdWatchedTime =
-                        mContext.getSharedPreferences(PREFERENCES_FILE_KEY,
-                                Context.MODE_PRIVATE)
-                                .getLong(SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY +
-                                        mCurrentChannel.getId(), 0);
-                List<Advertisement> ads = mCurrentChannel.getInternalProviderData().getAds();
+                        mOnTuneAdHistory.getLastAdTimeMs(mCurrentChannel.getId());
+                List<Advertisement> ads =
+                        mCurrentChannel.getReadOnlyInternalProviderData().getAds();
                 if (!ads.isEmpty() && System.currentTimeMillis() - mostRecentOnTuneAdWatchedTime
                         > mMinimumOnTuneAdInterval) {
-                    // There is at most one advertisement in the channel.
+                    // There is at most one advertisement in the channel, which may be an ad pod.
                     playAd = mHandler.obtainMessage(MSG_PLAY_AD, ads.get(0));
                 }
             }
@@ -665,10 +1134,7 @@ public abstract class BaseTvInputService extends TvInputService {
 
             // If timeshifting, do not play the ad.
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                long timeShiftedDifference = System.currentTimeMillis() -
-                        mTimeShiftedPlaybackPosition;
-                if (mTimeShiftedPlaybackPosition != TvInputManager.TIME_SHIFT_INVALID_TIME &&
-                        timeShiftedDifference > TIME_SHIFTED_MINIMUM_DIFFERENCE_MILLIS) {
+                if (isTimeShifted()) {
                     mElapsedAdsTime += ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
                     mTimeShiftedPlaybackPosition = mElapsedProgramTime + mElapsedAdsTime +
                             mCurrentProgram.getStartTimeUtcMillis();
@@ -685,17 +1151,142 @@ public abstract class BaseTvInputService extends TvInputService {
                 }
             }
 
-            releaseAdController();
-            mAdController = new AdController(mContext);
-            mAdController.requestAds(ad.getRequestUrl(), new AdControllerCallbackImpl(ad));
+            releaseAdPod();
+            if (mPrefetchedAdPod != null && ad.equals(mPrefetchedAd)) {
+                mAdPod = mPrefetchedAdPod;
+                mPrefetchedAdPod = null;
+                mPrefetchedAd = null;
+                if (mAdPod.startAds()) {
+                    return true;
+                }
+                // The prefetch failed, so request the ad again as if it was not prefetched.
+                Log.w(TAG, "Prefetching the ad failed, requesting it again");
+                releaseAdPod();
+            }
+            // A single ad is played as a pod of one.
+            AdControllerCallbackImpl adControllerCallback = new AdControllerCallbackImpl(ad);
+            mAdPod = getAdController().prefetchAdPod(ad.getRequestUrls(), adControllerCallback);
+            if (!mAdPod.startAds()) {
+                // The break has no request URL, so no ad will ever report back. Go on with the
+                // content as if the ad server failed.
+                adControllerCallback.onAdError();
+            }
             return true;
         }
 
-        private void releaseAdController() {
-            if (mAdController != null) {
-                mAdController.release();
-                mAdController = null;
+        /**
+         * Requests an ad ahead of its break, so that {@link #insertAd(Advertisement)} can start
+         * it without waiting for the ad server.
+         */
+        private void prefetchAd(Advertisement ad) {
+            if (ad.equals(mPrefetchedAd)
+                    || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && isTimeShifted())) {
+                // Ads are skipped while time shifting, so there is nothing to prefetch.
+                return;
+            }
+            releasePrefetchedAdPod();
+            mPrefetchedAd = ad;
+            mPrefetchedAdPod = getAdController().prefetchAdPod(ad.getRequestUrls(),
+                    new AdControllerCallbackImpl(ad));
+        }
+
+        /**
+         * Starts the scheduled ad break closest to a cue in the media at the time the cue says,
+         * and prefetches its ad for the cue's lead time.
+         */
+        private void cueAdBreak(long leadTimeMs, long durationMs) {
+            if (!mAdCuesEnabled || !mPlayingContent || mCurrentProgram == null) {
+                return;
+            }
+            long startTimeMs = getCurrentTime() + Math.max(0, leadTimeMs);
+            Advertisement scheduledAd =
+                    getAdTimeline().getNextAd(startTimeMs - AD_CUE_MATCH_WINDOW_MILLIS);
+            if (scheduledAd == null || Math.abs(scheduledAd.getStartTimeUtcMillis() - startTimeMs)
+                    > AD_CUE_MATCH_WINDOW_MILLIS) {
+                Log.w(TAG, "Ignoring an ad break cue without a scheduled ad around it");
+                return;
+            }
+            if (scheduledAd.equals(mLastCuedAd)) {
+                return;
             }
+            mLastCuedAd = scheduledAd;
+            if (durationMs <= 0) {
+                durationMs = scheduledAd.getStopTimeUtcMillis()
+                        - scheduledAd.getStartTimeUtcMillis();
+            }
+            Advertisement cuedAd = new Advertisement.Builder(scheduledAd)
+                    .setStartTimeUtcMillis(startTimeMs)
+                    .setStopTimeUtcMillis(startTimeMs + durationMs)
+                    .build();
+            removeAdMessages();
+            if (leadTimeMs > 0) {
+                prefetchAd(cuedAd);
+            }
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_PLAY_AD, cuedAd),
+                    Math.max(0, leadTimeMs));
+        }
+
+        /**
+         * Drops a cued ad break whose ads have not started playing when the media says the break
+         * is over, so that they are not played late.
+         */
+        private void cancelCuedAdBreak() {
+            if (!mAdCuesEnabled) {
+                return;
+            }
+            removeAdMessages();
+            releasePrefetchedAdPod();
+            if (mAdPod != null && !mAdPod.isAdPlayed()) {
+                releaseAdPod();
+            }
+        }
+
+        private void updateAdCueCallback() {
+            TvPlayer player = mAdCuesEnabled ? getTvPlayer() : null;
+            if (player == mAdCueTvPlayer) {
+                return;
+            }
+            if (mAdCueTvPlayer != null) {
+                mAdCueTvPlayer.unregisterCallback(mAdCueCallback);
+            }
+            mAdCueTvPlayer = player;
+            if (player != null) {
+                player.registerCallback(mAdCueCallback);
+            }
+        }
+
+        private boolean isTimeShifted() {
+            long timeShiftedDifference = System.currentTimeMillis() -
+                    mTimeShiftedPlaybackPosition;
+            return mTimeShiftedPlaybackPosition != TvInputManager.TIME_SHIFT_INVALID_TIME &&
+                    timeShiftedDifference > TIME_SHIFTED_MINIMUM_DIFFERENCE_MILLIS;
+        }
+
+        private void removeAdMessages() {
+            mHandler.removeMessages(MSG_PLAY_AD);
+            mHandler.removeMessages(MSG_PREFETCH_AD);
+        }
+
+        private AdController getAdController() {
+            if (mAdController == null) {
+                mAdController = new AdController(mContext, mAdResponseCache);
+            }
+            return mAdController;
+        }
+
+        private void releaseAdPod() {
+            if (mAdPod != null) {
+                mAdPod.release();
+                mAdPod = null;
+            }
+        }
+
+        private void releasePrefetchedAdPod() {
+            if (mPrefetchedAdPod != null) {
+                mPrefetchedAdPod.release();
+                mPrefetchedAdPod = null;
+            }
+            mPrefetchedAd = null;
         }
 
         /**
@@ -715,6 +1306,25 @@ public abstract class BaseTvInputService extends TvInputService {
          */
         public abstract boolean onPlayProgram(Program program, long startPosMs);
 
+        /**
+         * This method is called right before {@link #onPlayProgram(Program, long)} with the
+         * programs that follow that program back to back on the channel. Developers whose player
+         * can play several media one after another can queue the media of these programs behind
+         * the program about to play, so that playback moves on without a gap at program
+         * boundaries. They should then call {@link #notifyQueuedProgramStarted()} each time the
+         * player moves on to a queued program.
+         * <p>
+         * Programs that are not queued are played through {@link #onPlayProgram(Program, long)}
+         * when they start, as usual. The default implementation does not queue any program.
+         *
+         * @param program The program that is about to be played.
+         * @param followingPrograms The programs that follow it, in order.
+         * @return How many of the following programs, from the start of the list, were queued.
+         */
+        public int onQueuePrograms(Program program, List<Program> followingPrograms) {
+            return 0;
+        }
+
         /**
          * This method is called when a particular recorded program is to begin playing. If the
          * program does not exist, the parameter will be {@code null}.
@@ -739,6 +1349,9 @@ public abstract class BaseTvInputService extends TvInputService {
         /**
          * Called when ads player is about to be created. Developers should override this if they
          * want to enable ads insertion. Time shifting within ads is currently not supported.
+         * <p>
+         * For an ad pod, this is called for each of its ads in turn, and the content only resumes
+         * after the last one, so reusing the ad's player for the next ad avoids rebuilding it.
          *
          * @param advertisement The advertisement that should be played.
          */
@@ -748,6 +1361,83 @@ public abstract class BaseTvInputService extends TvInputService {
                             "ads insertion.");
         }
 
+        /**
+         * Called instead of {@link #onPlayAdvertisement(Advertisement)} while a program plays.
+         * Developers whose player can insert media into what it is playing can override this to
+         * play the ad on that player and resume the program where the ad interrupted it, which
+         * avoids setting up a player for the ad and then playing the program again.
+         * <p>
+         * The player must tell its {@link TvPlayer.Callback}s when the ad starts and completes,
+         * and report the position and duration of the ad while it plays, as a player playing only
+         * the ad would. Once the break is over, the program is seeked back to its schedule if the
+         * ads did not last as long as the break. The default implementation does not stitch ads.
+         *
+         * @param advertisement The advertisement that should be played, with the URL of its video
+         *                      as the request URL.
+         * @param adPositionMs Where to start playing the ad, which is not 0 if the break started
+         *                     before the ad was ready.
+         * @return Whether the ad was stitched into the program. If it was not,
+         * {@link #onPlayAdvertisement(Advertisement)} is called.
+         */
+        public boolean onStitchAdvertisement(Advertisement advertisement, long adPositionMs) {
+            return false;
+        }
+
+        /**
+         * Called ahead of an ad break, once the video of its ad is known. Override this to
+         * buffer the ad video before {@link #onPlayAdvertisement(Advertisement)} is called for
+         * it, e.g. by preparing a paused player for it, so that the ad starts without a delay.
+         *
+         * @param advertisement The advertisement that will be played, with the URL of its video
+         *                      as the request URL, as it will be passed to
+         *                      {@link #onPlayAdvertisement(Advertisement)}.
+         * @see #setAdPrefetchLeadTime(long)
+         */
+        public void onPrefetchAdvertisement(Advertisement advertisement) {
+            // Do nothing.
+        }
+
+        /**
+         * Sets whether ad breaks start when the media says so rather than at the times in the
+         * program guide. Cues reach the session through
+         * {@link TvPlayer.Callback#onAdBreakStartCue(long, long)} and
+         * {@link TvPlayer.Callback#onAdBreakEndCue()} of the player returned by
+         * {@link #getTvPlayer()}, which are frame accurate where the guide is only as accurate
+         * as the schedule.
+         * <p>
+         * The ads of a cued break are still those of the scheduled break closest to it, within a
+         * minute. The ad is prefetched as soon as the cue arrives if the cue announces the break
+         * ahead of time. A break whose ad has not started when the media signals its end is
+         * dropped. Cues are disabled by default.
+         * <p>
+         * This must be called on the main thread.
+         *
+         * @param adCuesEnabled Whether to time ad breaks by cues in the media.
+         */
+        public void setAdCuesEnabled(boolean adCuesEnabled) {
+            if (mAdCuesEnabled == adCuesEnabled) {
+                return;
+            }
+            mAdCuesEnabled = adCuesEnabled;
+            updateAdCueCallback();
+            if (mPlayingContent && mCurrentProgram != null) {
+                scheduleNextAd();
+            }
+        }
+
+        /**
+         * Set how long before a scheduled ad break its ad is requested from the ad server and
+         * loaded. If the ad is ready when the break starts, it plays without waiting for the ad
+         * server; otherwise it is requested again when the break starts. The default value is
+         * 10 seconds. Set it to 0 to disable prefetching ads.
+         *
+         * @param adPrefetchLeadTime How long before an ad break to prefetch its ad, in
+         *                           milliseconds
+         */
+        public void setAdPrefetchLeadTime(long adPrefetchLeadTime) {
+            mAdPrefetchLeadTime = adPrefetchLeadTime;
+        }
+
         /**
          * Set minimum interval between two ads shown on tuning to new channels. If another
          * channel ad played within the past minimum interval, tuning to a new channel will not
@@ -760,26 +1450,56 @@ public abstract class BaseTvInputService extends TvInputService {
             mMinimumOnTuneAdInterval = minimumOnTuneAdInterval;
         }
 
+        /**
+         * Set how many channels on each side of the tuned channel, in display number order, have
+         * their current and next programs prefetched. Tuning to one of these channels starts
+         * playback without querying the TV provider, which makes channel up and down faster.
+         * The default value is 2. Set it to 0 to disable prefetching.
+         *
+         * @param prefetchChannelCount The number of channels to prefetch on each side.
+         */
+        public void setPrefetchChannelCount(int prefetchChannelCount) {
+            mPrefetchChannelCount = prefetchChannelCount;
+        }
+
+        /**
+         * Set how the channels the user will tune to next are predicted. The current programs of
+         * the predicted channels are passed to {@link #onPredictedProgramsChanged(List)}. The
+         * default predictor returns the channels right before and after the tuned one.
+         *
+         * @param zapPredictor The predictor to use, or null to disable predictions.
+         */
+        public void setZapPredictor(ZapPredictor zapPredictor) {
+            mZapPredictor = zapPredictor;
+        }
+
+        /**
+         * Called when the programs on the channels that the user is predicted to tune to next
+         * have changed. Override this to get their playback ready ahead of time, e.g. by
+         * preparing a paused player for each of them, so that tuning to one of them starts
+         * faster. Implementations should keep the cost bounded, as most predictions are not used.
+         *
+         * @param programs The programs currently playing on the predicted channels, most likely
+         *                 first. This list is empty if there are no predictions.
+         * @see #setZapPredictor(ZapPredictor)
+         */
+        public void onPredictedProgramsChanged(List<Program> programs) {
+        }
+
         public Uri getCurrentChannelUri() {
             return mChannelUri;
         }
 
         private boolean blockContentIfNeeded() {
-            if (mCurrentContentRatingSet == null || !mTvInputManager.isParentalControlsEnabled()) {
+            if (mCurrentContentRatingSet == null || !isParentalControlsEnabled()) {
                 // Content rating is invalid so we don't need to block anymore.
                 // Unblock content here explicitly to resume playback.
                 unblockContent(null);
                 return true;
             }
             // Check each content rating that the program has.
-            TvContentRating blockedRating = null;
-            for (TvContentRating contentRating : mCurrentContentRatingSet) {
-                if (mTvInputManager.isRatingBlocked(contentRating)
-                        && !mUnblockedRatingSet.contains(contentRating)) {
-                    // This should be blocked.
-                    blockedRating = contentRating;
-                }
-            }
+            TvContentRating blockedRating = mParentalControlsCache.getBlockingRating(
+                    mTvInputManager, mCurrentContentRatingSet, mUnblockedRatingSet);
             if (blockedRating == null) {
                 // Content rating is null so we don't need to block anymore.
                 // Unblock content here explicitly to resume playback.
@@ -797,6 +1517,10 @@ public abstract class BaseTvInputService extends TvInputService {
             return false;
         }
 
+        private boolean isParentalControlsEnabled() {
+            return mParentalControlsCache.isParentalControlsEnabled(mTvInputManager);
+        }
+
         private void unblockContent(TvContentRating rating) {
             // TIS should unblock content only if unblock request is legitimate.
             if (rating == null || mLastBlockedRating == null || rating.equals(mLastBlockedRating)) {
@@ -810,27 +1534,49 @@ public abstract class BaseTvInputService extends TvInputService {
 
         private final class AdControllerCallbackImpl implements AdController.AdControllerCallback {
             private Advertisement mAdvertisement;
+            // Whether an ad of the break has been played, as only the first one may need to
+            // skip the part of the break that is already over.
+            private boolean mAdPlayed;
 
             public AdControllerCallbackImpl(Advertisement advertisement) {
                 mAdvertisement = advertisement;
             }
 
+            @Override
+            public void onAdLoaded(String adVideoUrl) {
+                if (mAdvertisement == mPrefetchedAd) {
+                    onPrefetchAdvertisement(new Advertisement.Builder(mAdvertisement)
+                            .setRequestUrl(adVideoUrl)
+                            .build());
+                }
+            }
+
             @Override
             public TvPlayer onAdReadyToPlay(String adVideoUrl) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                     notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_UNAVAILABLE);
                 }
 
-                onPlayAdvertisement(new Advertisement.Builder(mAdvertisement)
+                Advertisement advertisement = new Advertisement.Builder(mAdvertisement)
                         .setRequestUrl(adVideoUrl)
-                        .build());
-                setTvPlayerSurface(mSurface);
-                setTvPlayerVolume(mVolume);
-
+                        .build();
                 long currentTimeMs = System.currentTimeMillis();
                 long adStartTime = mAdvertisement.getStartTimeUtcMillis();
-                if (adStartTime > 0 && adStartTime < currentTimeMs) {
-                    getTvPlayer().seekTo(currentTimeMs - adStartTime);
+                long adPositionMs = 0;
+                if (!mAdPlayed && adStartTime > 0 && adStartTime < currentTimeMs) {
+                    adPositionMs = currentTimeMs - adStartTime;
+                }
+                mAdPlayed = true;
+                if (mPlayingContent && onStitchAdvertisement(advertisement, adPositionMs)) {
+                    return getTvPlayer();
+                }
+
+                mPlayingContent = false;
+                onPlayAdvertisement(advertisement);
+                setTvPlayerSurface(mSurface);
+                setTvPlayerVolume(mVolume);
+                if (adPositionMs > 0) {
+                    getTvPlayer().seekTo(adPositionMs);
                 }
                 return getTvPlayer();
             }
@@ -843,21 +1589,31 @@ public abstract class BaseTvInputService extends TvInputService {
                 // Check if the ad played was an on-tune Channel ad
                 if (mNeedToCheckChannelAd) {
                     // In some TV apps, opening the guide will cause the session to restart, so this
-                    // value is stored in SharedPreferences to persist between sessions.
-                    SharedPreferences.Editor editor = mContext.getSharedPreferences(
-                            PREFERENCES_FILE_KEY, Context.MODE_PRIVATE).edit();
-                    editor.putLong(SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY +
-                            mCurrentChannel.getId(), System.currentTimeMillis());
-                    editor.apply();
+                    // value is shared by every session and written to SharedPreferences.
+                    mOnTuneAdHistory.setLastAdTimeMs(mCurrentChannel.getId(),
+                            System.currentTimeMillis());
                     mNeedToCheckChannelAd = false;
                 }
-                playCurrentContent();
+                if (mPlayingContent) {
+                    if (mAdPlayed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        notifyTimeShiftStatusChanged(TvInputManager.TIME_SHIFT_STATUS_AVAILABLE);
+                    }
+                    resumeContent();
+                } else {
+                    playCurrentContent();
+                }
             }
 
             @Override
             public void onAdError() {
                 Log.e(TAG, "An error occurred playing ads");
-                notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
+                if (mAdPlayed) {
+                    // The player may have stopped in the middle of a stitched ad.
+                    mPlayingContent = false;
+                }
+                if (!mPlayingContent) {
+                    notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
+                }
                 onAdCompleted();
             }
         }
@@ -871,20 +1627,145 @@ public abstract class BaseTvInputService extends TvInputService {
 
             @Override
             public void run() {
+                awaitChannelMap(mChannelMapLatch);
                 ContentResolver resolver = mContext.getContentResolver();
+                long channelId = ContentUris.parseId(mChannelUri);
+                // Channels that repeat their programs may have a schedule computed in memory.
+                RepeatSchedule repeatSchedule =
+                        RepeatScheduleStore.get(mContext, mInputId, channelId);
+                // The provider is only queried if the index of the last sync misses.
+                NowNextIndex nowNextIndex = NowNextIndexStore.get(mContext, mInputId);
                 Program program = null;
+                Program currentProgram = mCurrentProgram;
+                long timeShiftedPlaybackPosition = mTimeShiftedPlaybackPosition;
                 long timeShiftedDifference = System.currentTimeMillis() -
-                        mTimeShiftedPlaybackPosition;
-                if (mTimeShiftedPlaybackPosition != TvInputManager.TIME_SHIFT_INVALID_TIME &&
-                        timeShiftedDifference > TIME_SHIFTED_MINIMUM_DIFFERENCE_MILLIS) {
-                    program = TvContractUtils.getNextProgram(resolver, mChannelUri,
-                            mCurrentProgram);
+                        timeShiftedPlaybackPosition;
+                final boolean live =
+                        timeShiftedPlaybackPosition == TvInputManager.TIME_SHIFT_INVALID_TIME
+                        || timeShiftedDifference <= TIME_SHIFTED_MINIMUM_DIFFERENCE_MILLIS;
+                if (!live) {
+                    if (repeatSchedule != null && currentProgram != null) {
+                        program = repeatSchedule.getProgramAt(
+                                currentProgram.getEndTimeUtcMillis());
+                    } else {
+                        program = nowNextIndex.getNextProgram(channelId, currentProgram);
+                        if (program == null) {
+                            program = TvContractUtils.getNextProgram(resolver, mChannelUri,
+                                    currentProgram);
+                        }
+                    }
                 } else {
-                    mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
-                    program = TvContractUtils.getCurrentProgram(resolver, mChannelUri);
+                    long nowMs = System.currentTimeMillis();
+                    if (repeatSchedule != null) {
+                        program = repeatSchedule.getProgramAt(nowMs);
+                    } else {
+                        program = nowNextIndex.getProgramAt(channelId, nowMs);
+                        if (program == null) {
+                            program = TvContractUtils.getCurrentProgram(resolver, mChannelUri);
+                        }
+                    }
+                }
+                if (this != mGetCurrentProgramRunnable) {
+                    // The session tuned to another channel while the program was read.
+                    return;
+                }
+                // Runs of this and an older lookup may overlap on the executor's threads, so the
+                // session's state is only changed on the main thread.
+                final Program result = program;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (GetCurrentProgramRunnable.this != mGetCurrentProgramRunnable) {
+                            return;
+                        }
+                        if (live) {
+                            mTimeShiftedPlaybackPosition = TvInputManager.TIME_SHIFT_INVALID_TIME;
+                        }
+                        mHandler.removeMessages(MSG_PLAY_CONTENT);
+                        mHandler.obtainMessage(MSG_PLAY_CONTENT, result).sendToTarget();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Reads the current and next programs of the tuned channel and its neighbours into
+         * {@link #mNowNextCache}, and runs again when the first of them ends.
+         */
+        private class PrefetchProgramsRunnable implements Runnable {
+            private final long mChannelId;
+
+            PrefetchProgramsRunnable(long channelId) {
+                mChannelId = channelId;
+            }
+
+            @Override
+            public void run() {
+                ChannelMap channelMap = getChannelMap(mInputId);
+                List<Channel> channels = channelMap
+                        .getAdjacentChannels(mChannelId, mPrefetchChannelCount);
+                ZapPredictor zapPredictor = mZapPredictor;
+                List<Channel> predictedChannels = zapPredictor != null
+                        ? zapPredictor.predictNextChannels(channelMap, mChannelId)
+                        : Collections.<Channel>emptyList();
+                Set<Long> channelIdSet = new LinkedHashSet<>();
+                channelIdSet.add(mChannelId);
+                for (Channel channel : channels) {
+                    channelIdSet.add(channel.getId());
+                }
+                for (Channel channel : predictedChannels) {
+                    channelIdSet.add(channel.getId());
+                }
+                long[] channelIds = new long[channelIdSet.size()];
+                int index = 0;
+                for (long channelId : channelIdSet) {
+                    channelIds[index++] = channelId;
+                }
+                mNowNextCache.retain(channelIds);
+
+                ContentResolver resolver = mContext.getContentResolver();
+                NowNextIndex nowNextIndex = NowNextIndexStore.get(mContext, mInputId);
+                clearNowNextCacheIfStale(nowNextIndex);
+                mNowNextCacheIndex = nowNextIndex;
+                long nowMs = System.currentTimeMillis();
+                long endMs = nowMs + PREFETCH_WINDOW_MILLIS;
+                for (long channelId : channelIds) {
+                    if (mNowNextCache.needsRefresh(channelId, nowMs)) {
+                        RepeatSchedule repeatSchedule =
+                                RepeatScheduleStore.get(mContext, mInputId, channelId);
+                        List<Program> programs = repeatSchedule != null
+                                ? repeatSchedule.getPrograms(nowMs, endMs)
+                                : nowNextIndex.getPrograms(channelId, nowMs, endMs);
+                        if (programs == null) {
+                            programs = TvContractUtils.getPrograms(resolver,
+                                    TvContract.buildChannelUri(channelId), nowMs, endMs);
+                        }
+                        mNowNextCache.put(channelId, programs, nowMs);
+                    }
+                }
+
+                final List<Program> predictedPrograms = new ArrayList<>();
+                for (Channel channel : predictedChannels) {
+                    Program program = mNowNextCache.get(channel.getId(), nowMs);
+                    if (program != null) {
+                        predictedPrograms.add(program);
+                    }
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!predictedPrograms.equals(mPredictedPrograms)) {
+                            mPredictedPrograms = predictedPrograms;
+                            onPredictedProgramsChanged(predictedPrograms);
+                        }
+                    }
+                });
+
+                long refreshTimeMs = mNowNextCache.getNextRefreshTimeMs();
+                if (refreshTimeMs != Long.MAX_VALUE && this == mPrefetchProgramsRunnable) {
+                    mDbExecutor.executeDelayed(this, ProviderExecutor.PRIORITY_BACKGROUND,
+                            Math.max(0, refreshTimeMs - System.currentTimeMillis()));
                 }
-                mHandler.removeMessages(MSG_PLAY_CONTENT);
-                mHandler.obtainMessage(MSG_PLAY_CONTENT, program).sendToTarget();
             }
         }
 
@@ -934,13 +1815,13 @@ public abstract class BaseTvInputService extends TvInputService {
         private String mInputId;
         private Uri mChannelUri;
         private Uri mProgramUri;
-        private Handler mDbHandler;
+        private final ProviderExecutor mDbExecutor;
 
         public RecordingSession(Context context, String inputId) {
             super(context);
             mContext = context;
             mInputId = inputId;
-            mDbHandler = new Handler(mDbHandlerThread.getLooper());
+            mDbExecutor = mProviderExecutor;
         }
 
         @Override
@@ -956,7 +1837,7 @@ public abstract class BaseTvInputService extends TvInputService {
         @Override
         public void onStopRecording() {
             // Run in the database thread
-            mDbHandler.post(new Runnable() {
+            mDbExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
                     // Check if user wanted to record a specific program.
@@ -981,7 +1862,7 @@ public abstract class BaseTvInputService extends TvInputService {
                         onStopRecordingChannel(recordedChannel);
                     }
                 }
-            });
+            }, ProviderExecutor.PRIORITY_DEFAULT);
         }
 
         /**
@@ -1018,7 +1899,7 @@ public abstract class BaseTvInputService extends TvInputService {
          * @param recordedProgram The program that was recorded and should be saved.
          */
         public void notifyRecordingStopped(final RecordedProgram recordedProgram) {
-            mDbHandler.post(new Runnable() {
+            mDbExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
                     Uri recordedProgramUri = mContext.getContentResolver().insert(
@@ -1026,7 +1907,7 @@ public abstract class BaseTvInputService extends TvInputService {
                             recordedProgram.toContentValues());
                     notifyRecordingStopped(recordedProgramUri);
                 }
-            });
+            }, ProviderExecutor.PRIORITY_DEFAULT);
         }
 
     }
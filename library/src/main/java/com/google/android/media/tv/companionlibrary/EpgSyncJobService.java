@@ -38,10 +38,15 @@ import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.SparseArray;
 
-import com.google.android.media.tv.companionlibrary.model.Advertisement;
 import com.google.android.media.tv.companionlibrary.model.Channel;
 import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
 import com.google.android.media.tv.companionlibrary.model.Program;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMap;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMapStore;
+import com.google.android.media.tv.companionlibrary.utils.NowNextIndex;
+import com.google.android.media.tv.companionlibrary.utils.NowNextIndexStore;
+import com.google.android.media.tv.companionlibrary.utils.RepeatSchedule;
+import com.google.android.media.tv.companionlibrary.utils.RepeatScheduleStore;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import junit.framework.Assert;
@@ -132,6 +137,10 @@ public abstract class EpgSyncJobService extends JobService {
     private static final long DEFAULT_SYNC_PERIOD_MILLIS = 1000 * 60 * 60 * 12; // 12 hour
     private static final long DEFAULT_IMMEDIATE_EPG_DURATION_MILLIS = 1000 * 60 * 60; // 1 Hour
     private static final long DEFAULT_PERIODIC_EPG_DURATION_MILLIS = 1000 * 60 * 60 * 48; // 48 Hour
+    private static final long DEFAULT_REPEAT_SCHEDULE_GUIDE_DURATION_MILLIS =
+            DEFAULT_SYNC_PERIOD_MILLIS + 1000 * 60 * 60 * 2; // 14 Hour
+    private static final long DEFAULT_NOW_NEXT_INDEX_DURATION_MILLIS =
+            DEFAULT_SYNC_PERIOD_MILLIS + 1000 * 60 * 60 * 2; // 14 Hour
 
     private static final int PERIODIC_SYNC_JOB_ID = 0;
     private static final int REQUEST_SYNC_JOB_ID = 1;
@@ -226,6 +235,41 @@ public abstract class EpgSyncJobService extends JobService {
                 && newProgram.getStartTimeUtcMillis() <= oldProgram.getEndTimeUtcMillis();
     }
 
+    /**
+     * Returns whether the TV input service computes the programs of channels that repeat their
+     * programs, instead of reading them from the TV provider. If so, the sync stores the playlist
+     * of each such channel and only writes the programs of the next
+     * {@link #getRepeatScheduleGuideDurationMillis()} to the TV provider, for the program guide.
+     * With the default durations, that is 14 hours of programs per repeating channel instead of
+     * the 48 hours of a periodic sync, about 3.4 times fewer rows.
+     * <p>
+     * The TV input service must extend {@link BaseTvInputService}. The default is {@code false}.
+     */
+    public boolean isVirtualRepeatScheduleEnabled() {
+        return false;
+    }
+
+    /**
+     * Returns how far ahead the programs of channels that repeat their programs are written to the
+     * TV provider when {@link #isVirtualRepeatScheduleEnabled()} is {@code true}. It should cover
+     * the time until the next sync. The default is 14 hours, two more than the default period of
+     * {@link #setUpPeriodicSync(Context, String, ComponentName)}.
+     */
+    public long getRepeatScheduleGuideDurationMillis() {
+        return DEFAULT_REPEAT_SCHEDULE_GUIDE_DURATION_MILLIS;
+    }
+
+    /**
+     * Returns how far ahead the sync keeps a local index of the programs it writes, which
+     * sessions of a {@link BaseTvInputService} read before they query the TV provider. It should
+     * cover the time until the next sync. The default is 14 hours, two more than the default
+     * period of {@link #setUpPeriodicSync(Context, String, ComponentName)}. Return 0 to not keep
+     * an index.
+     */
+    public long getNowNextIndexDurationMillis() {
+        return DEFAULT_NOW_NEXT_INDEX_DURATION_MILLIS;
+    }
+
     /** Send the job to JobScheduler. */
     private static void scheduleJob(Context context, JobInfo job) {
         JobScheduler jobScheduler =
@@ -386,11 +430,20 @@ public abstract class EpgSyncJobService extends JobService {
                 broadcastError(ERROR_NO_CHANNELS);
                 return null;
             }
+            // Lets the TV input service serve its first tune without querying the channels.
+            ChannelMapStore.write(mContext, mInputId, new ChannelMap(channelMap));
             // Default to one hour sync
             long durationMs = extras.getLong(
                     BUNDLE_KEY_SYNC_PERIOD, DEFAULT_IMMEDIATE_EPG_DURATION_MILLIS);
             long startMs = System.currentTimeMillis();
             long endMs = startMs + durationMs;
+            boolean virtualRepeatSchedules = isVirtualRepeatScheduleEnabled();
+            List<RepeatSchedule> repeatSchedules = new ArrayList<>();
+            // Sessions keep reading the index of the last sync until every channel has been
+            // written, so a sync that is cancelled or fails leaves it in place.
+            long indexEndMs = startMs + Math.min(durationMs, getNowNextIndexDurationMillis());
+            NowNextIndex.Builder nowNextIndexBuilder = indexEndMs > startMs
+                    ? new NowNextIndex.Builder(startMs, indexEndMs) : null;
             for (int i = 0; i < channelMap.size(); ++i) {
                 Uri channelUri = TvContract.buildChannelUri(channelMap.keyAt(i));
                 if (isCancelled()) {
@@ -418,8 +471,23 @@ public abstract class EpgSyncJobService extends JobService {
                     broadcastError(ERROR_EPG_SYNC_CANCELED);
                     return null;
                 }
-                updatePrograms(channelUri,
-                        getPrograms(channelMap.valueAt(i), programs, startMs, endMs));
+                RepeatSchedule repeatSchedule = virtualRepeatSchedules
+                        ? getRepeatSchedule(channelMap.valueAt(i), programs) : null;
+                if (repeatSchedule != null) {
+                    // Sessions compute the programs, so only the guide needs them.
+                    repeatSchedules.add(repeatSchedule);
+                    updatePrograms(channelUri, repeatSchedule.getPrograms(startMs,
+                            Math.min(endMs, startMs + getRepeatScheduleGuideDurationMillis())));
+                } else {
+                    updatePrograms(channelUri,
+                            getPrograms(channelMap.valueAt(i), programs, startMs, endMs));
+                }
+                if (nowNextIndexBuilder != null) {
+                    // Index the rows as written, with their ids, rather than the fetched programs.
+                    nowNextIndexBuilder.setPrograms(channelMap.keyAt(i),
+                            TvContractUtils.getPrograms(mContext.getContentResolver(),
+                                    channelUri, startMs, indexEndMs));
+                }
                 Intent intent = new Intent(ACTION_SYNC_STATUS_CHANGED);
                 intent.putExtra(EpgSyncJobService.BUNDLE_KEY_INPUT_ID, mInputId);
                 intent.putExtra(EpgSyncJobService.BUNDLE_KEY_CHANNELS_SCANNED, i);
@@ -431,6 +499,16 @@ public abstract class EpgSyncJobService extends JobService {
                 intent.putExtra(EpgSyncJobService.SYNC_STATUS, EpgSyncJobService.SYNC_SCANNED);
                 LocalBroadcastManager.getInstance(mContext).sendBroadcast(intent);
             }
+            if (virtualRepeatSchedules) {
+                RepeatScheduleStore.write(mContext, mInputId, repeatSchedules);
+            } else {
+                RepeatScheduleStore.delete(mContext, mInputId);
+            }
+            if (nowNextIndexBuilder != null) {
+                NowNextIndexStore.write(mContext, mInputId, nowNextIndexBuilder.build());
+            } else {
+                NowNextIndexStore.delete(mContext, mInputId);
+            }
             return null;
         }
 
@@ -486,8 +564,8 @@ public abstract class EpgSyncJobService extends JobService {
                 throw new IllegalArgumentException("Start time must be before end time");
             }
             List<Program> programForGivenTime = new ArrayList<>();
-            if (channel.getInternalProviderData() != null
-                    && !channel.getInternalProviderData().isRepeatable()) {
+            if (channel.getReadOnlyInternalProviderData() != null
+                    && !channel.getReadOnlyInternalProviderData().isRepeatable()) {
                 for (Program program : programs) {
                     if (program.getStartTimeUtcMillis() <= endTimeMs
                             && program.getEndTimeUtcMillis() >= startTimeMs) {
@@ -500,75 +578,32 @@ public abstract class EpgSyncJobService extends JobService {
                 return programForGivenTime;
             }
 
-            // If repeat-programs is on, schedule the programs sequentially in a loop. To make every
-            // device play the same program in a given channel and time, we assumes the loop started
-            // from the epoch time.
-            long totalDurationMs = 0;
-            for (Program program : programs) {
-                totalDurationMs +=
-                        (program.getEndTimeUtcMillis() - program.getStartTimeUtcMillis());
-            }
-            if (totalDurationMs <= 0) {
-                throw new IllegalArgumentException("The duration of all programs must be greater " +
-                        "than 0ms.");
-            }
-
-            long programStartTimeMs = startTimeMs - startTimeMs % totalDurationMs;
-            int i = 0;
-            final int programCount = programs.size();
-            while (programStartTimeMs < endTimeMs) {
-                Program programInfo = programs.get(i++ % programCount);
-                long programEndTimeMs = programStartTimeMs + totalDurationMs;
-                if (programInfo.getEndTimeUtcMillis() > -1
-                        && programInfo.getStartTimeUtcMillis() > -1) {
-                    programEndTimeMs = programStartTimeMs +
-                            (programInfo.getEndTimeUtcMillis()
-                                    - programInfo.getStartTimeUtcMillis());
-                }
-                if (programEndTimeMs < startTimeMs) {
-                    programStartTimeMs = programEndTimeMs;
-                    continue;
-                }
-                // Shift advertisement time to match current program time.
-                InternalProviderData updateInternalProviderData =
-                        programInfo.getInternalProviderData();
-                shiftAdsTimeWithProgram(updateInternalProviderData,
-                        programInfo.getStartTimeUtcMillis(),
-                        programStartTimeMs);
-                programForGivenTime.add(new Program.Builder(programInfo)
-                        .setChannelId(channel.getId())
-                        .setStartTimeUtcMillis(programStartTimeMs)
-                        .setEndTimeUtcMillis(programEndTimeMs)
-                        .setInternalProviderData(updateInternalProviderData)
-                        .build()
-                );
-                programStartTimeMs = programEndTimeMs;
-            }
-            return programForGivenTime;
+            // If repeat-programs is on, schedule the programs sequentially in a loop.
+            return new RepeatSchedule(channel.getId(), programs)
+                    .getPrograms(startTimeMs, endTimeMs);
         }
 
         /**
-         * Shift advertisement time to match program playback time. For channels with repeated program,
-         * the time for current program may vary from what it was defined previously.
+         * Returns the schedule the TV input service computes the programs of a channel from, if
+         * the channel repeats its programs.
          *
-         * @param oldProgramStartTimeMs Outdated program start time.
-         * @param newProgramStartTimeMs Updated program start time.
+         * @param channel The {@link Channel} for the programs.
+         * @param programs The feed fetched from cloud.
+         * @return The schedule, or null if the programs must be written to the TV provider.
          */
-        private void shiftAdsTimeWithProgram(InternalProviderData internalProviderData,
-                    long oldProgramStartTimeMs, long newProgramStartTimeMs) {
-            if (internalProviderData == null) {
-                return;
+        private RepeatSchedule getRepeatSchedule(Channel channel, List<Program> programs) {
+            InternalProviderData internalProviderData = channel.getReadOnlyInternalProviderData();
+            if (internalProviderData == null || !internalProviderData.isRepeatable()
+                    || programs.isEmpty()) {
+                return null;
             }
-            long timeShift = newProgramStartTimeMs - oldProgramStartTimeMs;
-            List<Advertisement> oldAds = internalProviderData.getAds();
-            List<Advertisement> newAds = new ArrayList<>();
-            for (Advertisement oldAd : oldAds) {
-                newAds.add(new Advertisement.Builder(oldAd)
-                        .setStartTimeUtcMillis(oldAd.getStartTimeUtcMillis() + timeShift)
-                        .setStopTimeUtcMillis(oldAd.getStopTimeUtcMillis() + timeShift)
-                        .build());
+            for (Program program : programs) {
+                if (program.getStartTimeUtcMillis() >= program.getEndTimeUtcMillis()) {
+                    // Such programs cannot be stored.
+                    return null;
+                }
             }
-            internalProviderData.setAds(newAds);
+            return new RepeatSchedule(channel.getId(), programs);
         }
 
         /**
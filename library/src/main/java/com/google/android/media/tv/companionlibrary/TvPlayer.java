@@ -62,6 +62,25 @@ public interface TvPlayer {
         public void onResumed() {
 
         }
+
+        /**
+         * Called when the media signals that an ad break is coming, e.g. with a DASH event
+         * message or an HLS ID3 tag.
+         *
+         * @param leadTimeMs How long from now the break starts, in milliseconds.
+         * @param durationMs How long the break lasts in milliseconds, or 0 if the media does not
+         *                   say.
+         */
+        public void onAdBreakStartCue(long leadTimeMs, long durationMs) {
+
+        }
+
+        /**
+         * Called when the media signals that an ad break is over.
+         */
+        public void onAdBreakEndCue() {
+
+        }
     }
 
     /**
@@ -27,6 +27,7 @@ import com.google.android.media.tv.companionlibrary.model.Advertisement;
 import com.google.android.media.tv.companionlibrary.model.Channel;
 import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
 import com.google.android.media.tv.companionlibrary.model.Program;
+import com.google.android.media.tv.companionlibrary.utils.InternPool;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -90,7 +91,9 @@ import java.util.Locale;
  * </p>
  * &emsp;stop : The stop time of the advertisement.
  * </p>
- * &emsp;request-url : This element should contain the URL for the advertisement.
+ * &emsp;request-url : This element should contain the URL for the advertisement. An
+ * advertisement with several request-url elements is an ad pod, whose ads play back to back in
+ * the order of the elements.
  * </p>
  */
 public class XmlTvParser {
@@ -149,7 +152,7 @@ public class XmlTvParser {
     private static TvContentRating xmlTvRatingToTvContentRating(
             XmlTvParser.XmlTvRating rating) {
         if (ANDROID_TV_RATING.equals(rating.system)) {
-            return TvContentRating.unflattenFromString(rating.value);
+            return InternPool.getContentRating(rating.value);
         }
         return null;
     }
@@ -319,7 +322,7 @@ public class XmlTvParser {
                 } else if (TAG_ICON.equalsIgnoreCase(tagName)) {
                     icon = parseIcon(parser);
                 } else if (TAG_CATEGORY.equalsIgnoreCase(tagName)) {
-                    category.add(parser.nextText());
+                    category.add(InternPool.intern(parser.nextText()));
                 } else if (TAG_RATING.equalsIgnoreCase(tagName)) {
                     TvContentRating xmlTvRating = xmlTvRatingToTvContentRating(parseRating(parser));
                     if (xmlTvRating != null)
@@ -338,17 +341,19 @@ public class XmlTvParser {
         }
         InternalProviderData internalProviderData = new InternalProviderData();
         internalProviderData.setVideoType(videoType);
-        internalProviderData.setVideoUrl(videoSrc);
+        internalProviderData.setVideoUrl(InternPool.intern(videoSrc));
         internalProviderData.setAds(ads);
         return new Program.Builder()
                 .setChannelId(channelId.hashCode())
                 .setTitle(title)
                 .setDescription(description)
-                .setPosterArtUri(icon.src)
-                .setCanonicalGenres(category.toArray(new String[category.size()]))
+                .setPosterArtUri(InternPool.intern(icon.src))
+                .setCanonicalGenres(
+                        InternPool.internGenres(category.toArray(new String[category.size()])))
                 .setStartTimeUtcMillis(startTimeUtcMillis)
                 .setEndTimeUtcMillis(endTimeUtcMillis)
-                .setContentRatings(rating.toArray(new TvContentRating[rating.size()]))
+                .setContentRatings(InternPool.internContentRatings(
+                        rating.toArray(new TvContentRating[rating.size()])))
                 // NOTE: {@code COLUMN_INTERNAL_PROVIDER_DATA} is a private field
                 // where TvInputService can store anything it wants. Here, we store
                 // video type and video URL so that TvInputService can play the
@@ -458,11 +463,11 @@ public class XmlTvParser {
                 }
             }
         }
-        String requestUrl = null;
+        List<String> requestUrls = new ArrayList<>(1);
         while (parser.next() != XmlPullParser.END_DOCUMENT) {
             if (parser.getEventType() == XmlPullParser.START_TAG) {
                 if (TAG_REQUEST_URL.equalsIgnoreCase(parser.getName())) {
-                    requestUrl = parser.nextText();
+                    requestUrls.add(InternPool.intern(parser.nextText()));
                 }
             } else if (TAG_AD.equalsIgnoreCase(parser.getName())
                     && parser.getEventType() == XmlPullParser.END_TAG) {
@@ -478,7 +483,7 @@ public class XmlTvParser {
             builder.setStartTimeUtcMillis(startTimeUtcMillis);
             builder.setStopTimeUtcMillis(stopTimeUtcMillis);
         }
-        return builder.setType(type).setRequestUrl(requestUrl).build();
+        return builder.setType(type).setRequestUrls(requestUrls).build();
     }
 
     /**
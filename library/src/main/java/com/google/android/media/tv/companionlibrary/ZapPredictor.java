@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMap;
+
+import java.util.List;
+
+/**
+ * Predicts which channels the user is likely to tune to next, so that a
+ * {@link BaseTvInputService.Session} can get their playback ready ahead of time.
+ *
+ * @see BaseTvInputService.Session#setZapPredictor(ZapPredictor)
+ * @see BaseTvInputService.Session#onPredictedProgramsChanged(List)
+ */
+public interface ZapPredictor {
+    /**
+     * Predicts the next channels. Called on a background thread after every tune and whenever
+     * the programs of the predicted channels change.
+     *
+     * @param channelMap The channels of the TV input.
+     * @param currentChannelId The id of the channel that is tuned.
+     * @return The predicted channels, most likely first.
+     */
+    List<Channel> predictNextChannels(ChannelMap channelMap, long currentChannelId);
+
+    /**
+     * The default {@link ZapPredictor}, which predicts the channels right before and after the
+     * current one in display number order, i.e. channel up and channel down.
+     */
+    class AdjacentChannels implements ZapPredictor {
+        private final int mCount;
+
+        /**
+         * Predicts one channel on each side of the current one.
+         */
+        public AdjacentChannels() {
+            this(1);
+        }
+
+        /**
+         * @param count How many channels to predict on each side of the current one.
+         */
+        public AdjacentChannels(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public List<Channel> predictNextChannels(ChannelMap channelMap, long currentChannelId) {
+            return channelMap.getAdjacentChannels(currentChannelId, mCount);
+        }
+    }
+}
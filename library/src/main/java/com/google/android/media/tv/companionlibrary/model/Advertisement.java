@@ -18,8 +18,15 @@ package com.google.android.media.tv.companionlibrary.model;
 
 import android.support.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A class to store advertisement information.
+ * <p>
+ * An advertisement can be an ad pod, which is a break made of several ads that play back to
+ * back. Each ad of a pod has its own request URL, see {@link #getRequestUrls()}.
  */
 public class Advertisement implements Comparable<Advertisement> {
     /**
@@ -31,11 +38,20 @@ public class Advertisement implements Comparable<Advertisement> {
     private long mStopTimeUtcMillis;
     private int mType;
     private String mRequestUrl;
+    // Every request URL if this is an ad pod, the first of them being mRequestUrl
+    private List<String> mPodRequestUrls;
 
     private Advertisement() {
         mType = TYPE_VAST;
     }
 
+    /**
+     * @return Whether {@link Builder#setType(int)} accepts the given type.
+     */
+    static boolean isSupportedType(int type) {
+        return type == TYPE_VAST;
+    }
+
     /**
      * @return Epoch start time of ad playback in milliseconds.
      */
@@ -64,6 +80,25 @@ public class Advertisement implements Comparable<Advertisement> {
         return mRequestUrl;
     }
 
+    /**
+     * @return The URLs for requesting the ads of this break, in the order they play. This has
+     * more than one URL if this is an ad pod, and is empty if there is no request URL.
+     */
+    public List<String> getRequestUrls() {
+        if (mPodRequestUrls != null) {
+            return mPodRequestUrls;
+        }
+        return mRequestUrl != null ? Collections.singletonList(mRequestUrl)
+                : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return Whether this break is made of more than one ad.
+     */
+    public boolean isPod() {
+        return mPodRequestUrls != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -73,7 +108,7 @@ public class Advertisement implements Comparable<Advertisement> {
         if (mStartTimeUtcMillis != that.getStartTimeUtcMillis()) return false;
         if (mStopTimeUtcMillis != that.getStopTimeUtcMillis()) return false;
         if (mType != that.getType()) return false;
-        return mRequestUrl.equals(that.getRequestUrl());
+        return getRequestUrls().equals(that.getRequestUrls());
     }
 
     @Override
@@ -82,6 +117,7 @@ public class Advertisement implements Comparable<Advertisement> {
         result = 31 * result + (int) (mStopTimeUtcMillis ^ (mStopTimeUtcMillis >>> 32));
         result = 31 * result + mType;
         result = 31 * result + (mRequestUrl != null ? mRequestUrl.hashCode() : 0);
+        result = 31 * result + (mPodRequestUrls != null ? mPodRequestUrls.hashCode() : 0);
         return result;
     }
 
@@ -91,7 +127,8 @@ public class Advertisement implements Comparable<Advertisement> {
                 + "start=" + mStartTimeUtcMillis
                 + ", stop=" + mStopTimeUtcMillis
                 + ", type=" + mType
-                + ", request-url=" + mRequestUrl + "}";
+                + ", request-url" + (mPodRequestUrls != null ? "s=" + mPodRequestUrls
+                        : "=" + mRequestUrl) + "}";
     }
 
     @Override
@@ -114,6 +151,7 @@ public class Advertisement implements Comparable<Advertisement> {
         mStopTimeUtcMillis = other.getStopTimeUtcMillis();
         mType = other.getType();
         mRequestUrl = other.getRequestUrl();
+        mPodRequestUrls = other.mPodRequestUrls;
     }
 
     /**
@@ -180,13 +218,33 @@ public class Advertisement implements Comparable<Advertisement> {
         }
 
         /**
-         * Sets the URL for requesting ads.
+         * Sets the URL for requesting ads. This replaces any URLs set with
+         * {@link #setRequestUrls(List)}.
          *
          * @param requestUrl URL for requesting advertisement.
          * @return This Builder object to allow for chaining of calls to builder methods.
          */
         public Builder setRequestUrl(String requestUrl) {
             mAdvertisement.mRequestUrl = requestUrl;
+            mAdvertisement.mPodRequestUrls = null;
+            return this;
+        }
+
+        /**
+         * Sets the URLs for requesting the ads of an ad pod, which play back to back in the given
+         * order. With a single URL, this is the same as {@link #setRequestUrl(String)}.
+         *
+         * @param requestUrls URLs for requesting the ads of the break.
+         * @return This Builder object to allow for chaining of calls to builder methods.
+         */
+        public Builder setRequestUrls(List<String> requestUrls) {
+            if (requestUrls == null || requestUrls.size() <= 1) {
+                return setRequestUrl(requestUrls == null || requestUrls.isEmpty()
+                        ? null : requestUrls.get(0));
+            }
+            mAdvertisement.mRequestUrl = requestUrls.get(0);
+            mAdvertisement.mPodRequestUrls =
+                    Collections.unmodifiableList(new ArrayList<>(requestUrls));
             return this;
         }
 
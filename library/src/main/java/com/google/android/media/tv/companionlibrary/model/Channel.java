@@ -56,6 +56,7 @@ public final class Channel {
     private String mAppLinkPosterArtUri;
     private String mAppLinkIntentUri;
     private byte[] mInternalProviderData;
+    private volatile ParsedProviderData mParsedInternalProviderData;
     private String mNetworkAffiliation;
     private int mSearchable;
     private String mServiceType;
@@ -201,18 +202,32 @@ public final class Channel {
     }
 
     /**
+     * Returns a new, modifiable copy of the internal provider data on every call.
+     *
      * @return The value of {@link TvContract.Channels#COLUMN_INTERNAL_PROVIDER_DATA} for the
      * channel.
      */
     public InternalProviderData getInternalProviderData() {
-        if (mInternalProviderData != null) {
-            try {
-                return new InternalProviderData(mInternalProviderData);
-            } catch (InternalProviderData.ParseException e) {
-                return null;
-            }
-        }
-        return null;
+        return getParsedInternalProviderData().copyData();
+    }
+
+    /**
+     * Returns the parsed value of {@link TvContract.Channels#COLUMN_INTERNAL_PROVIDER_DATA} for the
+     * channel. The data is parsed at most once and the same read-only object is returned on every
+     * call, so this should be preferred over {@link #getInternalProviderData()} when the data is
+     * only read.
+     *
+     * @return The read-only InternalProviderData, or null if there is none or it is malformed.
+     */
+    public InternalProviderData getReadOnlyInternalProviderData() {
+        return getParsedInternalProviderData().getData();
+    }
+
+    private ParsedProviderData getParsedInternalProviderData() {
+        ParsedProviderData parsed = ParsedProviderData.get(mParsedInternalProviderData,
+                mInternalProviderData);
+        mParsedInternalProviderData = parsed;
+        return parsed;
     }
 
     /**
@@ -355,6 +370,7 @@ public final class Channel {
         mAppLinkIntentUri = other.mAppLinkIntentUri;
         mChannelLogo = other.mChannelLogo;
         mInternalProviderData = other.mInternalProviderData;
+        mParsedInternalProviderData = other.mParsedInternalProviderData;
         mNetworkAffiliation = other.mNetworkAffiliation;
         mSearchable = other.mSearchable;
         mServiceType = other.mServiceType;
@@ -436,6 +452,13 @@ public final class Channel {
         return builder.build();
     }
 
+    private void validate() {
+        if (mOriginalNetworkId == INVALID_INTEGER_VALUE) {
+            throw new IllegalArgumentException("This channel must have a valid original " +
+                    "network id");
+        }
+    }
+
     private static String[] getProjection() {
         String[] baseColumns = new String[] {
                 TvContract.Channels._ID,
@@ -656,7 +679,7 @@ public final class Channel {
          */
         public Builder setInternalProviderData(InternalProviderData internalProviderData) {
             if (internalProviderData != null) {
-                mChannel.mInternalProviderData = internalProviderData.toString().getBytes();
+                mChannel.mInternalProviderData = internalProviderData.toByteArray();
             }
             return this;
         }
@@ -778,11 +801,159 @@ public final class Channel {
         public Channel build() {
             Channel channel = new Channel();
             channel.copyFrom(mChannel);
-            if (channel.getOriginalNetworkId() == INVALID_INTEGER_VALUE) {
-                throw new IllegalArgumentException("This channel must have a valid original " +
-                        "network id");
+            channel.validate();
+            return channel;
+        }
+    }
+
+    /**
+     * Reads {@link Channel} rows from a cursor. Column indices are resolved once when the mapper
+     * is created, so a single mapper should be used for every row of the same cursor.
+     *
+     * @hide
+     */
+    public static final class CursorMapper {
+        private final int mIdIndex;
+        private final int mDescriptionIndex;
+        private final int mDisplayNameIndex;
+        private final int mDisplayNumberIndex;
+        private final int mInputIdIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mNetworkAffiliationIndex;
+        private final int mOriginalNetworkIdIndex;
+        private final int mPackageNameIndex;
+        private final int mSearchableIndex;
+        private final int mServiceIdIndex;
+        private final int mServiceTypeIndex;
+        private final int mTransportStreamIdIndex;
+        private final int mTypeIndex;
+        private final int mVideoFormatIndex;
+        private final int mAppLinkColorIndex;
+        private final int mAppLinkIconUriIndex;
+        private final int mAppLinkIntentUriIndex;
+        private final int mAppLinkPosterArtUriIndex;
+        private final int mAppLinkTextIndex;
+
+        /**
+         * Creates a mapper for the columns of the given cursor. Columns missing from the cursor's
+         * projection are left at their default values.
+         *
+         * @param cursor The cursor that will be read.
+         */
+        public CursorMapper(Cursor cursor) {
+            mIdIndex = cursor.getColumnIndex(TvContract.Channels._ID);
+            mDescriptionIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DESCRIPTION);
+            mDisplayNameIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DISPLAY_NAME);
+            mDisplayNumberIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_DISPLAY_NUMBER);
+            mInputIdIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_INPUT_ID);
+            mInternalProviderDataIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_INTERNAL_PROVIDER_DATA);
+            mNetworkAffiliationIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_NETWORK_AFFILIATION);
+            mOriginalNetworkIdIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_ORIGINAL_NETWORK_ID);
+            mPackageNameIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_PACKAGE_NAME);
+            mSearchableIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SEARCHABLE);
+            mServiceIdIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SERVICE_ID);
+            mServiceTypeIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_SERVICE_TYPE);
+            mTransportStreamIdIndex =
+                    cursor.getColumnIndex(TvContract.Channels.COLUMN_TRANSPORT_STREAM_ID);
+            mTypeIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_TYPE);
+            mVideoFormatIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_VIDEO_FORMAT);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mAppLinkColorIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_COLOR);
+                mAppLinkIconUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_ICON_URI);
+                mAppLinkIntentUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_INTENT_URI);
+                mAppLinkPosterArtUriIndex =
+                        cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_POSTER_ART_URI);
+                mAppLinkTextIndex = cursor.getColumnIndex(TvContract.Channels.COLUMN_APP_LINK_TEXT);
+            } else {
+                mAppLinkColorIndex = -1;
+                mAppLinkIconUriIndex = -1;
+                mAppLinkIntentUriIndex = -1;
+                mAppLinkPosterArtUriIndex = -1;
+                mAppLinkTextIndex = -1;
+            }
+        }
+
+        /**
+         * Creates a new {@link Channel} from the current row of the cursor.
+         *
+         * @param cursor The cursor this mapper was created for, positioned on a row.
+         * @return A Channel with the values taken from the cursor.
+         */
+        public Channel read(Cursor cursor) {
+            Channel channel = new Channel();
+            if (isSet(cursor, mIdIndex)) {
+                channel.mId = cursor.getLong(mIdIndex);
+            }
+            if (isSet(cursor, mDescriptionIndex)) {
+                channel.mDescription = cursor.getString(mDescriptionIndex);
+            }
+            if (isSet(cursor, mDisplayNameIndex)) {
+                channel.mDisplayName = cursor.getString(mDisplayNameIndex);
+            }
+            if (isSet(cursor, mDisplayNumberIndex)) {
+                channel.mDisplayNumber = cursor.getString(mDisplayNumberIndex);
+            }
+            if (isSet(cursor, mInputIdIndex)) {
+                channel.mInputId = cursor.getString(mInputIdIndex);
+            }
+            if (isSet(cursor, mInternalProviderDataIndex)) {
+                channel.mInternalProviderData = cursor.getBlob(mInternalProviderDataIndex);
+            }
+            if (isSet(cursor, mNetworkAffiliationIndex)) {
+                channel.mNetworkAffiliation = cursor.getString(mNetworkAffiliationIndex);
+            }
+            if (isSet(cursor, mOriginalNetworkIdIndex)) {
+                channel.mOriginalNetworkId = cursor.getInt(mOriginalNetworkIdIndex);
+            }
+            if (isSet(cursor, mPackageNameIndex)) {
+                channel.mPackageName = cursor.getString(mPackageNameIndex);
             }
+            if (isSet(cursor, mSearchableIndex)) {
+                channel.mSearchable =
+                        cursor.getInt(mSearchableIndex) == IS_SEARCHABLE ? IS_SEARCHABLE : 0;
+            }
+            if (isSet(cursor, mServiceIdIndex)) {
+                channel.mServiceId = cursor.getInt(mServiceIdIndex);
+            }
+            if (isSet(cursor, mServiceTypeIndex)) {
+                channel.mServiceType = cursor.getString(mServiceTypeIndex);
+            }
+            if (isSet(cursor, mTransportStreamIdIndex)) {
+                channel.mTransportStreamId = cursor.getInt(mTransportStreamIdIndex);
+            }
+            if (isSet(cursor, mTypeIndex)) {
+                channel.mType = cursor.getString(mTypeIndex);
+            }
+            if (isSet(cursor, mVideoFormatIndex)) {
+                channel.mVideoFormat = cursor.getString(mVideoFormatIndex);
+            }
+            if (isSet(cursor, mAppLinkColorIndex)) {
+                channel.mAppLinkColor = cursor.getInt(mAppLinkColorIndex);
+            }
+            if (isSet(cursor, mAppLinkIconUriIndex)) {
+                channel.mAppLinkIconUri = cursor.getString(mAppLinkIconUriIndex);
+            }
+            if (isSet(cursor, mAppLinkIntentUriIndex)) {
+                channel.mAppLinkIntentUri = cursor.getString(mAppLinkIntentUriIndex);
+            }
+            if (isSet(cursor, mAppLinkPosterArtUriIndex)) {
+                channel.mAppLinkPosterArtUri = cursor.getString(mAppLinkPosterArtUriIndex);
+            }
+            if (isSet(cursor, mAppLinkTextIndex)) {
+                channel.mAppLinkText = cursor.getString(mAppLinkTextIndex);
+            }
+            channel.validate();
             return channel;
         }
+
+        private static boolean isSet(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
+        }
     }
 }
@@ -24,9 +24,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * This is a serialized class used for storing and retrieving serialized data from
@@ -41,24 +46,38 @@ public class InternalProviderData {
     private static final String TAG = "InternalProviderData";
     private static final boolean DEBUG = true;
 
-    private static final String KEY_VIDEO_TYPE = "type";
-    private static final String KEY_VIDEO_URL = "url";
-    private static final String KEY_REPEATABLE = "repeatable";
-    private static final String KEY_CUSTOM_DATA = "custom";
-    private static final String KEY_ADVERTISEMENTS = "advertisements";
-    private static final String KEY_ADVERTISEMENT_START = "start";
-    private static final String KEY_ADVERTISEMENT_STOP = "stop";
-    private static final String KEY_ADVERTISEMENT_TYPE = "type";
-    private static final String KEY_ADVERTISEMENT_REQUEST_URL = "requestUrl";
-    private static final String KEY_RECORDING_START_TIME = "recordingStartTime";
+    static final String KEY_VIDEO_TYPE = "type";
+    static final String KEY_VIDEO_URL = "url";
+    static final String KEY_REPEATABLE = "repeatable";
+    static final String KEY_CUSTOM_DATA = "custom";
+    static final String KEY_ADVERTISEMENTS = "advertisements";
+    static final String KEY_ADVERTISEMENT_START = "start";
+    static final String KEY_ADVERTISEMENT_STOP = "stop";
+    static final String KEY_ADVERTISEMENT_TYPE = "type";
+    static final String KEY_ADVERTISEMENT_REQUEST_URL = "requestUrl";
+    static final String KEY_ADVERTISEMENT_REQUEST_URLS = "requestUrls";
+    static final String KEY_RECORDING_START_TIME = "recordingStartTime";
 
-    private JSONObject mJsonObject;
+    // The fields below are read and written directly by InternalProviderDataCodec. A null value
+    // means that the key is not set. Custom and other values are normalized by normalizeValue.
+    Integer mVideoType;
+    String mVideoUrl;
+    Boolean mRepeatable;
+    Long mRecordingStartTime;
+    /** Immutable and sorted by start time. */
+    List<Advertisement> mAds;
+    LinkedHashMap<String, Object> mCustomData;
+    /** Top-level keys that are not known to this class, kept so that they survive a rewrite. */
+    LinkedHashMap<String, Object> mOtherData;
+
+    private boolean mReadOnly;
+    private int mHashCode;
+    private boolean mHashCodeValid;
 
     /**
      * Creates a new empty object
      */
     public InternalProviderData() {
-        mJsonObject = new JSONObject();
     }
 
     /**
@@ -69,77 +88,85 @@ public class InternalProviderData {
      */
     public InternalProviderData(@NonNull String data) throws ParseException {
         try {
-            mJsonObject = new JSONObject(data);
+            readJson(new JSONObject(data));
         } catch (JSONException e) {
             throw new ParseException(e.getMessage());
         }
     }
 
     /**
-     * Creates a new object and attempts to populate by obtaining the String representation of the
-     * provided byte array
+     * Creates a new object and attempts to populate it from the provided byte array, which may
+     * either be in the format returned by {@link #toByteArray()} or be the UTF-8 encoded String
+     * representation of InternalProviderData.
      *
-     * @param bytes Byte array corresponding to a correctly formatted String representation of
-     * InternalProviderData
+     * @param bytes Byte array corresponding to correctly formatted InternalProviderData
      * @throws ParseException If data is not formatted correctly
      */
     public InternalProviderData(@NonNull byte[] bytes) throws ParseException {
         try {
-            mJsonObject = new JSONObject(new String(bytes));
+            if (InternalProviderDataCodec.isEncoded(bytes)) {
+                InternalProviderDataCodec.decode(bytes, this);
+            } else {
+                readJson(new JSONObject(new String(bytes, StandardCharsets.UTF_8)));
+            }
         } catch (JSONException e) {
             throw new ParseException(e.getMessage());
         }
     }
 
-    private int jsonHash(JSONObject jsonObject) {
-        int hashSum = 0;
-        Iterator<String> keys = jsonObject.keys();
-        while(keys.hasNext()) {
-            String key = keys.next();
-            try {
-                if (jsonObject.get(key) instanceof JSONObject) {
-                    // This is a branch, get hash of this object recursively
-                    JSONObject branch = jsonObject.getJSONObject(key);
-                    hashSum += jsonHash(branch);
-                } else {
-                    // If this key does not link to a JSONObject, get hash of leaf
-                    hashSum += key.hashCode() + jsonObject.get(key).hashCode();
-                }
-            } catch (JSONException ignored) {
-            }
+    /**
+     * Creates a new, modifiable copy of another InternalProviderData.
+     *
+     * @param other The InternalProviderData to copy.
+     */
+    public InternalProviderData(@NonNull InternalProviderData other) {
+        mVideoType = other.mVideoType;
+        mVideoUrl = other.mVideoUrl;
+        mRepeatable = other.mRepeatable;
+        mRecordingStartTime = other.mRecordingStartTime;
+        // The ads list is immutable, so it can be shared.
+        mAds = other.mAds;
+        mCustomData = copyMap(other.mCustomData);
+        mOtherData = copyMap(other.mOtherData);
+        mHashCode = other.mHashCode;
+        mHashCodeValid = other.mHashCodeValid;
+    }
+
+    /**
+     * Prevents any further changes to this object. Used for the instances cached by the model
+     * classes, which are shared by every caller.
+     */
+    void makeReadOnly() {
+        mReadOnly = true;
+        // Computed before the object is shared so that readers never race to compute it.
+        hashCode();
+    }
+
+    /**
+     * @return Whether this object rejects changes. Read-only objects are returned by the model
+     * classes' {@code getReadOnlyInternalProviderData()} methods; use
+     * {@link #InternalProviderData(InternalProviderData)} to get a modifiable copy.
+     */
+    public boolean isReadOnly() {
+        return mReadOnly;
+    }
+
+    private void checkWritable() {
+        if (mReadOnly) {
+            throw new UnsupportedOperationException("This InternalProviderData is read-only");
         }
-        return hashSum;
+        mHashCodeValid = false;
     }
 
     @Override
     public int hashCode() {
-        // Recursively get the hashcode from all internal JSON keys and values
-        return jsonHash(mJsonObject);
-    }
-
-    private boolean jsonEquals(JSONObject json1, JSONObject json2) {
-        Iterator<String> keys = json1.keys();
-        while(keys.hasNext()) {
-            String key = keys.next();
-            try {
-                if (json1.get(key) instanceof JSONObject) {
-                    // This is a branch, check equality of this object recursively
-                    JSONObject thisBranch = json1.getJSONObject(key);
-                    JSONObject otherBranch = json2.getJSONObject(key);
-                    return jsonEquals(thisBranch, otherBranch);
-                } else {
-                    // If this key does not link to a JSONObject, check equality of leaf
-                    if (!json1.get(key).equals(json2.get(key))) {
-                        // The VALUE of the KEY does not match
-                        return false;
-                    }
-                }
-            } catch (JSONException e) {
-                return false;
-            }
+        // Computed once and kept until the next change.
+        if (!mHashCodeValid) {
+            mHashCode = Objects.hash(mVideoType, mVideoUrl, mRepeatable, mRecordingStartTime,
+                    mAds, mCustomData, mOtherData);
+            mHashCodeValid = true;
         }
-        // Confirm that no key has been missed in the check
-        return json1.length() == json2.length();
+        return mHashCode;
     }
 
     /**
@@ -150,16 +177,77 @@ public class InternalProviderData {
      */
     @Override
     public boolean equals(Object obj) {
-        if (obj == null || ! (obj instanceof InternalProviderData)) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof InternalProviderData)) {
             return false;
         }
-        JSONObject otherJsonObject = ((InternalProviderData) obj).mJsonObject;
-        return jsonEquals(mJsonObject, otherJsonObject);
+        InternalProviderData other = (InternalProviderData) obj;
+        return hashCode() == other.hashCode()
+                && Objects.equals(mVideoType, other.mVideoType)
+                && Objects.equals(mVideoUrl, other.mVideoUrl)
+                && Objects.equals(mRepeatable, other.mRepeatable)
+                && Objects.equals(mRecordingStartTime, other.mRecordingStartTime)
+                && Objects.equals(mAds, other.mAds)
+                && Objects.equals(mCustomData, other.mCustomData)
+                && Objects.equals(mOtherData, other.mOtherData);
     }
 
     @Override
     public String toString() {
-        return mJsonObject.toString();
+        JSONObject json = new JSONObject();
+        try {
+            if (mVideoType != null) {
+                json.put(KEY_VIDEO_TYPE, mVideoType);
+            }
+            if (mVideoUrl != null) {
+                json.put(KEY_VIDEO_URL, mVideoUrl);
+            }
+            if (mRepeatable != null) {
+                json.put(KEY_REPEATABLE, mRepeatable);
+            }
+            if (mRecordingStartTime != null) {
+                json.put(KEY_RECORDING_START_TIME, mRecordingStartTime);
+            }
+            if (mAds != null) {
+                JSONArray adsJsonArray = new JSONArray();
+                for (Advertisement ad : mAds) {
+                    JSONObject adJson = new JSONObject();
+                    adJson.put(KEY_ADVERTISEMENT_START, ad.getStartTimeUtcMillis());
+                    adJson.put(KEY_ADVERTISEMENT_STOP, ad.getStopTimeUtcMillis());
+                    adJson.put(KEY_ADVERTISEMENT_TYPE, ad.getType());
+                    adJson.put(KEY_ADVERTISEMENT_REQUEST_URL, ad.getRequestUrl());
+                    if (ad.isPod()) {
+                        adJson.put(KEY_ADVERTISEMENT_REQUEST_URLS,
+                                new JSONArray(ad.getRequestUrls()));
+                    }
+                    adsJsonArray.put(adJson);
+                }
+                json.put(KEY_ADVERTISEMENTS, adsJsonArray);
+            }
+            if (mCustomData != null) {
+                json.put(KEY_CUSTOM_DATA, toJsonValue(mCustomData));
+            }
+            if (mOtherData != null) {
+                for (Map.Entry<String, Object> entry : mOtherData.entrySet()) {
+                    json.put(entry.getKey(), toJsonValue(entry.getValue()));
+                }
+            }
+        } catch (JSONException ignored) {
+        }
+        return json.toString();
+    }
+
+    /**
+     * Encodes this object in a compact binary form, which is what the model classes store in
+     * {@code COLUMN_INTERNAL_PROVIDER_DATA}. The result can be read back with
+     * {@link #InternalProviderData(byte[])}.
+     *
+     * @return The encoded data.
+     */
+    public byte[] toByteArray() {
+        return InternalProviderDataCodec.encode(this);
     }
 
     /**
@@ -168,13 +256,7 @@ public class InternalProviderData {
      * @return The video type of the program, -1 if no value has been given.
      */
     public int getVideoType() {
-        if (mJsonObject.has(KEY_VIDEO_TYPE)) {
-            try {
-                return mJsonObject.getInt(KEY_VIDEO_TYPE);
-            } catch (JSONException ignored) {
-            }
-        }
-        return TvContractUtils.SOURCE_TYPE_INVALID;
+        return mVideoType != null ? mVideoType : TvContractUtils.SOURCE_TYPE_INVALID;
     }
 
     /**
@@ -185,10 +267,8 @@ public class InternalProviderData {
      * or {@link TvContractUtils#SOURCE_TYPE_MPEG_DASH}.
      */
     public void setVideoType(int videoType) {
-        try {
-            mJsonObject.put(KEY_VIDEO_TYPE, videoType);
-        } catch (JSONException ignored) {
-        }
+        checkWritable();
+        mVideoType = videoType;
     }
 
     /**
@@ -197,43 +277,17 @@ public class InternalProviderData {
      * @return The video url of the program if valid, null if no value has been given.
      */
     public String getVideoUrl() {
-        if (mJsonObject.has(KEY_VIDEO_URL)) {
-            try {
-                return mJsonObject.getString(KEY_VIDEO_URL);
-            } catch (JSONException ignored) {
-            }
-        }
-        return null;
+        return mVideoUrl;
     }
 
     /**
-     * Gets a list of all advertisements. If no ads have been assigned, the list will be empty.
+     * Gets a list of all advertisements, sorted by start time. If no ads have been assigned, the
+     * list will be empty. The list cannot be modified; use {@link #setAds(List)} to change it.
      *
      * @return A list of all advertisements for this channel or program.
      */
     public List<Advertisement> getAds() {
-        List<Advertisement> ads = new ArrayList<>();
-        try {
-            if (mJsonObject.has(KEY_ADVERTISEMENTS)) {
-                JSONArray adsJsonArray =
-                        new JSONArray(mJsonObject.get(KEY_ADVERTISEMENTS).toString());
-                for (int i = 0; i < adsJsonArray.length(); i++) {
-                    JSONObject ad = adsJsonArray.getJSONObject(i);
-                    long start = ad.getLong(KEY_ADVERTISEMENT_START);
-                    long stop = ad.getLong(KEY_ADVERTISEMENT_STOP);
-                    int type = ad.getInt(KEY_ADVERTISEMENT_TYPE);
-                    String requestUrl = ad.getString(KEY_ADVERTISEMENT_REQUEST_URL);
-                    ads.add(new Advertisement.Builder()
-                            .setStartTimeUtcMillis(start)
-                            .setStopTimeUtcMillis(stop)
-                            .setType(type)
-                            .setRequestUrl(requestUrl)
-                            .build());
-                }
-            }
-        } catch (JSONException ignored) {
-        }
-        return ads;
+        return mAds != null ? mAds : Collections.<Advertisement>emptyList();
     }
 
     /**
@@ -243,11 +297,7 @@ public class InternalProviderData {
      * @return Recording start of program in UTC milliseconds, 0 if no value is given.
      */
     public long getRecordedProgramStartTime() {
-        try {
-            return mJsonObject.getLong(KEY_RECORDING_START_TIME);
-        } catch (JSONException ignored) {
-        }
-        return 0;
+        return mRecordingStartTime != null ? mRecordingStartTime : 0;
     }
 
     /**
@@ -256,10 +306,8 @@ public class InternalProviderData {
      * @param videoUrl A valid url pointing to the video to be played.
      */
     public void setVideoUrl(String videoUrl) {
-        try {
-            mJsonObject.put(KEY_VIDEO_URL, videoUrl);
-        } catch (JSONException ignored) {
-        }
+        checkWritable();
+        mVideoUrl = videoUrl;
     }
 
     /**
@@ -268,13 +316,7 @@ public class InternalProviderData {
      * @return Whether to repeat programs. Returns false if no value has been set.
      */
     public boolean isRepeatable() {
-        if (mJsonObject.has(KEY_REPEATABLE)) {
-            try {
-                return mJsonObject.getBoolean(KEY_REPEATABLE);
-            } catch (JSONException ignored) {
-            }
-        }
-        return false;
+        return mRepeatable != null && mRepeatable;
     }
 
     /**
@@ -284,50 +326,48 @@ public class InternalProviderData {
      * @param repeatable Whether to repeat programs.
      */
     public void setRepeatable(boolean repeatable) {
-        try {
-            mJsonObject.put(KEY_REPEATABLE, repeatable);
-        } catch (JSONException ignored) {
-        }
+        checkWritable();
+        mRepeatable = repeatable;
     }
 
     /**
      * Sets a list of advertisements for this channel or program. If setting for a channel, list
-     * size should be <= 1. Channels cannot have more than one advertisement.
+     * size should be <= 1. Channels cannot have more than one advertisement, but it can be an
+     * ad pod, see {@link Advertisement.Builder#setRequestUrls(List)}.
      *
      * @param ads A list of advertisements that should be shown.
      */
     public void setAds(List<Advertisement> ads) {
-        try {
-            if (ads != null && !ads.isEmpty()) {
-                JSONArray adsJsonArray = new JSONArray();
-                for (Advertisement ad : ads) {
-                    JSONObject adJson = new JSONObject();
-                    adJson.put(KEY_ADVERTISEMENT_START, ad.getStartTimeUtcMillis());
-                    adJson.put(KEY_ADVERTISEMENT_STOP, ad.getStopTimeUtcMillis());
-                    adJson.put(KEY_ADVERTISEMENT_TYPE, ad.getType());
-                    adJson.put(KEY_ADVERTISEMENT_REQUEST_URL, ad.getRequestUrl());
-                    adsJsonArray.put(adJson);
-                }
-                mJsonObject.put(KEY_ADVERTISEMENTS, adsJsonArray);
-            }
-        } catch (JSONException ignored) {
+        checkWritable();
+        if (ads != null && !ads.isEmpty()) {
+            setAdsInternal(new ArrayList<>(ads));
         }
     }
 
+    /**
+     * Sorts and stores the given list, which is not copied and must not be used by the caller
+     * afterwards.
+     */
+    void setAdsInternal(List<Advertisement> ads) {
+        Collections.sort(ads);
+        mAds = Collections.unmodifiableList(ads);
+    }
+
     /**
      * Sets the recording program start time for a recorded program.
      *
      * @param startTime Recording start time in UTC milliseconds of recorded program.
      */
     public void setRecordingStartTime(long startTime) {
-        try {
-            mJsonObject.put(KEY_RECORDING_START_TIME, startTime);
-        } catch (JSONException ignored) {
-        }
+        checkWritable();
+        mRecordingStartTime = startTime;
     }
 
     /**
-     * Adds some custom data to the InternalProviderData.
+     * Adds some custom data to the InternalProviderData. The value is stored as a String; use
+     * {@link #putLong(String, long)}, {@link #putDouble(String, double)},
+     * {@link #putBoolean(String, boolean)} or {@link #putString(String, String)} to keep its
+     * type.
      *
      * @param key The key for this data
      * @param value The value this data should take
@@ -335,14 +375,62 @@ public class InternalProviderData {
      * @throws ParseException If there is a problem adding custom data
      */
     public InternalProviderData put(String key, Object value) throws ParseException {
-        try {
-            if (!mJsonObject.has(KEY_CUSTOM_DATA)) {
-                mJsonObject.put(KEY_CUSTOM_DATA, new JSONObject());
-            }
-            mJsonObject.getJSONObject(KEY_CUSTOM_DATA).put(key, String.valueOf(value));
-        } catch (JSONException e) {
-            throw new ParseException(e.getMessage());
+        return putCustom(key, String.valueOf(value));
+    }
+
+    /**
+     * Adds a custom String value to the InternalProviderData.
+     *
+     * @param key The key for this data
+     * @param value The value this data should take
+     * @return This InternalProviderData object to allow for chaining of calls
+     */
+    public InternalProviderData putString(String key, String value) {
+        return putCustom(key, value != null ? value : JSONObject.NULL);
+    }
+
+    /**
+     * Adds a custom long value to the InternalProviderData.
+     *
+     * @param key The key for this data
+     * @param value The value this data should take
+     * @return This InternalProviderData object to allow for chaining of calls
+     */
+    public InternalProviderData putLong(String key, long value) {
+        return putCustom(key, value);
+    }
+
+    /**
+     * Adds a custom double value to the InternalProviderData.
+     *
+     * @param key The key for this data
+     * @param value The value this data should take
+     * @return This InternalProviderData object to allow for chaining of calls
+     */
+    public InternalProviderData putDouble(String key, double value) {
+        return putCustom(key, value);
+    }
+
+    /**
+     * Adds a custom boolean value to the InternalProviderData.
+     *
+     * @param key The key for this data
+     * @param value The value this data should take
+     * @return This InternalProviderData object to allow for chaining of calls
+     */
+    public InternalProviderData putBoolean(String key, boolean value) {
+        return putCustom(key, value);
+    }
+
+    private InternalProviderData putCustom(String key, Object value) {
+        checkWritable();
+        if (key == null) {
+            throw new IllegalArgumentException("Custom data key cannot be null");
         }
+        if (mCustomData == null) {
+            mCustomData = new LinkedHashMap<>();
+        }
+        mCustomData.put(key, value);
         return this;
     }
 
@@ -354,14 +442,83 @@ public class InternalProviderData {
      * @throws ParseException If there is a problem getting custom data
      */
     public Object get(String key) throws ParseException {
-        if (! mJsonObject.has(KEY_CUSTOM_DATA)) {
+        return mCustomData != null ? toJsonValue(mCustomData.get(key)) : null;
+    }
+
+    /**
+     * Gets a custom value as a String.
+     *
+     * @param key The key assigned to this data
+     * @return The value of this key, or null if the key is not found or has a null value.
+     */
+    public String getString(String key) {
+        Object value = mCustomData != null ? mCustomData.get(key) : null;
+        if (value == null || value == JSONObject.NULL) {
             return null;
         }
-        try {
-            return mJsonObject.getJSONObject(KEY_CUSTOM_DATA).opt(key);
-        } catch (JSONException e) {
-            throw new ParseException(e.getMessage());
+        return value instanceof String ? (String) value : toJsonValue(value).toString();
+    }
+
+    /**
+     * Gets a custom value as a long. Values stored as Strings, such as those added with
+     * {@link #put(String, Object)}, are parsed.
+     *
+     * @param key The key assigned to this data
+     * @param defaultValue The value to return if the key is not found or is not a number.
+     * @return The value of this key.
+     */
+    public long getLong(String key, long defaultValue) {
+        Object value = mCustomData != null ? mCustomData.get(key) : null;
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Gets a custom value as a double. Values stored as Strings, such as those added with
+     * {@link #put(String, Object)}, are parsed.
+     *
+     * @param key The key assigned to this data
+     * @param defaultValue The value to return if the key is not found or is not a number.
+     * @return The value of this key.
+     */
+    public double getDouble(String key, double defaultValue) {
+        Object value = mCustomData != null ? mCustomData.get(key) : null;
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Gets a custom value as a boolean. Values stored as the Strings "true" or "false", such as
+     * those added with {@link #put(String, Object)}, are parsed.
+     *
+     * @param key The key assigned to this data
+     * @param defaultValue The value to return if the key is not found or is not a boolean.
+     * @return The value of this key.
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = mCustomData != null ? mCustomData.get(key) : null;
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if ("true".equalsIgnoreCase(String.valueOf(value))) {
+            return true;
+        } else if ("false".equalsIgnoreCase(String.valueOf(value))) {
+            return false;
         }
+        return defaultValue;
     }
 
     /**
@@ -372,14 +529,131 @@ public class InternalProviderData {
      * @throws ParseException If there is a problem checking custom data
      */
     public boolean has(String key) throws ParseException {
-        if (! mJsonObject.has(KEY_CUSTOM_DATA)) {
-            return false;
+        return mCustomData != null && mCustomData.containsKey(key);
+    }
+
+    private void readJson(JSONObject json) throws JSONException {
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.get(key);
+            if (KEY_VIDEO_TYPE.equals(key) && value instanceof Number) {
+                mVideoType = ((Number) value).intValue();
+            } else if (KEY_VIDEO_URL.equals(key) && value instanceof String) {
+                mVideoUrl = (String) value;
+            } else if (KEY_REPEATABLE.equals(key) && value instanceof Boolean) {
+                mRepeatable = (Boolean) value;
+            } else if (KEY_RECORDING_START_TIME.equals(key) && value instanceof Number) {
+                mRecordingStartTime = ((Number) value).longValue();
+            } else if (KEY_ADVERTISEMENTS.equals(key) && value instanceof JSONArray) {
+                setAdsInternal(readAds((JSONArray) value));
+            } else if (KEY_CUSTOM_DATA.equals(key) && value instanceof JSONObject) {
+                mCustomData = normalizeObject((JSONObject) value);
+            } else {
+                if (mOtherData == null) {
+                    mOtherData = new LinkedHashMap<>();
+                }
+                mOtherData.put(key, normalizeValue(value));
+            }
         }
-        try {
-            return mJsonObject.getJSONObject(KEY_CUSTOM_DATA).has(key);
-        } catch (JSONException e) {
-            throw new ParseException(e.getMessage());
+    }
+
+    /**
+     * Reads ads written in the JSON format. Ads that are missing their start or stop time are
+     * dropped.
+     *
+     * @throws JSONException If an ad has no type or a type that is not supported.
+     */
+    private static List<Advertisement> readAds(JSONArray adsJsonArray) throws JSONException {
+        List<Advertisement> ads = new ArrayList<>(adsJsonArray.length());
+        for (int i = 0; i < adsJsonArray.length(); i++) {
+            JSONObject ad = adsJsonArray.optJSONObject(i);
+            if (ad == null || !ad.has(KEY_ADVERTISEMENT_START)
+                    || !ad.has(KEY_ADVERTISEMENT_STOP)) {
+                continue;
+            }
+            int type = ad.getInt(KEY_ADVERTISEMENT_TYPE);
+            if (!Advertisement.isSupportedType(type)) {
+                throw new JSONException("Unsupported advertisement type " + type);
+            }
+            Advertisement.Builder builder = new Advertisement.Builder()
+                    .setStartTimeUtcMillis(ad.optLong(KEY_ADVERTISEMENT_START))
+                    .setStopTimeUtcMillis(ad.optLong(KEY_ADVERTISEMENT_STOP))
+                    .setType(type)
+                    .setRequestUrl(ad.has(KEY_ADVERTISEMENT_REQUEST_URL)
+                            ? ad.optString(KEY_ADVERTISEMENT_REQUEST_URL) : null);
+            JSONArray requestUrls = ad.optJSONArray(KEY_ADVERTISEMENT_REQUEST_URLS);
+            if (requestUrls != null) {
+                List<String> podRequestUrls = new ArrayList<>(requestUrls.length());
+                for (int j = 0; j < requestUrls.length(); j++) {
+                    podRequestUrls.add(requestUrls.optString(j));
+                }
+                builder.setRequestUrls(podRequestUrls);
+            }
+            ads.add(builder.build());
+        }
+        return ads;
+    }
+
+    private static LinkedHashMap<String, Object> normalizeObject(JSONObject json)
+            throws JSONException {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, normalizeValue(json.get(key)));
+        }
+        return map;
+    }
+
+    /**
+     * Converts a parsed JSON value to the typed model: objects become maps, arrays become lists,
+     * and whole numbers become Longs so that equal values compare equal however they were read.
+     */
+    static Object normalizeValue(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            return normalizeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(normalizeValue(array.get(i)));
+            }
+            return list;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Number) value).doubleValue();
         }
+        return value;
+    }
+
+    /**
+     * Converts a value of the typed model back to its JSON form.
+     */
+    private static Object toJsonValue(Object value) {
+        if (value instanceof Map) {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                try {
+                    json.put((String) entry.getKey(), toJsonValue(entry.getValue()));
+                } catch (JSONException ignored) {
+                }
+            }
+            return json;
+        } else if (value instanceof List) {
+            JSONArray json = new JSONArray();
+            for (Object element : (List<?>) value) {
+                json.put(toJsonValue(element));
+            }
+            return json;
+        }
+        return value;
+    }
+
+    private static LinkedHashMap<String, Object> copyMap(LinkedHashMap<String, Object> map) {
+        // Nested values are never modified in place, so a shallow copy is enough.
+        return map != null ? new LinkedHashMap<>(map) : null;
     }
 
     /**
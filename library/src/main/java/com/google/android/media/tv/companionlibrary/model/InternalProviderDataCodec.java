@@ -0,0 +1,468 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link InternalProviderData}, which is much smaller than the JSON
+ * text and faster to decode on the tune path.
+ * <p>
+ * Layout, where varints are unsigned LEB128 and signed values are zigzag encoded first:
+ * <pre>
+ * magic (3 bytes) | version (1 byte)
+ * string count (varint) | for each string: UTF-8 length (varint), UTF-8 bytes
+ * field count (varint)  | for each field: tag (1 byte), tag-specific value
+ * </pre>
+ * Strings, including keys, are written once to the string table and then referenced by index.
+ * The well-known fields have dedicated tags, with ads written as a typed array of
+ * (start, duration, type, request url). The request urls of ad pods follow in a separate field
+ * of (ad index, url count, urls), so that ads without pods are written as before. The custom data
+ * object and any unknown key are written with {@link #TAG_VALUE} as a key and a self-describing
+ * value.
+ * <p>
+ * The codec reads and writes the typed fields of {@link InternalProviderData} directly.
+ * <p>
+ * The first magic byte is never valid in UTF-8, so a blob is unambiguously either binary or the
+ * JSON text written by earlier versions, which {@link #isEncoded(byte[])} tells apart.
+ */
+final class InternalProviderDataCodec {
+    private static final byte[] MAGIC = new byte[] {(byte) 0xC1, 'I', 'P'};
+    private static final int VERSION = 1;
+
+    private static final int TAG_VALUE = 0;
+    private static final int TAG_VIDEO_TYPE = 1;
+    private static final int TAG_VIDEO_URL = 2;
+    private static final int TAG_REPEATABLE = 3;
+    private static final int TAG_RECORDING_START_TIME = 4;
+    private static final int TAG_ADVERTISEMENTS = 5;
+    private static final int TAG_AD_PODS = 6;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_FALSE = 1;
+    private static final int TYPE_TRUE = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_STRING = 5;
+    private static final int TYPE_OBJECT = 6;
+    private static final int TYPE_ARRAY = 7;
+
+    /** Marks an absent request url in a typed ad, as string indices are written plus one. */
+    private static final int NO_STRING = 0;
+
+    private InternalProviderDataCodec() {
+    }
+
+    /**
+     * @return Whether the given blob is in the binary format rather than JSON text.
+     */
+    static boolean isEncoded(byte[] bytes) {
+        if (bytes.length < MAGIC.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] encode(InternalProviderData data) {
+        Writer writer = new Writer();
+        // Fields are collected first so that the string table can be written ahead of them.
+        Writer fields = new Writer();
+        int fieldCount = 0;
+        if (data.mVideoType != null) {
+            fields.writeByte(TAG_VIDEO_TYPE);
+            fields.writeSignedVarint(data.mVideoType);
+            fieldCount++;
+        }
+        if (data.mVideoUrl != null) {
+            fields.writeByte(TAG_VIDEO_URL);
+            fields.writeVarint(writer.indexOf(data.mVideoUrl));
+            fieldCount++;
+        }
+        if (data.mRepeatable != null) {
+            fields.writeByte(TAG_REPEATABLE);
+            fields.writeByte(data.mRepeatable ? 1 : 0);
+            fieldCount++;
+        }
+        if (data.mRecordingStartTime != null) {
+            fields.writeByte(TAG_RECORDING_START_TIME);
+            fields.writeSignedVarint(data.mRecordingStartTime);
+            fieldCount++;
+        }
+        if (data.mAds != null) {
+            fields.writeByte(TAG_ADVERTISEMENTS);
+            writeAds(writer, fields, data.mAds);
+            fieldCount++;
+            if (hasAdPods(data.mAds)) {
+                fields.writeByte(TAG_AD_PODS);
+                writeAdPods(writer, fields, data.mAds);
+                fieldCount++;
+            }
+        }
+        if (data.mCustomData != null) {
+            fields.writeByte(TAG_VALUE);
+            fields.writeVarint(writer.indexOf(InternalProviderData.KEY_CUSTOM_DATA));
+            writeValue(writer, fields, data.mCustomData);
+            fieldCount++;
+        }
+        if (data.mOtherData != null) {
+            for (Map.Entry<String, Object> entry : data.mOtherData.entrySet()) {
+                fields.writeByte(TAG_VALUE);
+                fields.writeVarint(writer.indexOf(entry.getKey()));
+                writeValue(writer, fields, entry.getValue());
+                fieldCount++;
+            }
+        }
+
+        writer.write(MAGIC, 0, MAGIC.length);
+        writer.writeByte(VERSION);
+        writer.writeVarint(writer.mStrings.size());
+        for (String string : writer.mStrings) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writer.writeVarint(utf8.length);
+            writer.write(utf8, 0, utf8.length);
+        }
+        writer.writeVarint(fieldCount);
+        byte[] fieldBytes = fields.toByteArray();
+        writer.write(fieldBytes, 0, fieldBytes.length);
+        return writer.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void decode(byte[] bytes, InternalProviderData data) throws JSONException {
+        Reader reader = new Reader(bytes, MAGIC.length);
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new JSONException("Unsupported internal provider data version " + version);
+        }
+        String[] strings = new String[reader.readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = reader.readString();
+        }
+        reader.mStrings = strings;
+
+        int fieldCount = reader.readCount();
+        for (int i = 0; i < fieldCount; i++) {
+            int tag = reader.readByte();
+            switch (tag) {
+                case TAG_VIDEO_TYPE:
+                    data.mVideoType = (int) reader.readSignedVarint();
+                    break;
+                case TAG_VIDEO_URL:
+                    data.mVideoUrl = reader.readStringRef();
+                    break;
+                case TAG_REPEATABLE:
+                    data.mRepeatable = reader.readByte() != 0;
+                    break;
+                case TAG_RECORDING_START_TIME:
+                    data.mRecordingStartTime = reader.readSignedVarint();
+                    break;
+                case TAG_ADVERTISEMENTS:
+                    data.setAdsInternal(readAds(reader));
+                    break;
+                case TAG_AD_PODS:
+                    // Always written right after the ads it refers to.
+                    data.setAdsInternal(readAdPods(reader, data.getAds()));
+                    break;
+                case TAG_VALUE:
+                    String key = reader.readStringRef();
+                    Object value = readValue(reader);
+                    if (InternalProviderData.KEY_CUSTOM_DATA.equals(key)
+                            && value instanceof LinkedHashMap) {
+                        data.mCustomData = (LinkedHashMap<String, Object>) value;
+                    } else {
+                        if (data.mOtherData == null) {
+                            data.mOtherData = new LinkedHashMap<>();
+                        }
+                        data.mOtherData.put(key, value);
+                    }
+                    break;
+                default:
+                    throw new JSONException("Unknown internal provider data field " + tag);
+            }
+        }
+    }
+
+    private static void writeAds(Writer strings, Writer out, List<Advertisement> ads) {
+        out.writeVarint(ads.size());
+        for (Advertisement ad : ads) {
+            long start = ad.getStartTimeUtcMillis();
+            out.writeSignedVarint(start);
+            out.writeSignedVarint(ad.getStopTimeUtcMillis() - start);
+            out.writeVarint(ad.getType());
+            String requestUrl = ad.getRequestUrl();
+            out.writeVarint(requestUrl == null ? NO_STRING : strings.indexOf(requestUrl) + 1);
+        }
+    }
+
+    private static List<Advertisement> readAds(Reader reader) throws JSONException {
+        int count = reader.readCount();
+        List<Advertisement> ads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = reader.readSignedVarint();
+            long stop = start + reader.readSignedVarint();
+            long type = reader.readVarint();
+            if (!Advertisement.isSupportedType((int) type) || type != (int) type) {
+                throw new JSONException("Unsupported advertisement type " + type);
+            }
+            int requestUrl = (int) reader.readVarint();
+            ads.add(new Advertisement.Builder()
+                    .setStartTimeUtcMillis(start)
+                    .setStopTimeUtcMillis(stop)
+                    .setType((int) type)
+                    .setRequestUrl(requestUrl != NO_STRING ? reader.stringAt(requestUrl - 1) : null)
+                    .build());
+        }
+        return ads;
+    }
+
+    private static boolean hasAdPods(List<Advertisement> ads) {
+        for (Advertisement ad : ads) {
+            if (ad.isPod()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeAdPods(Writer strings, Writer out, List<Advertisement> ads) {
+        int podCount = 0;
+        for (Advertisement ad : ads) {
+            if (ad.isPod()) {
+                podCount++;
+            }
+        }
+        out.writeVarint(podCount);
+        for (int i = 0; i < ads.size(); i++) {
+            Advertisement ad = ads.get(i);
+            if (!ad.isPod()) {
+                continue;
+            }
+            List<String> requestUrls = ad.getRequestUrls();
+            out.writeVarint(i);
+            out.writeVarint(requestUrls.size());
+            for (String requestUrl : requestUrls) {
+                out.writeVarint(requestUrl == null ? NO_STRING : strings.indexOf(requestUrl) + 1);
+            }
+        }
+    }
+
+    private static List<Advertisement> readAdPods(Reader reader, List<Advertisement> ads)
+            throws JSONException {
+        List<Advertisement> podAds = new ArrayList<>(ads);
+        int podCount = reader.readCount();
+        for (int i = 0; i < podCount; i++) {
+            int index = (int) reader.readVarint();
+            int urlCount = reader.readCount();
+            List<String> requestUrls = new ArrayList<>(urlCount);
+            for (int j = 0; j < urlCount; j++) {
+                int requestUrl = (int) reader.readVarint();
+                requestUrls.add(requestUrl != NO_STRING ? reader.stringAt(requestUrl - 1) : null);
+            }
+            if (index < 0 || index >= podAds.size()) {
+                throw new JSONException("Invalid ad pod index " + index);
+            }
+            podAds.set(index, new Advertisement.Builder(podAds.get(index))
+                    .setRequestUrls(requestUrls)
+                    .build());
+        }
+        return podAds;
+    }
+
+    /**
+     * Writes a value of the typed model, see {@link InternalProviderData#normalizeValue(Object)}.
+     */
+    private static void writeValue(Writer strings, Writer out, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Long || value instanceof Integer) {
+            out.writeByte(TYPE_LONG);
+            out.writeSignedVarint(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.writeByte(TYPE_DOUBLE);
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.writeByte((int) (bits >>> shift));
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TYPE_OBJECT);
+            out.writeVarint(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                out.writeVarint(strings.indexOf((String) entry.getKey()));
+                writeValue(strings, out, entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TYPE_ARRAY);
+            out.writeVarint(list.size());
+            for (Object element : list) {
+                writeValue(strings, out, element);
+            }
+        } else {
+            out.writeByte(TYPE_STRING);
+            out.writeVarint(strings.indexOf(value.toString()));
+        }
+    }
+
+    private static Object readValue(Reader reader) throws JSONException {
+        int type = reader.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return JSONObject.NULL;
+            case TYPE_FALSE:
+                return false;
+            case TYPE_TRUE:
+                return true;
+            case TYPE_LONG:
+                return reader.readSignedVarint();
+            case TYPE_DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | reader.readByte();
+                }
+                return Double.longBitsToDouble(bits);
+            case TYPE_STRING:
+                return reader.readStringRef();
+            case TYPE_OBJECT:
+                LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+                int size = reader.readCount();
+                for (int i = 0; i < size; i++) {
+                    map.put(reader.readStringRef(), readValue(reader));
+                }
+                return map;
+            case TYPE_ARRAY:
+                int count = reader.readCount();
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(reader));
+                }
+                return list;
+            default:
+                throw new JSONException("Unknown internal provider data value type " + type);
+        }
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+        private final List<String> mStrings = new ArrayList<>();
+        private final HashMap<String, Integer> mStringIndices = new HashMap<>();
+
+        int indexOf(String string) {
+            Integer index = mStringIndices.get(string);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(string);
+                mStringIndices.put(string, index);
+            }
+            return index;
+        }
+
+        void writeByte(int value) {
+            write(value & 0xFF);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+        private String[] mStrings;
+
+        Reader(byte[] bytes, int position) {
+            mBytes = bytes;
+            mPosition = position;
+        }
+
+        int readByte() throws JSONException {
+            if (mPosition >= mBytes.length) {
+                throw new JSONException("Truncated internal provider data");
+            }
+            return mBytes[mPosition++] & 0xFF;
+        }
+
+        long readVarint() throws JSONException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JSONException("Malformed varint in internal provider data");
+        }
+
+        long readSignedVarint() throws JSONException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a length or element count, which can never exceed the remaining bytes.
+         */
+        int readCount() throws JSONException {
+            long count = readVarint();
+            if (count > mBytes.length - mPosition) {
+                throw new JSONException("Malformed length in internal provider data");
+            }
+            return (int) count;
+        }
+
+        String readString() throws JSONException {
+            int length = readCount();
+            String string = new String(mBytes, mPosition, length, StandardCharsets.UTF_8);
+            mPosition += length;
+            return string;
+        }
+
+        String readStringRef() throws JSONException {
+            return stringAt(readVarint());
+        }
+
+        String stringAt(long index) throws JSONException {
+            if (index < 0 || index >= mStrings.length) {
+                throw new JSONException("Malformed string reference in internal provider data");
+            }
+            return mStrings[(int) index];
+        }
+    }
+}
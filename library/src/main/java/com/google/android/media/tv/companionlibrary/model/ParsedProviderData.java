@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.model;
+
+/**
+ * The parsed form of an internal provider data blob, cached by the model object that owns the
+ * blob. The blob is matched by reference, so a model object that is given a different blob parses
+ * it again instead of returning stale data.
+ */
+final class ParsedProviderData {
+    private static final ParsedProviderData NONE = new ParsedProviderData(null, null, null);
+
+    private final byte[] mSource;
+    private final InternalProviderData mData;
+    private final String mError;
+
+    private ParsedProviderData(byte[] source, InternalProviderData data, String error) {
+        mSource = source;
+        mData = data;
+        mError = error;
+    }
+
+    /**
+     * Returns {@code cached} if it was parsed from {@code source}, otherwise parses
+     * {@code source}. Parse failures are cached too, so a malformed blob is only parsed once.
+     */
+    static ParsedProviderData get(ParsedProviderData cached, byte[] source) {
+        if (cached != null && cached.mSource == source) {
+            return cached;
+        }
+        if (source == null) {
+            return NONE;
+        }
+        try {
+            InternalProviderData data = new InternalProviderData(source);
+            data.makeReadOnly();
+            return new ParsedProviderData(source, data, null);
+        } catch (InternalProviderData.ParseException e) {
+            return new ParsedProviderData(source, null, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The read-only parsed data, or null if there is no data or it could not be parsed.
+     */
+    InternalProviderData getData() {
+        return mData;
+    }
+
+    /**
+     * @return The parse error message, or null if the data was parsed successfully.
+     */
+    String getError() {
+        return mError;
+    }
+
+    /**
+     * @return A modifiable copy of the parsed data, or null if there is none.
+     */
+    InternalProviderData copyData() {
+        return mData == null ? null : new InternalProviderData(mData);
+    }
+}
@@ -25,6 +25,7 @@ import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
 import com.google.android.media.tv.companionlibrary.utils.CollectionUtils;
+import com.google.android.media.tv.companionlibrary.utils.InternPool;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import java.util.Arrays;
@@ -43,6 +44,7 @@ public final class Program implements Comparable<Program> {
     private static final int INVALID_INT_VALUE = -1;
     private static final int IS_RECORDING_PROHIBITED = 1;
     private static final int IS_SEARCHABLE = 1;
+    private static final Program EMPTY = new Program();
 
     private long mId;
     private long mChannelId;
@@ -62,6 +64,7 @@ public final class Program implements Comparable<Program> {
     private String[] mCanonicalGenres;
     private TvContentRating[] mContentRatings;
     private byte[] mInternalProviderData;
+    private volatile ParsedProviderData mParsedInternalProviderData;
     private String mAudioLanguages;
     private int mRecordingProhibited;
     private int mSearchable;
@@ -166,6 +169,7 @@ public final class Program implements Comparable<Program> {
 
     /**
      * @return The value of {@link TvContract.Programs#COLUMN_BROADCAST_GENRE} for the channel.
+     * The array may be shared with other programs and must not be modified.
      */
     public String[] getBroadcastGenres() {
         return mBroadcastGenres;
@@ -173,6 +177,7 @@ public final class Program implements Comparable<Program> {
 
     /**
      * @return The value of {@link TvContract.Programs#COLUMN_CANONICAL_GENRE} for the channel.
+     * The array may be shared with other programs and must not be modified.
      */
     public String[] getCanonicalGenres() {
         return mCanonicalGenres;
@@ -180,6 +185,7 @@ public final class Program implements Comparable<Program> {
 
     /**
      * @return The value of {@link TvContract.Programs#COLUMN_CONTENT_RATING} for the channel.
+     * The array may be shared with other programs and must not be modified.
      */
     public TvContentRating[] getContentRatings() {
         return mContentRatings;
@@ -208,18 +214,32 @@ public final class Program implements Comparable<Program> {
     }
 
     /**
+     * Returns a new, modifiable copy of the internal provider data on every call.
+     *
      * @return The value of {@link TvContract.Programs#COLUMN_INTERNAL_PROVIDER_DATA} for the
      * channel.
      */
     public InternalProviderData getInternalProviderData() {
-        if (mInternalProviderData != null) {
-            try {
-                return new InternalProviderData(mInternalProviderData);
-            } catch (InternalProviderData.ParseException e) {
-                return null;
-            }
-        }
-        return null;
+        return getParsedInternalProviderData().copyData();
+    }
+
+    /**
+     * Returns the parsed value of {@link TvContract.Programs#COLUMN_INTERNAL_PROVIDER_DATA} for the
+     * program. The data is parsed at most once and the same read-only object is returned on every
+     * call, so this should be preferred over {@link #getInternalProviderData()} when the data is
+     * only read.
+     *
+     * @return The read-only InternalProviderData, or null if there is none or it is malformed.
+     */
+    public InternalProviderData getReadOnlyInternalProviderData() {
+        return getParsedInternalProviderData().getData();
+    }
+
+    private ParsedProviderData getParsedInternalProviderData() {
+        ParsedProviderData parsed = ParsedProviderData.get(mParsedInternalProviderData,
+                mInternalProviderData);
+        mParsedInternalProviderData = parsed;
+        return parsed;
     }
 
     /**
@@ -278,6 +298,8 @@ public final class Program implements Comparable<Program> {
                 && mVideoHeight == program.mVideoHeight
                 && Objects.equals(mPosterArtUri, program.mPosterArtUri)
                 && Objects.equals(mThumbnailUri, program.mThumbnailUri)
+                // Byte for byte, so that rows holding the JSON written by earlier versions differ
+                // from the same data in binary form and are rewritten by the next sync.
                 && Arrays.equals(mInternalProviderData, program.mInternalProviderData)
                 && Arrays.equals(mContentRatings, program.mContentRatings)
                 && Arrays.equals(mCanonicalGenres, program.mCanonicalGenres)
@@ -342,6 +364,7 @@ public final class Program implements Comparable<Program> {
         mSearchable = other.mSearchable;
         mSeasonTitle = other.mSeasonTitle;
         mInternalProviderData = other.mInternalProviderData;
+        mParsedInternalProviderData = other.mParsedInternalProviderData;
     }
 
     /**
@@ -522,10 +545,10 @@ public final class Program implements Comparable<Program> {
             builder.setAudioLanguages(cursor.getString(index));
         }
         if (!cursor.isNull(++index)) {
-            builder.setBroadcastGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
+            builder.setBroadcastGenres(InternPool.getGenres(cursor.getString(index)));
         }
         if (!cursor.isNull(++index)) {
-            builder.setCanonicalGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
+            builder.setCanonicalGenres(InternPool.getGenres(cursor.getString(index)));
         }
         if (!cursor.isNull(++index)) {
             builder.setContentRatings(
@@ -562,6 +585,13 @@ public final class Program implements Comparable<Program> {
         return builder.build();
     }
 
+    private void validate() {
+        if (mStartTimeUtcMillis >= mEndTimeUtcMillis) {
+            throw new IllegalArgumentException("This program must have defined start and end " +
+                    "times");
+        }
+    }
+
     private static String[] getProjection() {
         String[] baseColumns = new String[] {
                 TvContract.Programs._ID,
@@ -904,7 +934,7 @@ public final class Program implements Comparable<Program> {
          */
         public Builder setInternalProviderData(InternalProviderData internalProviderData) {
             if (internalProviderData != null) {
-                mProgram.mInternalProviderData = internalProviderData.toString().getBytes();
+                mProgram.mInternalProviderData = internalProviderData.toByteArray();
             }
             return this;
         }
@@ -963,11 +993,213 @@ public final class Program implements Comparable<Program> {
         public Program build() {
             Program program = new Program();
             program.copyFrom(mProgram);
-            if(mProgram.getStartTimeUtcMillis() >= mProgram.getEndTimeUtcMillis()) {
-                throw new IllegalArgumentException("This program must have defined start and end " +
-                        "times");
+            program.validate();
+            return program;
+        }
+    }
+
+    /**
+     * Reads {@link Program} rows from a cursor. Column indices are resolved once when the mapper
+     * is created, so a single mapper should be used for every row of the same cursor. Genres and
+     * content ratings are taken from {@link InternPool}, as the same few values repeat across most
+     * rows of an EPG.
+     *
+     * @hide
+     */
+    public static final class CursorMapper {
+        private final int mIdIndex;
+        private final int mChannelIdIndex;
+        private final int mTitleIndex;
+        private final int mEpisodeTitleIndex;
+        private final int mSeasonDisplayNumberIndex;
+        private final int mSeasonNumberIndex;
+        private final int mEpisodeDisplayNumberIndex;
+        private final int mEpisodeNumberIndex;
+        private final int mDescriptionIndex;
+        private final int mLongDescriptionIndex;
+        private final int mPosterArtUriIndex;
+        private final int mThumbnailUriIndex;
+        private final int mAudioLanguageIndex;
+        private final int mBroadcastGenreIndex;
+        private final int mCanonicalGenreIndex;
+        private final int mContentRatingIndex;
+        private final int mStartTimeIndex;
+        private final int mEndTimeIndex;
+        private final int mVideoWidthIndex;
+        private final int mVideoHeightIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mSearchableIndex;
+        private final int mSeasonTitleIndex;
+        private final int mRecordingProhibitedIndex;
+
+        /**
+         * Creates a mapper for the columns of the given cursor. Columns missing from the cursor's
+         * projection are left at their default values.
+         *
+         * @param cursor The cursor that will be read.
+         */
+        public CursorMapper(Cursor cursor) {
+            mIdIndex = cursor.getColumnIndex(TvContract.Programs._ID);
+            mChannelIdIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_CHANNEL_ID);
+            mTitleIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_TITLE);
+            mEpisodeTitleIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_EPISODE_TITLE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                mSeasonDisplayNumberIndex =
+                        cursor.getColumnIndex(TvContract.Programs.COLUMN_SEASON_DISPLAY_NUMBER);
+                mEpisodeDisplayNumberIndex =
+                        cursor.getColumnIndex(TvContract.Programs.COLUMN_EPISODE_DISPLAY_NUMBER);
+                mSeasonTitleIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_SEASON_TITLE);
+                mRecordingProhibitedIndex =
+                        cursor.getColumnIndex(TvContract.Programs.COLUMN_RECORDING_PROHIBITED);
+            } else {
+                mSeasonDisplayNumberIndex = -1;
+                mEpisodeDisplayNumberIndex = -1;
+                mSeasonTitleIndex = -1;
+                mRecordingProhibitedIndex = -1;
             }
+            mSeasonNumberIndex = mSeasonDisplayNumberIndex >= 0 ? -1
+                    : cursor.getColumnIndex(TvContract.Programs.COLUMN_SEASON_NUMBER);
+            mEpisodeNumberIndex = mEpisodeDisplayNumberIndex >= 0 ? -1
+                    : cursor.getColumnIndex(TvContract.Programs.COLUMN_EPISODE_NUMBER);
+            mDescriptionIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_SHORT_DESCRIPTION);
+            mLongDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_LONG_DESCRIPTION);
+            mPosterArtUriIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_POSTER_ART_URI);
+            mThumbnailUriIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_THUMBNAIL_URI);
+            mAudioLanguageIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_AUDIO_LANGUAGE);
+            mBroadcastGenreIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_BROADCAST_GENRE);
+            mCanonicalGenreIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_CANONICAL_GENRE);
+            mContentRatingIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_CONTENT_RATING);
+            mStartTimeIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS);
+            mEndTimeIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS);
+            mVideoWidthIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_VIDEO_WIDTH);
+            mVideoHeightIndex = cursor.getColumnIndex(TvContract.Programs.COLUMN_VIDEO_HEIGHT);
+            mInternalProviderDataIndex =
+                    cursor.getColumnIndex(TvContract.Programs.COLUMN_INTERNAL_PROVIDER_DATA);
+            mSearchableIndex = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? cursor.getColumnIndex(TvContract.Programs.COLUMN_SEARCHABLE) : -1;
+        }
+
+        /**
+         * Creates a new {@link Program} from the current row of the cursor.
+         *
+         * @param cursor The cursor this mapper was created for, positioned on a row.
+         * @return A Program with the values taken from the cursor.
+         */
+        public Program read(Cursor cursor) {
+            Program program = new Program();
+            readRow(cursor, program);
+            program.validate();
             return program;
         }
+
+        /**
+         * Reads the current row of the cursor into a reusable holder, overwriting all of its
+         * fields. This avoids allocating a Program per row for passes that only need to inspect
+         * rows, such as searching for the program airing at a given time. The holder must not be
+         * kept or shared; use {@link Builder#Builder(Program)} to keep a copy of a row.
+         *
+         * @param cursor The cursor this mapper was created for, positioned on a row.
+         * @param holder A Program previously returned by {@link #newHolder()}.
+         * @return The holder, for chaining.
+         */
+        public Program readInto(Cursor cursor, Program holder) {
+            holder.copyFrom(EMPTY);
+            readRow(cursor, holder);
+            return holder;
+        }
+
+        /**
+         * @return A new, empty Program to be used with {@link #readInto(Cursor, Program)}.
+         */
+        public Program newHolder() {
+            return new Program();
+        }
+
+        private void readRow(Cursor cursor, Program program) {
+            if (isSet(cursor, mIdIndex)) {
+                program.mId = cursor.getLong(mIdIndex);
+            }
+            if (isSet(cursor, mChannelIdIndex)) {
+                program.mChannelId = cursor.getLong(mChannelIdIndex);
+            }
+            if (isSet(cursor, mTitleIndex)) {
+                program.mTitle = cursor.getString(mTitleIndex);
+            }
+            if (isSet(cursor, mEpisodeTitleIndex)) {
+                program.mEpisodeTitle = cursor.getString(mEpisodeTitleIndex);
+            }
+            if (isSet(cursor, mSeasonDisplayNumberIndex)) {
+                program.mSeasonNumber = cursor.getString(mSeasonDisplayNumberIndex);
+            } else if (isSet(cursor, mSeasonNumberIndex)) {
+                program.mSeasonNumber = String.valueOf(cursor.getInt(mSeasonNumberIndex));
+            }
+            if (isSet(cursor, mEpisodeDisplayNumberIndex)) {
+                program.mEpisodeNumber = cursor.getString(mEpisodeDisplayNumberIndex);
+            } else if (isSet(cursor, mEpisodeNumberIndex)) {
+                program.mEpisodeNumber = String.valueOf(cursor.getInt(mEpisodeNumberIndex));
+            }
+            if (isSet(cursor, mDescriptionIndex)) {
+                program.mDescription = cursor.getString(mDescriptionIndex);
+            }
+            if (isSet(cursor, mLongDescriptionIndex)) {
+                program.mLongDescription = cursor.getString(mLongDescriptionIndex);
+            }
+            if (isSet(cursor, mPosterArtUriIndex)) {
+                program.mPosterArtUri = cursor.getString(mPosterArtUriIndex);
+            }
+            if (isSet(cursor, mThumbnailUriIndex)) {
+                program.mThumbnailUri = cursor.getString(mThumbnailUriIndex);
+            }
+            if (isSet(cursor, mAudioLanguageIndex)) {
+                program.mAudioLanguages = cursor.getString(mAudioLanguageIndex);
+            }
+            if (isSet(cursor, mBroadcastGenreIndex)) {
+                program.mBroadcastGenres =
+                        InternPool.getGenres(cursor.getString(mBroadcastGenreIndex));
+            }
+            if (isSet(cursor, mCanonicalGenreIndex)) {
+                program.mCanonicalGenres =
+                        InternPool.getGenres(cursor.getString(mCanonicalGenreIndex));
+            }
+            if (isSet(cursor, mContentRatingIndex)) {
+                program.mContentRatings =
+                        InternPool.getContentRatings(cursor.getString(mContentRatingIndex));
+            }
+            if (isSet(cursor, mStartTimeIndex)) {
+                program.mStartTimeUtcMillis = cursor.getLong(mStartTimeIndex);
+            }
+            if (isSet(cursor, mEndTimeIndex)) {
+                program.mEndTimeUtcMillis = cursor.getLong(mEndTimeIndex);
+            }
+            if (isSet(cursor, mVideoWidthIndex)) {
+                program.mVideoWidth = (int) cursor.getLong(mVideoWidthIndex);
+            }
+            if (isSet(cursor, mVideoHeightIndex)) {
+                program.mVideoHeight = (int) cursor.getLong(mVideoHeightIndex);
+            }
+            if (isSet(cursor, mInternalProviderDataIndex)) {
+                program.mInternalProviderData = cursor.getBlob(mInternalProviderDataIndex);
+            }
+            if (isSet(cursor, mSearchableIndex)) {
+                program.mSearchable =
+                        cursor.getInt(mSearchableIndex) == IS_SEARCHABLE ? IS_SEARCHABLE : 0;
+            }
+            if (isSet(cursor, mSeasonTitleIndex)) {
+                program.mSeasonTitle = cursor.getString(mSeasonTitleIndex);
+            }
+            if (isSet(cursor, mRecordingProhibitedIndex)) {
+                program.mRecordingProhibited =
+                        cursor.getInt(mRecordingProhibitedIndex) == IS_RECORDING_PROHIBITED
+                                ? IS_RECORDING_PROHIBITED : 0;
+            }
+        }
+
+        private static boolean isSet(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
+        }
     }
 }
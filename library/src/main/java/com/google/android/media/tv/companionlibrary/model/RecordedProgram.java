@@ -24,6 +24,7 @@ import android.media.tv.TvInputService;
 import android.os.Build;
 import android.text.TextUtils;
 
+import com.google.android.media.tv.companionlibrary.utils.InternPool;
 import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import java.util.Objects;
@@ -82,6 +83,7 @@ public class RecordedProgram {
     private int mId;
     private String mInputId;
     private byte[] mInternalProviderData;
+    private volatile ParsedProviderData mParsedInternalProviderData;
     private String mLongDescription;
     private String mPosterArtUri;
     private long mRecordingDataBytes;
@@ -128,6 +130,7 @@ public class RecordedProgram {
         mId = other.mId;
         mInputId = other.mInputId;
         mInternalProviderData = other.mInternalProviderData;
+        mParsedInternalProviderData = other.mParsedInternalProviderData;
         mLongDescription = other.mLongDescription;
         mPosterArtUri = other.mPosterArtUri;
         mRecordingDataBytes = other.mRecordingDataBytes;
@@ -158,6 +161,7 @@ public class RecordedProgram {
     /**
      * @return The value of {@link TvContract.RecordedPrograms#COLUMN_BROADCAST_GENRE} for the
      * RecordedProgram.
+     * The array may be shared with other programs and must not be modified.
      */
     public String[] getBroadcastGenres() {
         return mBroadcastGenres;
@@ -166,6 +170,7 @@ public class RecordedProgram {
     /**
      * @return The value of {@link TvContract.RecordedPrograms#COLUMN_CANONICAL_GENRE} for the
      * RecordedProgram.
+     * The array may be shared with other programs and must not be modified.
      */
     public String[] getCanonicalGenres() {
         return mCanonicalGenres;
@@ -182,6 +187,7 @@ public class RecordedProgram {
     /**
      * @return The value of {@link TvContract.RecordedPrograms#COLUMN_CONTENT_RATING} for the
      * RecordedProgram.
+     * The array may be shared with other programs and must not be modified.
      */
     public TvContentRating[] getContentRatings() {
         return mContentRatings;
@@ -219,18 +225,36 @@ public class RecordedProgram {
     }
 
     /**
+     * Returns a new, modifiable copy of the internal provider data on every call.
+     *
      * @return The value of {@link TvContract.RecordedPrograms#COLUMN_INTERNAL_PROVIDER_DATA} for
      * the RecordedProgram.
      */
     public InternalProviderData getInternalProviderData() {
-        if (mInternalProviderData != null) {
-            try {
-                return new InternalProviderData(mInternalProviderData);
-            } catch (InternalProviderData.ParseException e) {
-                throw new IllegalArgumentException(e.getMessage());
-            }
+        return getParsedInternalProviderData().copyData();
+    }
+
+    /**
+     * Returns the parsed value of
+     * {@link TvContract.RecordedPrograms#COLUMN_INTERNAL_PROVIDER_DATA} for the recorded program.
+     * The data is parsed at most once and the same read-only object is returned on every call, so
+     * this should be preferred over {@link #getInternalProviderData()} when the data is only read.
+     *
+     * @return The read-only InternalProviderData, or null if there is none.
+     * @throws IllegalArgumentException If the data is malformed.
+     */
+    public InternalProviderData getReadOnlyInternalProviderData() {
+        return getParsedInternalProviderData().getData();
+    }
+
+    private ParsedProviderData getParsedInternalProviderData() {
+        ParsedProviderData parsed = ParsedProviderData.get(mParsedInternalProviderData,
+                mInternalProviderData);
+        mParsedInternalProviderData = parsed;
+        if (parsed.getError() != null) {
+            throw new IllegalArgumentException(parsed.getError());
         }
-        return null;
+        return parsed;
     }
 
     /**
@@ -390,10 +414,10 @@ public class RecordedProgram {
     public Program toProgram() {
         Program.Builder builder = new Program.Builder()
                 .setAudioLanguages(getAudioLanguages())
-                .setBroadcastGenres(getBroadcastGenres())
-                .setCanonicalGenres(getCanonicalGenres())
+                .setBroadcastGenres(mBroadcastGenres)
+                .setCanonicalGenres(mCanonicalGenres)
                 .setChannelId(getChannelId())
-                .setContentRatings(getContentRatings())
+                .setContentRatings(mContentRatings)
                 .setDescription(getShortDescription())
                 .setEpisodeTitle(getEpisodeTitle())
                 .setLongDescription(getLongDescription())
@@ -406,7 +430,7 @@ public class RecordedProgram {
                 .setEndTimeUtcMillis(getStartTimeUtcMillis() + getRecordingDurationMillis())
                 .setThumbnailUri(getThumbnailUri())
                 .setTitle(getTitle())
-                .setInternalProviderData(getInternalProviderData());
+                .setInternalProviderData(getReadOnlyInternalProviderData());
         if (getEpisodeDisplayNumber() != null) {
             builder.setEpisodeNumber(getEpisodeDisplayNumber(),
                     Integer.parseInt(getEpisodeDisplayNumber()));
@@ -568,6 +592,16 @@ public class RecordedProgram {
         return values;
     }
 
+    private void validate() {
+        if (mInputId == null) {
+            throw new IllegalArgumentException("This recorded program does not have an Input Id");
+        }
+        if (mRecordingDurationMillis == INVALID_INT_VALUE && mEndTimeUtcMillis > 0) {
+            // Set recording duration based on default properties
+            mRecordingDurationMillis = mEndTimeUtcMillis - mStartTimeUtcMillis;
+        }
+    }
+
     /**
      * Creates a RecordedProgram object from a cursor including the fields defined in
      * {@link TvContract.RecordedPrograms}.
@@ -586,10 +620,10 @@ public class RecordedProgram {
             builder.setAudioLanguages(cursor.getString(index));
         }
         if (!cursor.isNull(++index)) {
-            builder.setBroadcastGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
+            builder.setBroadcastGenres(InternPool.getGenres(cursor.getString(index)));
         }
         if (!cursor.isNull(++index)) {
-            builder.setCanonicalGenres(TvContract.Programs.Genres.decode(cursor.getString(index)));
+            builder.setCanonicalGenres(InternPool.getGenres(cursor.getString(index)));
         }
         if (!cursor.isNull(++index)) {
             builder.setChannelId(cursor.getInt(index));
@@ -704,7 +738,7 @@ public class RecordedProgram {
                         Integer.parseInt(playingProgram.getEpisodeNumber()));
             }
             setEpisodeTitle(playingProgram.getEpisodeTitle());
-            setInternalProviderData(playingProgram.getInternalProviderData());
+            setInternalProviderData(playingProgram.getReadOnlyInternalProviderData());
             setLongDescription(playingProgram.getLongDescription());
             setPosterArtUri(playingProgram.getPosterArtUri());
             setSearchable(playingProgram.isSearchable());
@@ -866,7 +900,7 @@ public class RecordedProgram {
          */
         public Builder setInternalProviderData(InternalProviderData internalProviderData) {
             if (internalProviderData != null) {
-                mRecordedProgram.mInternalProviderData = internalProviderData.toString().getBytes();
+                mRecordedProgram.mInternalProviderData = internalProviderData.toByteArray();
             }
             return this;
         }
@@ -1071,17 +1105,203 @@ public class RecordedProgram {
         public RecordedProgram build() {
             RecordedProgram recordedProgram = new RecordedProgram();
             recordedProgram.copyFrom(mRecordedProgram);
-            if (recordedProgram.getInputId() == null) {
-                throw new IllegalArgumentException("This recorded program does not have an Input Id");
+            recordedProgram.validate();
+            return recordedProgram;
+        }
+    }
+
+    /**
+     * Reads {@link RecordedProgram} rows from a cursor. Column indices are resolved once when the
+     * mapper is created, so a single mapper should be used for every row of the same cursor.
+     *
+     * @hide
+     */
+    public static final class CursorMapper {
+        private final int mIdIndex;
+        private final int mAudioLanguageIndex;
+        private final int mBroadcastGenreIndex;
+        private final int mCanonicalGenreIndex;
+        private final int mChannelIdIndex;
+        private final int mContentRatingIndex;
+        private final int mEndTimeIndex;
+        private final int mEpisodeDisplayNumberIndex;
+        private final int mEpisodeTitleIndex;
+        private final int mInputIdIndex;
+        private final int mInternalProviderDataIndex;
+        private final int mLongDescriptionIndex;
+        private final int mPosterArtUriIndex;
+        private final int mRecordingDataBytesIndex;
+        private final int mRecordingDataUriIndex;
+        private final int mRecordingDurationIndex;
+        private final int mRecordingExpireTimeIndex;
+        private final int mSearchableIndex;
+        private final int mSeasonDisplayNumberIndex;
+        private final int mSeasonTitleIndex;
+        private final int mShortDescriptionIndex;
+        private final int mStartTimeIndex;
+        private final int mThumbnailUriIndex;
+        private final int mTitleIndex;
+        private final int mVersionNumberIndex;
+        private final int mVideoHeightIndex;
+        private final int mVideoWidthIndex;
+
+        /**
+         * Creates a mapper for the columns of the given cursor. Columns missing from the cursor's
+         * projection are left at their default values.
+         *
+         * @param cursor The cursor that will be read.
+         */
+        public CursorMapper(Cursor cursor) {
+            mIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms._ID);
+            mAudioLanguageIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_AUDIO_LANGUAGE);
+            mBroadcastGenreIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_BROADCAST_GENRE);
+            mCanonicalGenreIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CANONICAL_GENRE);
+            mChannelIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CHANNEL_ID);
+            mContentRatingIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_CONTENT_RATING);
+            mEndTimeIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_END_TIME_UTC_MILLIS);
+            mEpisodeDisplayNumberIndex = cursor.getColumnIndex(
+                    TvContract.RecordedPrograms.COLUMN_EPISODE_DISPLAY_NUMBER);
+            mEpisodeTitleIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_EPISODE_TITLE);
+            mInputIdIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_INPUT_ID);
+            mInternalProviderDataIndex = cursor.getColumnIndex(
+                    TvContract.RecordedPrograms.COLUMN_INTERNAL_PROVIDER_DATA);
+            mLongDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_LONG_DESCRIPTION);
+            mPosterArtUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_POSTER_ART_URI);
+            mRecordingDataBytesIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_BYTES);
+            mRecordingDataUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_RECORDING_DATA_URI);
+            mRecordingDurationIndex = cursor.getColumnIndex(
+                    TvContract.RecordedPrograms.COLUMN_RECORDING_DURATION_MILLIS);
+            mRecordingExpireTimeIndex = cursor.getColumnIndex(
+                    TvContract.RecordedPrograms.COLUMN_RECORDING_EXPIRE_TIME_UTC_MILLIS);
+            mSearchableIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SEARCHABLE);
+            mSeasonDisplayNumberIndex = cursor.getColumnIndex(
+                    TvContract.RecordedPrograms.COLUMN_SEASON_DISPLAY_NUMBER);
+            mSeasonTitleIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SEASON_TITLE);
+            mShortDescriptionIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_SHORT_DESCRIPTION);
+            mStartTimeIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_START_TIME_UTC_MILLIS);
+            mThumbnailUriIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_THUMBNAIL_URI);
+            mTitleIndex = cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_TITLE);
+            mVersionNumberIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VERSION_NUMBER);
+            mVideoHeightIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VIDEO_HEIGHT);
+            mVideoWidthIndex =
+                    cursor.getColumnIndex(TvContract.RecordedPrograms.COLUMN_VIDEO_WIDTH);
+        }
+
+        /**
+         * Creates a new {@link RecordedProgram} from the current row of the cursor.
+         *
+         * @param cursor The cursor this mapper was created for, positioned on a row.
+         * @return A RecordedProgram with the values taken from the cursor.
+         */
+        public RecordedProgram read(Cursor cursor) {
+            RecordedProgram program = new RecordedProgram();
+            if (isSet(cursor, mIdIndex)) {
+                program.mId = cursor.getInt(mIdIndex);
             }
-            if (recordedProgram.getRecordingDurationMillis() == INVALID_INT_VALUE
-                    && recordedProgram.getEndTimeUtcMillis() > 0) {
-                // Set recording duration based on default properties
-                recordedProgram.mRecordingDurationMillis =
-                        recordedProgram.getEndTimeUtcMillis()
-                                - recordedProgram.getStartTimeUtcMillis();
+            if (isSet(cursor, mAudioLanguageIndex)) {
+                program.mAudioLanguages = cursor.getString(mAudioLanguageIndex);
             }
-            return recordedProgram;
+            if (isSet(cursor, mBroadcastGenreIndex)) {
+                program.mBroadcastGenres =
+                        InternPool.getGenres(cursor.getString(mBroadcastGenreIndex));
+            }
+            if (isSet(cursor, mCanonicalGenreIndex)) {
+                program.mCanonicalGenres =
+                        InternPool.getGenres(cursor.getString(mCanonicalGenreIndex));
+            }
+            if (isSet(cursor, mChannelIdIndex)) {
+                program.mChannelId = cursor.getLong(mChannelIdIndex);
+            }
+            if (isSet(cursor, mContentRatingIndex)) {
+                program.mContentRatings =
+                        InternPool.getContentRatings(cursor.getString(mContentRatingIndex));
+            }
+            if (isSet(cursor, mEndTimeIndex)) {
+                program.mEndTimeUtcMillis = cursor.getLong(mEndTimeIndex);
+            }
+            if (isSet(cursor, mEpisodeDisplayNumberIndex)) {
+                program.mEpisodeDisplayNumber = cursor.getString(mEpisodeDisplayNumberIndex);
+            }
+            if (isSet(cursor, mEpisodeTitleIndex)) {
+                program.mEpisodeTitle = cursor.getString(mEpisodeTitleIndex);
+            }
+            if (isSet(cursor, mInputIdIndex)) {
+                program.mInputId = cursor.getString(mInputIdIndex);
+            }
+            if (isSet(cursor, mInternalProviderDataIndex)) {
+                program.mInternalProviderData = cursor.getBlob(mInternalProviderDataIndex);
+            }
+            if (isSet(cursor, mLongDescriptionIndex)) {
+                program.mLongDescription = cursor.getString(mLongDescriptionIndex);
+            }
+            if (isSet(cursor, mPosterArtUriIndex)) {
+                program.mPosterArtUri = cursor.getString(mPosterArtUriIndex);
+            }
+            if (isSet(cursor, mRecordingDataBytesIndex)) {
+                program.mRecordingDataBytes = cursor.getLong(mRecordingDataBytesIndex);
+            }
+            if (isSet(cursor, mRecordingDataUriIndex)) {
+                program.mRecordingDataUri = cursor.getString(mRecordingDataUriIndex);
+            }
+            if (isSet(cursor, mRecordingDurationIndex)) {
+                program.mRecordingDurationMillis = cursor.getLong(mRecordingDurationIndex);
+            }
+            if (isSet(cursor, mRecordingExpireTimeIndex)) {
+                program.mRecordingExpireTimeUtcMillis = cursor.getLong(mRecordingExpireTimeIndex);
+            }
+            if (isSet(cursor, mSearchableIndex)) {
+                program.mSearchable =
+                        cursor.getInt(mSearchableIndex) == IS_SEARCHABLE ? IS_SEARCHABLE : 0;
+            }
+            if (isSet(cursor, mSeasonDisplayNumberIndex)) {
+                program.mSeasonDisplayNumber = cursor.getString(mSeasonDisplayNumberIndex);
+            }
+            if (isSet(cursor, mSeasonTitleIndex)) {
+                program.mSeasonTitle = cursor.getString(mSeasonTitleIndex);
+            }
+            if (isSet(cursor, mShortDescriptionIndex)) {
+                program.mShortDescription = cursor.getString(mShortDescriptionIndex);
+            }
+            if (isSet(cursor, mStartTimeIndex)) {
+                program.mStartTimeUtcMillis = cursor.getLong(mStartTimeIndex);
+            }
+            if (isSet(cursor, mThumbnailUriIndex)) {
+                program.mThumbnailUri = cursor.getString(mThumbnailUriIndex);
+            }
+            if (isSet(cursor, mTitleIndex)) {
+                program.mTitle = cursor.getString(mTitleIndex);
+            }
+            if (isSet(cursor, mVersionNumberIndex)) {
+                program.mVersionNumber = cursor.getInt(mVersionNumberIndex);
+            }
+            if (isSet(cursor, mVideoHeightIndex)) {
+                program.mVideoHeight = cursor.getInt(mVideoHeightIndex);
+            }
+            if (isSet(cursor, mVideoWidthIndex)) {
+                program.mVideoWidth = cursor.getInt(mVideoWidthIndex);
+            }
+            program.validate();
+            return program;
+        }
+
+        private static boolean isSet(Cursor cursor, int index) {
+            return index >= 0 && !cursor.isNull(index);
         }
     }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches VAST responses and the ad video URLs resolved from them by ad tag URL, so that ad
+ * breaks that reuse an ad tag can start without going to the ad server.
+ * <p>
+ * Ad tags usually carry a cache-busting parameter such as {@code correlator} that changes with
+ * every request, so these parameters are left out of the cache key. Entries expire after a
+ * configurable time to live, after which the ad server is asked again.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class AdResponseCache {
+    /** The default time an entry is used for, in milliseconds. */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+    private static final int MAX_ENTRIES = 32;
+    private static final List<String> CACHE_BUSTING_PARAMETERS =
+            Arrays.asList("correlator", "ord", "cb");
+
+    // Least recently used first
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mTtlMillis = DEFAULT_TTL_MILLIS;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Sets how long a response is used for after it is stored. Entries stored before keep their
+     * expiry time.
+     *
+     * @param ttlMillis The time to live in milliseconds, or 0 to disable the cache.
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached VAST response of an ad tag, and counts a hit or a miss.
+     *
+     * @param adTagUrl The URL of the ad tag.
+     * @param timeMs The current time in milliseconds since the epoch.
+     * @return The VAST response, or null if it is not cached or has expired.
+     */
+    public synchronized String getResponse(String adTagUrl, long timeMs) {
+        Entry entry = getEntry(adTagUrl, timeMs);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.mResponse;
+    }
+
+    /**
+     * @return The ad video URL last resolved from the cached response of an ad tag, or null if
+     * there is none.
+     */
+    public synchronized String getAdVideoUrl(String adTagUrl, long timeMs) {
+        Entry entry = getEntry(adTagUrl, timeMs);
+        return entry == null ? null : entry.mAdVideoUrl;
+    }
+
+    /**
+     * Stores the VAST response of an ad tag.
+     *
+     * @param adTagUrl The URL of the ad tag.
+     * @param response The VAST response.
+     * @param timeMs The current time in milliseconds since the epoch.
+     */
+    public synchronized void putResponse(String adTagUrl, String response, long timeMs) {
+        if (mTtlMillis <= 0) {
+            return;
+        }
+        mEntries.put(getCacheKey(adTagUrl), new Entry(response, timeMs + mTtlMillis));
+        if (mEntries.size() > MAX_ENTRIES) {
+            mEntries.remove(mEntries.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Stores the ad video URL resolved from the cached response of an ad tag. Nothing is
+     * stored if the response is not cached.
+     */
+    public synchronized void putAdVideoUrl(String adTagUrl, String adVideoUrl, long timeMs) {
+        Entry entry = getEntry(adTagUrl, timeMs);
+        if (entry != null) {
+            entry.mAdVideoUrl = adVideoUrl;
+        }
+    }
+
+    /**
+     * @return The number of {@link #getResponse} calls that found a response.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of {@link #getResponse} calls that did not find a response.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Removes every entry. The counters are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private Entry getEntry(String adTagUrl, long timeMs) {
+        String key = getCacheKey(adTagUrl);
+        Entry entry = mEntries.get(key);
+        if (entry != null && timeMs >= entry.mExpiryTimeMs) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return The ad tag URL without its cache-busting parameters.
+     */
+    static String getCacheKey(String adTagUrl) {
+        Uri uri = Uri.parse(adTagUrl);
+        if (uri.isOpaque() || uri.getQuery() == null) {
+            return adTagUrl;
+        }
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (CACHE_BUSTING_PARAMETERS.contains(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    private static final class Entry {
+        private final String mResponse;
+        private final long mExpiryTimeMs;
+        private String mAdVideoUrl;
+
+        private Entry(String response, long expiryTimeMs) {
+            mResponse = response;
+            mExpiryTimeMs = expiryTimeMs;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable timeline of the ad breaks of one program, which maps between the three clocks a
+ * session uses in O(log n):
+ * <ul>
+ * <li>wall-clock time, at which the schedule says content and ads air;</li>
+ * <li>time-shift position, which is the wall-clock time that is being played;</li>
+ * <li>content position, which is the position in the program's media and does not advance
+ * while an ad plays.</li>
+ * </ul>
+ * Since wall-clock times and time-shift positions are on the same clock, both are called times
+ * below.
+ *
+ * @hide
+ */
+public final class AdTimeline {
+    /** A timeline without any ads. */
+    public static final AdTimeline EMPTY = new AdTimeline(0, null);
+
+    private static final Comparator<Advertisement> STOP_TIME_ORDER =
+            new Comparator<Advertisement>() {
+        @Override
+        public int compare(Advertisement lhs, Advertisement rhs) {
+            return Long.compare(lhs.getStopTimeUtcMillis(), rhs.getStopTimeUtcMillis());
+        }
+    };
+
+    private final long mProgramStartTimeMs;
+    // Ads in start time order
+    private final Advertisement[] mAds;
+    // For each ad in mAds, the latest stop time of it and every ad before it. This never
+    // decreases, so it can be binary searched even if ads overlap.
+    private final long[] mMaxStopTimesMs;
+    // For each ad in mAds, the content position at which it starts. This never decreases as long
+    // as ad breaks do not overlap, which the schedule of a single program guarantees.
+    private final long[] mContentStartPositionsMs;
+    // mStartOrderAdDurationsMs[i] is the total duration of mAds[0..i).
+    private final long[] mStartOrderAdDurationsMs;
+    // Stop times in increasing order
+    private final long[] mStopTimesMs;
+    // mStopOrderAdDurationsMs[i] is the total duration of the ads stopping at mStopTimesMs[0..i).
+    private final long[] mStopOrderAdDurationsMs;
+
+    /**
+     * @param programStartTimeMs The start time of the program, in milliseconds since the epoch.
+     * @param ads The ads of the program in any order. May be null.
+     */
+    public AdTimeline(long programStartTimeMs, List<Advertisement> ads) {
+        mProgramStartTimeMs = programStartTimeMs;
+        int size = ads == null ? 0 : ads.size();
+        mAds = size == 0 ? new Advertisement[0] : ads.toArray(new Advertisement[size]);
+        Arrays.sort(mAds);
+
+        mMaxStopTimesMs = new long[size];
+        mContentStartPositionsMs = new long[size];
+        mStartOrderAdDurationsMs = new long[size + 1];
+        long maxStopTimeMs = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            Advertisement ad = mAds[i];
+            maxStopTimeMs = Math.max(maxStopTimeMs, ad.getStopTimeUtcMillis());
+            mMaxStopTimesMs[i] = maxStopTimeMs;
+            mContentStartPositionsMs[i] = ad.getStartTimeUtcMillis() - programStartTimeMs
+                    - mStartOrderAdDurationsMs[i];
+            mStartOrderAdDurationsMs[i + 1] = mStartOrderAdDurationsMs[i] + getDuration(ad);
+        }
+
+        Advertisement[] stopOrder = mAds.clone();
+        Arrays.sort(stopOrder, STOP_TIME_ORDER);
+        mStopTimesMs = new long[size];
+        mStopOrderAdDurationsMs = new long[size + 1];
+        for (int i = 0; i < size; i++) {
+            mStopTimesMs[i] = stopOrder[i].getStopTimeUtcMillis();
+            mStopOrderAdDurationsMs[i + 1] = mStopOrderAdDurationsMs[i] + getDuration(stopOrder[i]);
+        }
+    }
+
+    /**
+     * @return The number of ads in this timeline.
+     */
+    public int size() {
+        return mAds.length;
+    }
+
+    /**
+     * @return The ad that starts first among the ads that have not stopped at {@code timeMs}, or
+     * null if every ad has stopped. The ad may already have started.
+     */
+    public Advertisement getNextAd(long timeMs) {
+        // The first ad in start time order whose stop time is after timeMs.
+        int index = upperBound(mMaxStopTimesMs, timeMs);
+        return index < mAds.length ? mAds[index] : null;
+    }
+
+    /**
+     * @return The total duration of the ads that stop before {@code timeMs}.
+     */
+    public long getAdDurationBefore(long timeMs) {
+        return mStopOrderAdDurationsMs[lowerBound(mStopTimesMs, timeMs)];
+    }
+
+    /**
+     * @return The total duration of the ads that start before the content reaches
+     * {@code positionMs}.
+     */
+    public long getAdDurationBeforeContentPosition(long positionMs) {
+        return mStartOrderAdDurationsMs[lowerBound(mContentStartPositionsMs, positionMs)];
+    }
+
+    /**
+     * @return The content position that plays at {@code timeMs}, counting only the ads that
+     * stopped before it.
+     */
+    public long getContentPosition(long timeMs) {
+        return timeMs - mProgramStartTimeMs - getAdDurationBefore(timeMs);
+    }
+
+    /**
+     * @return The time at which the content reaches {@code positionMs}, after every ad that
+     * starts before it.
+     */
+    public long getTimeShiftPosition(long positionMs) {
+        return mProgramStartTimeMs + positionMs + getAdDurationBeforeContentPosition(positionMs);
+    }
+
+    private static long getDuration(Advertisement ad) {
+        return ad.getStopTimeUtcMillis() - ad.getStartTimeUtcMillis();
+    }
+
+    /** Returns the index of the first value that is not less than {@code key}. */
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Returns the index of the first value that is greater than {@code key}. */
+    private static int upperBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
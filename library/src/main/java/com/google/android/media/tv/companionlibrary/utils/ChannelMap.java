@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Channel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the channels of one TV input. Channels can be looked up by id in
+ * O(log n) and by display number in O(1), and are also available in channel number order.
+ * <p>
+ * A snapshot never changes once it is built, so it can be read from any thread without locking.
+ * Updates produce a new snapshot, which is published by replacing the reference to the old one.
+ *
+ * @hide
+ */
+public final class ChannelMap {
+    /** A snapshot without any channels. */
+    public static final ChannelMap EMPTY = new ChannelMap(null);
+
+    private static final Comparator<Channel> DISPLAY_NUMBER_ORDER = new Comparator<Channel>() {
+        @Override
+        public int compare(Channel lhs, Channel rhs) {
+            int result = compareDisplayNumbers(lhs.getDisplayNumber(), rhs.getDisplayNumber());
+            return result != 0 ? result : Long.compare(lhs.getId(), rhs.getId());
+        }
+    };
+
+    private final long[] mIds;
+    private final Channel[] mChannels;
+    // For each channel in mChannels, its position in mChannelsByDisplayNumber
+    private final int[] mDisplayOrder;
+    private final List<Channel> mChannelsByDisplayNumber;
+    private final Map<String, Channel> mDisplayNumberMap;
+
+    /**
+     * Creates a snapshot of the given channels.
+     *
+     * @param channels The channels keyed by id, as returned by
+     *        {@link TvContractUtils#buildChannelMap}. May be null. Later changes to it do not
+     *        affect the snapshot.
+     */
+    public ChannelMap(LongSparseArray<Channel> channels) {
+        int size = channels == null ? 0 : channels.size();
+        // LongSparseArray keeps its keys sorted, so they can be binary searched as they are.
+        mIds = new long[size];
+        mChannels = new Channel[size];
+        for (int i = 0; i < size; i++) {
+            mIds[i] = channels.keyAt(i);
+            mChannels[i] = channels.valueAt(i);
+        }
+
+        Channel[] sorted = mChannels.clone();
+        Arrays.sort(sorted, DISPLAY_NUMBER_ORDER);
+        mChannelsByDisplayNumber = Collections.unmodifiableList(Arrays.asList(sorted));
+        mDisplayOrder = new int[size];
+        mDisplayNumberMap = new HashMap<>(size * 4 / 3 + 1);
+        for (int position = 0; position < size; position++) {
+            Channel channel = sorted[position];
+            mDisplayOrder[Arrays.binarySearch(mIds, channel.getId())] = position;
+            String displayNumber = channel.getDisplayNumber();
+            if (displayNumber != null && !mDisplayNumberMap.containsKey(displayNumber)) {
+                mDisplayNumberMap.put(displayNumber, channel);
+            }
+        }
+    }
+
+    /**
+     * @return The channel with the given id, or null if there is no such channel.
+     */
+    public Channel get(long channelId) {
+        int index = Arrays.binarySearch(mIds, channelId);
+        return index >= 0 ? mChannels[index] : null;
+    }
+
+    /**
+     * @return The channel with the given display number, or null if there is no such channel. If
+     * several channels share the number, the one with the lowest id is returned.
+     */
+    public Channel getByDisplayNumber(String displayNumber) {
+        return mDisplayNumberMap.get(displayNumber);
+    }
+
+    /**
+     * @return The number of channels in this snapshot.
+     */
+    public int size() {
+        return mChannels.length;
+    }
+
+    /**
+     * @return Whether this snapshot has no channels.
+     */
+    public boolean isEmpty() {
+        return mChannels.length == 0;
+    }
+
+    /**
+     * @return An unmodifiable list of the channels, ordered by display number the way a channel
+     * guide lists them.
+     */
+    public List<Channel> getChannelsByDisplayNumber() {
+        return mChannelsByDisplayNumber;
+    }
+
+    /**
+     * Returns the channels that come before and after a channel in display number order, the way
+     * channel up and down move through them. The order wraps around at either end.
+     *
+     * @param channelId The id of the channel.
+     * @param count How many channels to return on each side.
+     * @return The neighbouring channels, nearest first, alternating between the next and the
+     * previous channel. The list is empty if the channel is not in this snapshot.
+     */
+    public List<Channel> getAdjacentChannels(long channelId, int count) {
+        int index = Arrays.binarySearch(mIds, channelId);
+        if (index < 0 || count <= 0) {
+            return Collections.emptyList();
+        }
+        int size = mChannels.length;
+        int position = mDisplayOrder[index];
+        // Every channel other than the given one, at most.
+        int resultSize = Math.min(2 * count, size - 1);
+        List<Channel> channels = new ArrayList<>(resultSize);
+        for (int distance = 1; channels.size() < resultSize; distance++) {
+            channels.add(mChannelsByDisplayNumber.get((position + distance) % size));
+            if (channels.size() < resultSize) {
+                channels.add(mChannelsByDisplayNumber.get(
+                        ((position - distance) % size + size) % size));
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Returns a new snapshot with the given channels replaced, added or removed. This snapshot is
+     * not changed.
+     *
+     * @param channelIds The ids of every channel that changed.
+     * @param changedChannels The current rows of the changed channels. Channels listed in
+     *        {@code channelIds} but missing here are removed.
+     * @return The updated snapshot.
+     */
+    public ChannelMap update(long[] channelIds, LongSparseArray<Channel> changedChannels) {
+        LongSparseArray<Channel> channels = toLongSparseArray();
+        for (long channelId : channelIds) {
+            Channel channel = changedChannels.get(channelId);
+            if (channel != null) {
+                channels.put(channelId, channel);
+            } else {
+                channels.remove(channelId);
+            }
+        }
+        return new ChannelMap(channels);
+    }
+
+    /**
+     * @return A modifiable copy of the channels keyed by id.
+     */
+    public LongSparseArray<Channel> toLongSparseArray() {
+        LongSparseArray<Channel> channels = new LongSparseArray<>(mChannels.length);
+        for (int i = 0; i < mChannels.length; i++) {
+            // Keys are already sorted, so append does not need to search.
+            channels.append(mIds[i], mChannels[i]);
+        }
+        return channels;
+    }
+
+    /**
+     * Compares display numbers such as "7", "7-1" and "12.2" part by part, numerically where the
+     * parts are numbers, so that "9" sorts before "10" and "7-2" before "7-10".
+     */
+    static int compareDisplayNumbers(String lhs, String rhs) {
+        if (lhs == null || rhs == null) {
+            return lhs == null ? (rhs == null ? 0 : 1) : -1;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < lhs.length() && j < rhs.length()) {
+            char a = lhs.charAt(i);
+            char b = rhs.charAt(j);
+            if (Character.isDigit(a) && Character.isDigit(b)) {
+                int endA = skipDigits(lhs, i);
+                int endB = skipDigits(rhs, j);
+                long numberA = parseNumber(lhs, i, endA);
+                long numberB = parseNumber(rhs, j, endB);
+                if (numberA != numberB) {
+                    return numberA < numberB ? -1 : 1;
+                }
+                i = endA;
+                j = endB;
+            } else {
+                if (a != b) {
+                    return a < b ? -1 : 1;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (lhs.length() - i) - (rhs.length() - j);
+    }
+
+    private static int skipDigits(String value, int start) {
+        int end = start;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static long parseNumber(String value, int start, int end) {
+        long number = 0;
+        for (int i = start; i < end && number < Long.MAX_VALUE / 10; i++) {
+            number = number * 10 + Character.digit(value.charAt(i), 10);
+        }
+        return number;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Channel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persists {@link ChannelMap} snapshots so that a TV input service can serve its first tune
+ * right after a cold start, without waiting for a query to the TV provider. The snapshot is only
+ * a starting point and is replaced by the provider's data as soon as that has been read.
+ * <p>
+ * Each channel is stored as the columns of {@link Channel#PROJECTION} and read back through
+ * {@link Channel.CursorMapper}, so a snapshot contains exactly what a provider query would
+ * return. Column names are stored too, so a snapshot written with a different projection can
+ * still be read.
+ *
+ * @hide
+ */
+public final class ChannelMapStore {
+    private static final String TAG = "ChannelMapStore";
+
+    private static final int MAGIC = 0x43484d53; // "CHMS"
+    private static final int VERSION = 1;
+    private static final String FILE_PREFIX = "channel_map_";
+    private static final int MAX_BLOB_LENGTH = 1024 * 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_STRING = 2;
+    private static final byte TYPE_BLOB = 3;
+
+    private ChannelMapStore() {
+    }
+
+    /**
+     * Writes the channels of a TV input, replacing any earlier snapshot. Performs disk I/O, so it
+     * must not be called on the main thread.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input the channels belong to.
+     * @param channelMap The channels to write.
+     * @return Whether the snapshot was written.
+     */
+    public static boolean write(Context context, String inputId, ChannelMap channelMap) {
+        AtomicFile file = getFile(context, inputId);
+        FileOutputStream fileStream = null;
+        try {
+            fileStream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            String[] columns = Channel.PROJECTION;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(inputId);
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            List<Channel> channels = channelMap.getChannelsByDisplayNumber();
+            out.writeInt(channels.size());
+            for (Channel channel : channels) {
+                ContentValues values = channel.toContentValues();
+                for (String column : columns) {
+                    writeValue(out, values.get(column));
+                }
+            }
+            out.flush();
+            file.finishWrite(fileStream);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write channel snapshot for " + inputId, e);
+            if (fileStream != null) {
+                file.failWrite(fileStream);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads the channels written by {@link #write} for a TV input.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input.
+     * @return The channels, or null if there is no snapshot or it could not be read.
+     */
+    public static ChannelMap read(Context context, String inputId) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    getFile(context, inputId).openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !inputId.equals(in.readUTF())) {
+                return null;
+            }
+            String[] columns = new String[in.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = in.readUTF();
+            }
+            int rowCount = in.readInt();
+            MatrixCursor cursor = new MatrixCursor(columns, rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                Object[] row = new Object[columns.length];
+                for (int j = 0; j < columns.length; j++) {
+                    row[j] = readValue(in);
+                }
+                cursor.addRow(row);
+            }
+
+            LongSparseArray<Channel> channels = new LongSparseArray<>(rowCount);
+            Channel.CursorMapper mapper = new Channel.CursorMapper(cursor);
+            while (cursor.moveToNext()) {
+                Channel channel = mapper.read(cursor);
+                channels.put(channel.getId(), channel);
+            }
+            return new ChannelMap(channels);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Ignoring unreadable channel snapshot for " + inputId, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshot of a TV input, if there is one.
+     */
+    public static void delete(Context context, String inputId) {
+        getFile(context, inputId).delete();
+    }
+
+    private static AtomicFile getFile(Context context, String inputId) {
+        // Input ids contain a component name, so characters that are not safe in file names are
+        // replaced.
+        String name = FILE_PREFIX + inputId.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new AtomicFile(new File(context.getNoBackupFilesDir(), name));
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof byte[]) {
+            byte[] blob = (byte[]) value;
+            out.writeByte(TYPE_BLOB);
+            out.writeInt(blob.length);
+            out.write(blob);
+        } else if (value instanceof Number) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_BLOB:
+                int length = in.readInt();
+                if (length < 0 || length > MAX_BLOB_LENGTH) {
+                    throw new IOException("Invalid blob length " + length);
+                }
+                byte[] blob = new byte[length];
+                in.readFully(blob);
+                return blob;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.media.tv.TvContentRating;
+import android.media.tv.TvContract;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A process-wide pool of canonical instances for values that repeat across an EPG, such as content
+ * ratings, genres and URLs. A schedule with hundreds of thousands of programs typically only uses
+ * a few dozen distinct ratings and genres, so decoding each of them once and sharing the result
+ * keeps the number of live objects proportional to the number of distinct values rather than to
+ * the number of programs.
+ * <p>
+ * Arrays returned by this class are shared between every caller that asked for the same value
+ * and must not be modified.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class InternPool {
+    private static final int MAX_POOLED_STRINGS = 2048;
+    private static final int MAX_POOLED_VALUES = 256;
+    private static final char RATING_DELIMITER = ',';
+    private static final String[] NO_GENRES = new String[0];
+
+    private static final LruCache<String, String> sStrings = new LruCache<>(MAX_POOLED_STRINGS);
+    private static final LruCache<String, TvContentRating> sContentRatings =
+            new LruCache<>(MAX_POOLED_VALUES);
+    private static final LruCache<String, TvContentRating[]> sContentRatingArrays =
+            new LruCache<>(MAX_POOLED_VALUES);
+    private static final LruCache<String, String[]> sGenreArrays =
+            new LruCache<>(MAX_POOLED_VALUES);
+
+    private InternPool() {
+    }
+
+    /**
+     * Returns the canonical instance of a string. This is meant for values that repeat across
+     * many programs, such as URLs, genres and categories.
+     *
+     * @param value The string to intern. May be null.
+     * @return A string equal to {@code value}, or null if {@code value} is null.
+     */
+    public static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        synchronized (sStrings) {
+            String canonical = sStrings.get(value);
+            if (canonical == null) {
+                sStrings.put(value, value);
+                canonical = value;
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * Returns the canonical {@link TvContentRating} for a flattened rating string.
+     *
+     * @param flattenedRating A rating as returned by {@link TvContentRating#flattenToString()}.
+     *         May be null.
+     * @return The canonical TvContentRating for the given string, or null if it is null.
+     */
+    public static TvContentRating getContentRating(String flattenedRating) {
+        if (flattenedRating == null) {
+            return null;
+        }
+        TvContentRating rating = sContentRatings.get(flattenedRating);
+        if (rating == null) {
+            rating = TvContentRating.unflattenFromString(flattenedRating);
+            sContentRatings.put(flattenedRating, rating);
+        }
+        return rating;
+    }
+
+    /**
+     * Decodes a string of comma-separated ratings into a shared array of canonical
+     * {@link TvContentRating} instances.
+     *
+     * @param commaSeparatedRatings String containing various ratings, separated by commas.
+     * @return A shared array of TvContentRatings, or null if the string is empty.
+     */
+    public static TvContentRating[] getContentRatings(String commaSeparatedRatings) {
+        if (TextUtils.isEmpty(commaSeparatedRatings)) {
+            return null;
+        }
+        TvContentRating[] ratings = sContentRatingArrays.get(commaSeparatedRatings);
+        if (ratings == null) {
+            List<String> flattenedRatings = splitRatings(commaSeparatedRatings);
+            ratings = new TvContentRating[flattenedRatings.size()];
+            for (int i = 0; i < ratings.length; ++i) {
+                ratings[i] = getContentRating(flattenedRatings.get(i));
+            }
+            sContentRatingArrays.put(commaSeparatedRatings, ratings);
+        }
+        return ratings;
+    }
+
+    /**
+     * Returns a shared array equal to the given ratings, made of canonical instances.
+     *
+     * @param ratings The ratings to intern. May be null.
+     * @return A shared array with the same ratings, or null if {@code ratings} is null.
+     */
+    public static TvContentRating[] internContentRatings(TvContentRating[] ratings) {
+        if (ratings == null) {
+            return null;
+        }
+        if (ratings.length == 0) {
+            return ratings;
+        }
+        return getContentRatings(TvContractUtils.contentRatingsToString(ratings));
+    }
+
+    /**
+     * Decodes a genre string from {@link TvContract.Programs.Genres#encode(String...)} into a
+     * shared array of interned genres.
+     *
+     * @param encodedGenres The encoded genre string. May be null.
+     * @return A shared array of genres, which is empty if the string is null or empty.
+     */
+    public static String[] getGenres(String encodedGenres) {
+        if (TextUtils.isEmpty(encodedGenres)) {
+            return NO_GENRES;
+        }
+        String[] genres = sGenreArrays.get(encodedGenres);
+        if (genres == null) {
+            genres = TvContract.Programs.Genres.decode(encodedGenres);
+            for (int i = 0; i < genres.length; ++i) {
+                genres[i] = intern(genres[i]);
+            }
+            sGenreArrays.put(encodedGenres, genres);
+        }
+        return genres;
+    }
+
+    /**
+     * Returns a shared array equal to the given genres, made of interned strings.
+     *
+     * @param genres The genres to intern. May be null.
+     * @return A shared array with the same genres, or null if {@code genres} is null.
+     */
+    public static String[] internGenres(String[] genres) {
+        if (genres == null || genres.length == 0) {
+            return genres;
+        }
+        return getGenres(TvContract.Programs.Genres.encode(genres));
+    }
+
+    /**
+     * Drops every pooled value. Values already handed out stay valid.
+     */
+    public static void clear() {
+        sStrings.evictAll();
+        sContentRatings.evictAll();
+        sContentRatingArrays.evictAll();
+        sGenreArrays.evictAll();
+    }
+
+    /**
+     * Splits on commas and trims surrounding whitespace without going through a regular
+     * expression, which would be compiled again on every call.
+     */
+    private static List<String> splitRatings(String commaSeparatedRatings) {
+        List<String> ratings = new ArrayList<>();
+        int start = 0;
+        int length = commaSeparatedRatings.length();
+        while (start <= length) {
+            int end = commaSeparatedRatings.indexOf(RATING_DELIMITER, start);
+            if (end < 0) {
+                end = length;
+            }
+            String rating = commaSeparatedRatings.substring(start, end).trim();
+            if (!rating.isEmpty()) {
+                ratings.add(rating);
+            }
+            start = end + 1;
+        }
+        return ratings;
+    }
+}
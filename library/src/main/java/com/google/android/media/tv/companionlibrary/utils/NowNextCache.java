@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Caches the current and upcoming programs of a few channels, so that tuning to one of them can
+ * start playback without querying the TV provider, and the programs that follow can be queued
+ * on the player. Entries are refreshed by the owner when {@link #needsRefresh} says so, which is
+ * at the end of the cached current program.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class NowNextCache {
+    /** How long to trust an entry for a channel that had no current or next program. */
+    private static final long EMPTY_ENTRY_TTL_MILLIS = 5 * 60 * 1000;
+    /** The most programs kept per channel, counting the current one. */
+    private static final int MAX_PROGRAMS_PER_CHANNEL = 8;
+
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+
+    /**
+     * Stores the current and upcoming programs of a channel.
+     *
+     * @param channelId The id of the channel.
+     * @param programs The programs of the channel around {@code timeMs}, in chronological order.
+     * @param timeMs The time the programs were read, in milliseconds since the epoch.
+     */
+    public void put(long channelId, List<Program> programs, long timeMs) {
+        List<Program> upcoming = new ArrayList<>();
+        for (Program program : programs) {
+            if (program.getEndTimeUtcMillis() > timeMs) {
+                upcoming.add(program);
+                if (upcoming.size() == MAX_PROGRAMS_PER_CHANNEL) {
+                    break;
+                }
+            }
+        }
+        long refreshTimeMs;
+        if (upcoming.isEmpty()) {
+            refreshTimeMs = timeMs + EMPTY_ENTRY_TTL_MILLIS;
+        } else if (upcoming.get(0).getStartTimeUtcMillis() <= timeMs) {
+            refreshTimeMs = upcoming.get(0).getEndTimeUtcMillis();
+        } else {
+            refreshTimeMs = upcoming.get(0).getStartTimeUtcMillis();
+        }
+        synchronized (mEntries) {
+            mEntries.put(channelId, new Entry(
+                    upcoming.toArray(new Program[upcoming.size()]), refreshTimeMs));
+        }
+    }
+
+    /**
+     * @return The cached program of the channel that is playing at {@code timeMs}, or null if it
+     * is not cached.
+     */
+    public Program get(long channelId, long timeMs) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(channelId);
+        }
+        if (entry == null) {
+            return null;
+        }
+        for (Program program : entry.mPrograms) {
+            if (isPlaying(program, timeMs)) {
+                return program;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached programs that follow a program back to back, i.e. each one starts when
+     * the one before it ends, so that they can be played without a gap.
+     *
+     * @param channelId The id of the channel.
+     * @param program A program of the channel.
+     * @param maxCount The most programs to return.
+     * @return The following programs in order. This list is empty if {@code program} is not
+     * cached or the next program does not start when it ends.
+     */
+    public List<Program> getFollowingPrograms(long channelId, Program program, int maxCount) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(channelId);
+        }
+        if (entry == null || program == null) {
+            return Collections.emptyList();
+        }
+        List<Program> following = new ArrayList<>();
+        Program previous = null;
+        for (Program cached : entry.mPrograms) {
+            if (previous == null) {
+                if (cached.equals(program)) {
+                    previous = cached;
+                }
+            } else if (following.size() < maxCount
+                    && cached.getStartTimeUtcMillis() == previous.getEndTimeUtcMillis()) {
+                following.add(cached);
+                previous = cached;
+            } else {
+                break;
+            }
+        }
+        return following;
+    }
+
+    /**
+     * @return Whether the channel is not cached or its entry is out of date at {@code timeMs}.
+     */
+    public boolean needsRefresh(long channelId, long timeMs) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(channelId);
+            return entry == null || timeMs >= entry.mRefreshTimeMs;
+        }
+    }
+
+    /**
+     * @return The earliest time at which an entry needs to be refreshed, or
+     * {@link Long#MAX_VALUE} if the cache is empty.
+     */
+    public long getNextRefreshTimeMs() {
+        long refreshTimeMs = Long.MAX_VALUE;
+        synchronized (mEntries) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                refreshTimeMs = Math.min(refreshTimeMs, mEntries.valueAt(i).mRefreshTimeMs);
+            }
+        }
+        return refreshTimeMs;
+    }
+
+    /**
+     * Removes every channel that is not in {@code channelIds}.
+     */
+    public void retain(long[] channelIds) {
+        long[] sortedIds = channelIds.clone();
+        Arrays.sort(sortedIds);
+        synchronized (mEntries) {
+            for (int i = mEntries.size() - 1; i >= 0; i--) {
+                if (Arrays.binarySearch(sortedIds, mEntries.keyAt(i)) < 0) {
+                    mEntries.removeAt(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every channel.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    private static boolean isPlaying(Program program, long timeMs) {
+        return program != null && program.getStartTimeUtcMillis() <= timeMs
+                && program.getEndTimeUtcMillis() > timeMs;
+    }
+
+    private static final class Entry {
+        private final Program[] mPrograms;
+        private final long mRefreshTimeMs;
+
+        private Entry(Program[] programs, long refreshTimeMs) {
+            mPrograms = programs;
+            mRefreshTimeMs = refreshTimeMs;
+        }
+    }
+}
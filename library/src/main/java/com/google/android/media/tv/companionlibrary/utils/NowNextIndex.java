@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The programs of every channel of a TV input during a window of a few hours, as the last sync
+ * wrote them to the TV provider. It lets a session find the program to play without querying the
+ * provider.
+ * <p>
+ * A lookup outside the window, or for a channel or time the index has no program for, returns
+ * null, and the caller falls back to the provider.
+ * <p>
+ * Instances are immutable.
+ *
+ * @hide
+ */
+public final class NowNextIndex {
+    /** An index without programs, for which every lookup misses. */
+    public static final NowNextIndex EMPTY = new Builder(0, 0).build();
+
+    private final long mStartTimeMs;
+    private final long mEndTimeMs;
+    // Programs by channel id, in chronological order
+    private final LongSparseArray<Program[]> mPrograms;
+
+    private NowNextIndex(long startTimeMs, long endTimeMs, LongSparseArray<Program[]> programs) {
+        mStartTimeMs = startTimeMs;
+        mEndTimeMs = endTimeMs;
+        mPrograms = programs;
+    }
+
+    /**
+     * @return The start of the window, in milliseconds since the epoch.
+     */
+    public long getStartTimeMillis() {
+        return mStartTimeMs;
+    }
+
+    /**
+     * @return The end of the window, in milliseconds since the epoch.
+     */
+    public long getEndTimeMillis() {
+        return mEndTimeMs;
+    }
+
+    /**
+     * Returns the program that plays on a channel at a given time.
+     *
+     * @param channelId The id of the channel.
+     * @param timeMs The time, in milliseconds since the epoch.
+     * @return The program, or null if the index does not know it.
+     */
+    public Program getProgramAt(long channelId, long timeMs) {
+        Program[] programs = mPrograms.get(channelId);
+        if (programs == null || timeMs < mStartTimeMs || timeMs >= mEndTimeMs) {
+            return null;
+        }
+        int index = findLastStartingAtOrBefore(programs, timeMs);
+        if (index >= 0 && programs[index].getEndTimeUtcMillis() > timeMs) {
+            return programs[index];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the program that follows a program on a channel.
+     *
+     * @param channelId The id of the channel.
+     * @param program The program, or null for the program that plays now.
+     * @return The next program, or null if the index does not know it.
+     */
+    public Program getNextProgram(long channelId, Program program) {
+        return getProgramAt(channelId, program != null
+                ? program.getEndTimeUtcMillis() : System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the programs of a channel that overlap a period of time.
+     *
+     * @param channelId The id of the channel.
+     * @param startTimeMs The start of the period, in milliseconds since the epoch.
+     * @param endTimeMs The end of the period, in milliseconds since the epoch.
+     * @return The programs in chronological order, or null if the period is not in the window
+     * or the index has no programs for the channel.
+     */
+    public List<Program> getPrograms(long channelId, long startTimeMs, long endTimeMs) {
+        Program[] programs = mPrograms.get(channelId);
+        if (programs == null || startTimeMs < mStartTimeMs || endTimeMs > mEndTimeMs) {
+            return null;
+        }
+        List<Program> overlapping = new ArrayList<>();
+        for (int i = Math.max(0, findLastStartingAtOrBefore(programs, startTimeMs));
+                i < programs.length && programs[i].getStartTimeUtcMillis() < endTimeMs; i++) {
+            if (programs[i].getEndTimeUtcMillis() > startTimeMs) {
+                overlapping.add(programs[i]);
+            }
+        }
+        return overlapping;
+    }
+
+    // For NowNextIndexStore, which writes the channels in order
+    int getChannelCount() {
+        return mPrograms.size();
+    }
+
+    long getChannelIdAt(int index) {
+        return mPrograms.keyAt(index);
+    }
+
+    List<Program> getProgramsAt(int index) {
+        return Collections.unmodifiableList(Arrays.asList(mPrograms.valueAt(index)));
+    }
+
+    private static int findLastStartingAtOrBefore(Program[] programs, long timeMs) {
+        int low = 0;
+        int high = programs.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (programs[mid].getStartTimeUtcMillis() <= timeMs) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Collects the programs of an index, channel by channel.
+     */
+    public static final class Builder {
+        private final long mStartTimeMs;
+        private final long mEndTimeMs;
+        private final LongSparseArray<Program[]> mPrograms = new LongSparseArray<>();
+
+        /**
+         * @param startTimeMs The start of the window, in milliseconds since the epoch.
+         * @param endTimeMs The end of the window, in milliseconds since the epoch.
+         */
+        public Builder(long startTimeMs, long endTimeMs) {
+            mStartTimeMs = startTimeMs;
+            mEndTimeMs = endTimeMs;
+        }
+
+        /**
+         * Sets the programs of a channel. Programs outside the window are left out.
+         *
+         * @param channelId The id of the channel.
+         * @param programs The programs of the channel.
+         * @return This Builder object to allow for chaining of calls to builder methods.
+         */
+        public Builder setPrograms(long channelId, List<Program> programs) {
+            List<Program> inWindow = new ArrayList<>();
+            for (Program program : programs) {
+                if (program.getEndTimeUtcMillis() > mStartTimeMs
+                        && program.getStartTimeUtcMillis() < mEndTimeMs) {
+                    inWindow.add(program);
+                }
+            }
+            Collections.sort(inWindow);
+            mPrograms.put(channelId, inWindow.toArray(new Program[inWindow.size()]));
+            return this;
+        }
+
+        /**
+         * @return The index.
+         */
+        public NowNextIndex build() {
+            return new NowNextIndex(mStartTimeMs, mEndTimeMs, mPrograms.clone());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persists the {@link NowNextIndex} of a TV input, which the sync writes along with the programs
+ * and sessions read before they query the TV provider.
+ * <p>
+ * The index is kept in memory once read, so a sync running in the same process as the TV input
+ * service replaces it for the service's next lookup. A sync running in another process only
+ * replaces the file, which {@link #reload} reads again. Programs are stored as the columns of
+ * {@link Program#PROJECTION}, like {@link ChannelMapStore} stores channels.
+ *
+ * @hide
+ */
+public final class NowNextIndexStore {
+    private static final String TAG = "NowNextIndexStore";
+
+    private static final int MAGIC = 0x4e574e58; // "NWNX"
+    private static final int VERSION = 1;
+    private static final String FILE_PREFIX = "now_next_index_";
+
+    // Indexes by input id, read from disk at most once
+    private static final ConcurrentMap<String, NowNextIndex> mIndexes = new ConcurrentHashMap<>();
+    // The modification time and length of the file each index in memory was read from or
+    // written to, by input id
+    private static final ConcurrentMap<String, String> mFileStamps = new ConcurrentHashMap<>();
+
+    private NowNextIndexStore() {
+    }
+
+    /**
+     * Writes the index of a TV input, replacing any earlier one. Performs disk I/O, so it must not
+     * be called on the main thread.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input the programs belong to.
+     * @param index The index to write.
+     * @return Whether the index was written.
+     */
+    public static boolean write(Context context, String inputId, NowNextIndex index) {
+        mIndexes.put(inputId, index);
+
+        AtomicFile file = getFile(context, inputId);
+        FileOutputStream fileStream = null;
+        try {
+            fileStream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            String[] columns = Program.PROJECTION;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(inputId);
+            out.writeLong(index.getStartTimeMillis());
+            out.writeLong(index.getEndTimeMillis());
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            out.writeInt(index.getChannelCount());
+            for (int i = 0; i < index.getChannelCount(); i++) {
+                out.writeLong(index.getChannelIdAt(i));
+                List<Program> programs = index.getProgramsAt(i);
+                out.writeInt(programs.size());
+                for (Program program : programs) {
+                    ContentValues values = program.toContentValues();
+                    for (String column : columns) {
+                        ChannelMapStore.writeValue(out, values.get(column));
+                    }
+                }
+            }
+            out.flush();
+            file.finishWrite(fileStream);
+            mFileStamps.put(inputId, getStamp(file));
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write now/next index for " + inputId, e);
+            if (fileStream != null) {
+                file.failWrite(fileStream);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index of a TV input, reading it from disk if it is not in memory yet.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input.
+     * @return The index, or {@link NowNextIndex#EMPTY} if there is none.
+     */
+    public static NowNextIndex get(Context context, String inputId) {
+        NowNextIndex index = mIndexes.get(inputId);
+        if (index == null) {
+            index = read(context, inputId);
+            // Keep the index of a sync that finished while the file was read.
+            NowNextIndex written = mIndexes.putIfAbsent(inputId, index);
+            if (written != null) {
+                index = written;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reads the index of a TV input from disk again if the file changed since the index in memory
+     * was read or written, e.g. because a sync in another process wrote it. Performs disk I/O, so
+     * it must not be called on the main thread.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input.
+     * @return Whether a new index was read.
+     */
+    public static boolean reload(Context context, String inputId) {
+        String stamp = mFileStamps.get(inputId);
+        if (stamp != null && stamp.equals(getStamp(getFile(context, inputId)))) {
+            return false;
+        }
+        mIndexes.put(inputId, read(context, inputId));
+        return true;
+    }
+
+    /**
+     * Returns the index of a TV input if it is in memory, without disk I/O.
+     *
+     * @param inputId The id of the TV input.
+     * @return The index, or null if it has not been read yet.
+     */
+    public static NowNextIndex peek(String inputId) {
+        return mIndexes.get(inputId);
+    }
+
+    /**
+     * Deletes the index of a TV input, so that sessions query the TV provider until the next
+     * index is written.
+     * <p>
+     * Every write and delete puts a new instance in memory, so sessions can tell that the
+     * programs changed by comparing it with the index they last read.
+     */
+    public static void delete(Context context, String inputId) {
+        mIndexes.put(inputId, new NowNextIndex.Builder(0, 0).build());
+        AtomicFile file = getFile(context, inputId);
+        file.delete();
+        mFileStamps.put(inputId, getStamp(file));
+    }
+
+    private static NowNextIndex read(Context context, String inputId) {
+        AtomicFile file = getFile(context, inputId);
+        // Taken before the file is read, so that a write during the read causes another reload.
+        mFileStamps.put(inputId, getStamp(file));
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !inputId.equals(in.readUTF())) {
+                return NowNextIndex.EMPTY;
+            }
+            NowNextIndex.Builder builder = new NowNextIndex.Builder(in.readLong(), in.readLong());
+            String[] columns = new String[in.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = in.readUTF();
+            }
+            int channelCount = in.readInt();
+            for (int i = 0; i < channelCount; i++) {
+                long channelId = in.readLong();
+                int programCount = in.readInt();
+                MatrixCursor cursor = new MatrixCursor(columns, programCount);
+                for (int j = 0; j < programCount; j++) {
+                    Object[] row = new Object[columns.length];
+                    for (int k = 0; k < columns.length; k++) {
+                        row[k] = ChannelMapStore.readValue(in);
+                    }
+                    cursor.addRow(row);
+                }
+                List<Program> programs = new ArrayList<>(programCount);
+                Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+                while (cursor.moveToNext()) {
+                    programs.add(mapper.read(cursor));
+                }
+                builder.setPrograms(channelId, programs);
+            }
+            return builder.build();
+        } catch (FileNotFoundException e) {
+            return NowNextIndex.EMPTY;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Ignoring unreadable now/next index for " + inputId, e);
+            return NowNextIndex.EMPTY;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String getStamp(AtomicFile file) {
+        File baseFile = file.getBaseFile();
+        return baseFile.lastModified() + ":" + baseFile.length();
+    }
+
+    private static AtomicFile getFile(Context context, String inputId) {
+        String name = FILE_PREFIX + inputId.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new AtomicFile(new File(context.getNoBackupFilesDir(), name));
+    }
+}
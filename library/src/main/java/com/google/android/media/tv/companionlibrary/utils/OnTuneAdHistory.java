@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.BaseTvInputService;
+
+import java.util.Map;
+
+/**
+ * Keeps the time the on-tune ad of each channel was last watched in memory, so that tuning to a
+ * channel does not read {@link SharedPreferences} on the main thread.
+ * <p>
+ * The times are loaded from {@link BaseTvInputService#PREFERENCES_FILE_KEY} once, in the
+ * background, and changes are written back to it in batches, so that the times persist when a
+ * TV app restarts its session. If a time is needed before the background load finished, it is
+ * loaded right away instead.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class OnTuneAdHistory {
+    private static final String TAG = "OnTuneAdHistory";
+    /** How long changes are collected before they are written in one batch. */
+    private static final long WRITE_DELAY_MILLIS = 2000;
+
+    private static OnTuneAdHistory mInstance;
+
+    private final SharedPreferences mPreferences;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    // Last watched times by channel id, once loaded
+    private LongSparseArray<Long> mAdTimesMs;
+    // Changes to write, by channel id. A null value removes the channel.
+    private final LongSparseArray<Long> mPendingWrites = new LongSparseArray<>();
+
+    /**
+     * Returns the history shared by every session of the application, and starts loading it if
+     * it is not loaded yet.
+     */
+    public static synchronized OnTuneAdHistory getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new OnTuneAdHistory(context.getApplicationContext()
+                    .getSharedPreferences(BaseTvInputService.PREFERENCES_FILE_KEY,
+                            Context.MODE_PRIVATE));
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mInstance.load();
+                }
+            });
+        }
+        return mInstance;
+    }
+
+    /** Creates a history that is loaded on first use, for tests. */
+    OnTuneAdHistory(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    /**
+     * @return The time the on-tune ad of a channel was last watched, in milliseconds since the
+     * epoch, or 0 if it was never watched.
+     */
+    public synchronized long getLastAdTimeMs(long channelId) {
+        load();
+        Long adTimeMs = mAdTimesMs.get(channelId);
+        return adTimeMs == null ? 0 : adTimeMs;
+    }
+
+    /**
+     * Records that the on-tune ad of a channel was watched.
+     *
+     * @param channelId The id of the channel.
+     * @param adTimeMs The time the ad was watched, in milliseconds since the epoch.
+     */
+    public synchronized void setLastAdTimeMs(long channelId, long adTimeMs) {
+        load();
+        mAdTimesMs.put(channelId, adTimeMs);
+        mPendingWrites.put(channelId, adTimeMs);
+        scheduleWrite();
+    }
+
+    /**
+     * Forgets the channels that were deleted.
+     *
+     * @param channelIds The ids of the deleted channels.
+     */
+    public synchronized void remove(long[] channelIds) {
+        load();
+        for (long channelId : channelIds) {
+            if (mAdTimesMs.indexOfKey(channelId) >= 0) {
+                mAdTimesMs.remove(channelId);
+                mPendingWrites.put(channelId, null);
+            }
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Writes the pending changes now. The write itself happens in the background.
+     */
+    public synchronized void flush() {
+        mHandler.removeCallbacks(mWriteRunnable);
+        if (mPendingWrites.size() == 0) {
+            return;
+        }
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (int i = 0; i < mPendingWrites.size(); i++) {
+            String key = getKey(mPendingWrites.keyAt(i));
+            Long adTimeMs = mPendingWrites.valueAt(i);
+            if (adTimeMs == null) {
+                editor.remove(key);
+            } else {
+                editor.putLong(key, adTimeMs);
+            }
+        }
+        editor.apply();
+        mPendingWrites.clear();
+    }
+
+    private void scheduleWrite() {
+        if (mPendingWrites.size() > 0) {
+            mHandler.removeCallbacks(mWriteRunnable);
+            mHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MILLIS);
+        }
+    }
+
+    private synchronized void load() {
+        if (mAdTimesMs != null) {
+            return;
+        }
+        mAdTimesMs = new LongSparseArray<>();
+        String prefix = BaseTvInputService.SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY;
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || !(entry.getValue() instanceof Long)) {
+                continue;
+            }
+            try {
+                mAdTimesMs.put(Long.parseLong(entry.getKey().substring(prefix.length())),
+                        (Long) entry.getValue());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring unexpected key " + entry.getKey());
+            }
+        }
+    }
+
+    private static String getKey(long channelId) {
+        return BaseTvInputService.SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY + channelId;
+    }
+}
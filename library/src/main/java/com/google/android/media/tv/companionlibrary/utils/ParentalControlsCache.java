@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.media.tv.TvContentRating;
+import android.media.tv.TvInputManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the parental control settings read from {@link TvInputManager}, each of which is a call
+ * to the system server, so that checking the ratings of a program on the playback path does not
+ * leave the process once the settings are known.
+ * <p>
+ * The owner calls {@link #invalidate()} when {@link TvInputManager#ACTION_BLOCKED_RATINGS_CHANGED}
+ * or {@link TvInputManager#ACTION_PARENTAL_CONTROLS_ENABLED_CHANGED} is broadcast. Many programs
+ * share the same ratings, so the blocked ratings are cached by set of ratings rather than by
+ * program.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class ParentalControlsCache {
+    private static final TvContentRating[] NO_RATINGS = new TvContentRating[0];
+
+    private Boolean mParentalControlsEnabled;
+    private final Map<TvContentRating, Boolean> mBlockedRatings = new HashMap<>();
+    // The blocked ratings among each set of ratings, in the order of the set
+    private final Map<List<TvContentRating>, TvContentRating[]> mBlockedRatingSets =
+            new HashMap<>();
+    // Incremented by invalidate(), so that a value read before it is not stored after it
+    private int mGeneration;
+
+    /**
+     * @return Whether parental controls are enabled.
+     */
+    public boolean isParentalControlsEnabled(TvInputManager tvInputManager) {
+        int generation;
+        synchronized (this) {
+            if (mParentalControlsEnabled != null) {
+                return mParentalControlsEnabled;
+            }
+            generation = mGeneration;
+        }
+        boolean enabled = tvInputManager.isParentalControlsEnabled();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mParentalControlsEnabled = enabled;
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * @return Whether the user blocked a rating.
+     */
+    public boolean isRatingBlocked(TvInputManager tvInputManager, TvContentRating rating) {
+        int generation;
+        synchronized (this) {
+            Boolean blocked = mBlockedRatings.get(rating);
+            if (blocked != null) {
+                return blocked;
+            }
+            generation = mGeneration;
+        }
+        boolean blocked = tvInputManager.isRatingBlocked(rating);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mBlockedRatings.put(rating, blocked);
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * Returns the rating a program has to be blocked for, which is the last of its blocked
+     * ratings that the user has not unblocked in the session.
+     *
+     * @param ratings The ratings of the program.
+     * @param unblockedRatings The ratings the user unblocked in the session.
+     * @return The rating to block the program for, or null if it can be played.
+     */
+    public TvContentRating getBlockingRating(TvInputManager tvInputManager,
+            TvContentRating[] ratings, Set<TvContentRating> unblockedRatings) {
+        if (ratings == null || ratings.length == 0) {
+            return null;
+        }
+        List<TvContentRating> key = Arrays.asList(ratings);
+        TvContentRating[] blockedRatings;
+        int generation;
+        synchronized (this) {
+            blockedRatings = mBlockedRatingSets.get(key);
+            generation = mGeneration;
+        }
+        if (blockedRatings == null) {
+            List<TvContentRating> blocked = new ArrayList<>();
+            for (TvContentRating rating : ratings) {
+                if (isRatingBlocked(tvInputManager, rating)) {
+                    blocked.add(rating);
+                }
+            }
+            blockedRatings = blocked.isEmpty()
+                    ? NO_RATINGS : blocked.toArray(new TvContentRating[blocked.size()]);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    // The key is backed by the program's array, so it is copied.
+                    mBlockedRatingSets.put(new ArrayList<>(key), blockedRatings);
+                }
+            }
+        }
+        for (int i = blockedRatings.length - 1; i >= 0; i--) {
+            if (!unblockedRatings.contains(blockedRatings[i])) {
+                return blockedRatings[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets every setting, so that they are read again when they are next needed.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mParentalControlsEnabled = null;
+        mBlockedRatings.clear();
+        mBlockedRatingSets.clear();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queries and inserts on the TV provider on a few background threads, in order of priority,
+ * so that the lookups a tune waits for are not queued behind background work such as
+ * prefetching programs or saving a recording. Tasks of the same priority run in the order they
+ * were submitted. A thread runs at background priority, and at the default priority while it
+ * runs a task someone is waiting for.
+ * <p>
+ * Like a {@link Handler}, a task can be run after a delay and pending runs of it can be
+ * cancelled. The executor also counts how long tasks wait before they run and how many wait at
+ * the same time.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @hide
+ */
+public final class ProviderExecutor {
+    /** For lookups that playback waits for, e.g. the program to play after a tune. */
+    public static final int PRIORITY_TUNE = 0;
+    /** For work a user is waiting for that does not hold up playback. */
+    public static final int PRIORITY_DEFAULT = 1;
+    /** For work nobody is waiting for, e.g. prefetching. */
+    public static final int PRIORITY_BACKGROUND = 2;
+    private static final int PRIORITY_COUNT = 3;
+    // The priority of the thread running a task of each priority, so that tune lookups do not
+    // compete with other apps' background work
+    private static final int[] THREAD_PRIORITIES = new int[] {
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND
+    };
+
+    private static final String TAG = "ProviderExecutor";
+
+    private final PriorityBlockingQueue<Task> mQueue = new PriorityBlockingQueue<>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Thread[] mWorkers;
+    // Posts delayed tasks to mQueue when they are due
+    private final HandlerThread mSchedulerThread;
+    private final Handler mScheduler;
+    private volatile boolean mShutdown;
+
+    // Metrics, guarded by this
+    private int mMaxQueueDepth;
+    private final long[] mTaskCounts = new long[PRIORITY_COUNT];
+    private final long[] mTotalWaitMillis = new long[PRIORITY_COUNT];
+    private final long[] mMaxWaitMillis = new long[PRIORITY_COUNT];
+
+    /**
+     * @param name The name of the threads.
+     * @param threadCount The number of threads running tasks.
+     */
+    public ProviderExecutor(String name, int threadCount) {
+        mSchedulerThread = new HandlerThread(name + "-scheduler");
+        mSchedulerThread.start();
+        mScheduler = new Handler(mSchedulerThread.getLooper());
+        mWorkers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Thread(new Worker(), name + "-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Runs a task as soon as a thread is free and no task of a higher priority is waiting.
+     *
+     * @param task The task to run.
+     * @param priority One of {@link #PRIORITY_TUNE}, {@link #PRIORITY_DEFAULT} and
+     *                 {@link #PRIORITY_BACKGROUND}.
+     */
+    public void execute(Runnable task, int priority) {
+        enqueue(new Task(task, priority));
+    }
+
+    /**
+     * Runs a task as {@link #execute} does, after a delay.
+     *
+     * @param delayMillis How long to wait before the task is queued, in milliseconds.
+     */
+    public void executeDelayed(Runnable task, int priority, long delayMillis) {
+        final Task scheduledTask = new Task(task, priority);
+        // The runnable is the token, so that cancel() can remove the task before it is due.
+        mScheduler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(scheduledTask);
+            }
+        }, task, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    /**
+     * Cancels the runs of a task that have not started yet. A run that has started is not
+     * interrupted.
+     */
+    public void cancel(Runnable task) {
+        if (task == null) {
+            // A null token would remove every delayed task.
+            return;
+        }
+        mScheduler.removeCallbacksAndMessages(task);
+        Iterator<Task> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mRunnable == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops the threads. Tasks that have not started are dropped.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        mSchedulerThread.quit();
+        mQueue.clear();
+        for (Thread worker : mWorkers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The largest number of tasks that waited for a thread at the same time.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * @return The number of tasks of a priority that have started.
+     */
+    public synchronized long getTaskCount(int priority) {
+        return mTaskCounts[priority];
+    }
+
+    /**
+     * @return How long tasks of a priority waited for a thread on average, in milliseconds, not
+     * counting the delay they were submitted with.
+     */
+    public synchronized long getAverageWaitMillis(int priority) {
+        return mTaskCounts[priority] == 0 ? 0 : mTotalWaitMillis[priority] / mTaskCounts[priority];
+    }
+
+    /**
+     * @return The longest a task of a priority waited for a thread, in milliseconds.
+     */
+    public synchronized long getMaxWaitMillis(int priority) {
+        return mMaxWaitMillis[priority];
+    }
+
+    private void enqueue(Task task) {
+        if (mShutdown) {
+            return;
+        }
+        task.mSequence = mSequence.getAndIncrement();
+        task.mQueuedTimeMillis = SystemClock.elapsedRealtime();
+        mQueue.add(task);
+        int depth = mQueue.size();
+        synchronized (this) {
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, depth);
+        }
+    }
+
+    private synchronized void onTaskStarted(Task task) {
+        long waitMillis = SystemClock.elapsedRealtime() - task.mQueuedTimeMillis;
+        mTaskCounts[task.mPriority]++;
+        mTotalWaitMillis[task.mPriority] += waitMillis;
+        mMaxWaitMillis[task.mPriority] = Math.max(mMaxWaitMillis[task.mPriority], waitMillis);
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            int threadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+            Process.setThreadPriority(threadPriority);
+            while (!mShutdown) {
+                Task task;
+                try {
+                    task = mQueue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                onTaskStarted(task);
+                if (threadPriority != THREAD_PRIORITIES[task.mPriority]) {
+                    threadPriority = THREAD_PRIORITIES[task.mPriority];
+                    Process.setThreadPriority(threadPriority);
+                }
+                try {
+                    task.mRunnable.run();
+                } catch (RuntimeException e) {
+                    // Keep the thread for the tasks that follow.
+                    Log.e(TAG, "Task failed", e);
+                }
+            }
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+        private final Runnable mRunnable;
+        private final int mPriority;
+        private long mSequence;
+        private long mQueuedTimeMillis;
+
+        private Task(Runnable runnable, int priority) {
+            if (priority < 0 || priority >= PRIORITY_COUNT) {
+                throw new IllegalArgumentException("Invalid priority " + priority);
+            }
+            mRunnable = runnable;
+            mPriority = priority;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
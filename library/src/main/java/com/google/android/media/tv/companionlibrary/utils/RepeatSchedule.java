@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The schedule of a channel that repeats its programs, which plays the programs of a playlist
+ * one after the other in a loop. To make every device play the same program on a channel at a
+ * given time, the loop is assumed to have started at the epoch.
+ * <p>
+ * The program at any time is computed from the offsets of the programs in the loop, so the
+ * schedule does not need to be written to the TV provider to be played.
+ * <p>
+ * Instances are immutable.
+ *
+ * @hide
+ */
+public final class RepeatSchedule {
+    private final long mChannelId;
+    private final List<Program> mPlaylist;
+    // The offset of each program from the start of the loop, followed by the loop duration
+    private final long[] mOffsetsMs;
+
+    /**
+     * @param channelId The id of the channel.
+     * @param playlist The programs of the loop, in order. The duration of each program is taken
+     *                 from its start and end times.
+     * @throws IllegalArgumentException If the programs do not last longer than 0ms in total.
+     */
+    public RepeatSchedule(long channelId, List<Program> playlist) {
+        mChannelId = channelId;
+        mPlaylist = Collections.unmodifiableList(new ArrayList<>(playlist));
+        long totalDurationMs = 0;
+        for (Program program : mPlaylist) {
+            totalDurationMs += (program.getEndTimeUtcMillis() - program.getStartTimeUtcMillis());
+        }
+        if (totalDurationMs <= 0) {
+            throw new IllegalArgumentException("The duration of all programs must be greater " +
+                    "than 0ms.");
+        }
+        mOffsetsMs = new long[mPlaylist.size() + 1];
+        for (int i = 0; i < mPlaylist.size(); i++) {
+            Program program = mPlaylist.get(i);
+            long durationMs = totalDurationMs;
+            if (program.getEndTimeUtcMillis() > -1 && program.getStartTimeUtcMillis() > -1) {
+                durationMs = program.getEndTimeUtcMillis() - program.getStartTimeUtcMillis();
+            }
+            mOffsetsMs[i + 1] = mOffsetsMs[i] + durationMs;
+        }
+    }
+
+    /**
+     * @return The id of the channel.
+     */
+    public long getChannelId() {
+        return mChannelId;
+    }
+
+    /**
+     * @return The programs of the loop, as they were given.
+     */
+    public List<Program> getPlaylist() {
+        return mPlaylist;
+    }
+
+    /**
+     * @return How long the loop lasts, in milliseconds.
+     */
+    public long getLoopDurationMillis() {
+        return mOffsetsMs[mOffsetsMs.length - 1];
+    }
+
+    /**
+     * Returns the program that plays at a given time.
+     *
+     * @param timeMs The time, in milliseconds since the epoch.
+     * @return The program, with the times and ads of that airing.
+     */
+    public Program getProgramAt(long timeMs) {
+        long loopDurationMs = getLoopDurationMillis();
+        long offsetMs = ((timeMs % loopDurationMs) + loopDurationMs) % loopDurationMs;
+        // Find the last program that starts at or before the offset, which skips programs that
+        // last 0ms.
+        int low = 0;
+        int high = mPlaylist.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mOffsetsMs[mid] <= offsetMs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return getAiring(low, timeMs - offsetMs);
+    }
+
+    /**
+     * Returns the programs that play during a time range, as a sync writes them to the TV
+     * provider.
+     *
+     * @param startTimeMs The start of the range, in milliseconds since the epoch.
+     * @param endTimeMs The end of the range, in milliseconds since the epoch.
+     * @return The programs in chronological order, with the times and ads of each airing.
+     */
+    public List<Program> getPrograms(long startTimeMs, long endTimeMs) {
+        List<Program> programs = new ArrayList<>();
+        long loopStartTimeMs = startTimeMs - startTimeMs % getLoopDurationMillis();
+        int i = 0;
+        while (loopStartTimeMs + mOffsetsMs[i] < endTimeMs) {
+            if (loopStartTimeMs + mOffsetsMs[i + 1] >= startTimeMs) {
+                programs.add(getAiring(i, loopStartTimeMs));
+            }
+            if (++i == mPlaylist.size()) {
+                i = 0;
+                loopStartTimeMs += getLoopDurationMillis();
+            }
+        }
+        return programs;
+    }
+
+    private Program getAiring(int index, long loopStartTimeMs) {
+        Program program = mPlaylist.get(index);
+        long startTimeMs = loopStartTimeMs + mOffsetsMs[index];
+        Program.Builder builder = new Program.Builder(program)
+                .setChannelId(mChannelId)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(loopStartTimeMs + mOffsetsMs[index + 1]);
+        InternalProviderData readOnlyData = program.getReadOnlyInternalProviderData();
+        if (readOnlyData != null && !readOnlyData.getAds().isEmpty()) {
+            // Shift advertisement time to match the airing.
+            long timeShiftMs = startTimeMs - program.getStartTimeUtcMillis();
+            List<Advertisement> ads = new ArrayList<>();
+            for (Advertisement ad : readOnlyData.getAds()) {
+                ads.add(new Advertisement.Builder(ad)
+                        .setStartTimeUtcMillis(ad.getStartTimeUtcMillis() + timeShiftMs)
+                        .setStopTimeUtcMillis(ad.getStopTimeUtcMillis() + timeShiftMs)
+                        .build());
+            }
+            InternalProviderData internalProviderData = program.getInternalProviderData();
+            internalProviderData.setAds(ads);
+            builder.setInternalProviderData(internalProviderData);
+        }
+        return builder.build();
+    }
+}
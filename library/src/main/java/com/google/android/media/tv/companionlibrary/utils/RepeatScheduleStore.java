@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persists the {@link RepeatSchedule}s of the channels of a TV input, so that the TV input
+ * service can compute the programs of those channels instead of reading them from the TV
+ * provider.
+ * <p>
+ * The schedules are written by the sync and kept in memory once read, so a sync running in the
+ * same process as the service replaces them for the service's next lookup. A sync running in
+ * another process only replaces the file, which {@link #reload} reads again. Programs are stored
+ * as the columns of {@link Program#PROJECTION}, like {@link ChannelMapStore} stores channels.
+ *
+ * @hide
+ */
+public final class RepeatScheduleStore {
+    private static final String TAG = "RepeatScheduleStore";
+
+    private static final int MAGIC = 0x52505453; // "RPTS"
+    private static final int VERSION = 1;
+    private static final String FILE_PREFIX = "repeat_schedules_";
+
+    private static final LongSparseArray<RepeatSchedule> NO_SCHEDULES = new LongSparseArray<>();
+    // Schedules by input id, read from disk at most once. The arrays are not modified.
+    private static final ConcurrentMap<String, LongSparseArray<RepeatSchedule>> mSchedules =
+            new ConcurrentHashMap<>();
+    // The modification time and length of the file the schedules in memory were read from or
+    // written to, by input id
+    private static final ConcurrentMap<String, String> mFileStamps = new ConcurrentHashMap<>();
+
+    private RepeatScheduleStore() {
+    }
+
+    /**
+     * Writes the schedules of a TV input, replacing any earlier ones. Performs disk I/O, so it
+     * must not be called on the main thread.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input the channels belong to.
+     * @param schedules The schedules to write, one per channel.
+     * @return Whether the schedules were written.
+     */
+    public static boolean write(Context context, String inputId, List<RepeatSchedule> schedules) {
+        LongSparseArray<RepeatSchedule> scheduleMap = new LongSparseArray<>(schedules.size());
+        for (RepeatSchedule schedule : schedules) {
+            scheduleMap.put(schedule.getChannelId(), schedule);
+        }
+        mSchedules.put(inputId, scheduleMap);
+
+        AtomicFile file = getFile(context, inputId);
+        FileOutputStream fileStream = null;
+        try {
+            fileStream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            String[] columns = Program.PROJECTION;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(inputId);
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            out.writeInt(schedules.size());
+            for (RepeatSchedule schedule : schedules) {
+                out.writeLong(schedule.getChannelId());
+                List<Program> playlist = schedule.getPlaylist();
+                out.writeInt(playlist.size());
+                for (Program program : playlist) {
+                    ContentValues values = program.toContentValues();
+                    for (String column : columns) {
+                        ChannelMapStore.writeValue(out, values.get(column));
+                    }
+                }
+            }
+            out.flush();
+            file.finishWrite(fileStream);
+            mFileStamps.put(inputId, getStamp(file));
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write repeat schedules for " + inputId, e);
+            if (fileStream != null) {
+                file.failWrite(fileStream);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the schedule of a channel, reading the schedules of its TV input from disk if they
+     * are not in memory yet.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input.
+     * @param channelId The id of the channel.
+     * @return The schedule, or null if the channel's programs are in the TV provider.
+     */
+    public static RepeatSchedule get(Context context, String inputId, long channelId) {
+        LongSparseArray<RepeatSchedule> scheduleMap = mSchedules.get(inputId);
+        if (scheduleMap == null) {
+            scheduleMap = read(context, inputId);
+            // Keep the schedules of a sync that finished while the file was read.
+            LongSparseArray<RepeatSchedule> written = mSchedules.putIfAbsent(inputId, scheduleMap);
+            if (written != null) {
+                scheduleMap = written;
+            }
+        }
+        return scheduleMap.get(channelId);
+    }
+
+    /**
+     * Reads the schedules of a TV input from disk again if the file changed since the schedules
+     * in memory were read or written, e.g. because a sync in another process wrote it. Performs
+     * disk I/O, so it must not be called on the main thread.
+     *
+     * @param context The application's context.
+     * @param inputId The id of the TV input.
+     * @return Whether new schedules were read.
+     */
+    public static boolean reload(Context context, String inputId) {
+        String stamp = mFileStamps.get(inputId);
+        if (stamp != null && stamp.equals(getStamp(getFile(context, inputId)))) {
+            return false;
+        }
+        mSchedules.put(inputId, read(context, inputId));
+        return true;
+    }
+
+    /**
+     * Deletes the schedules of a TV input, so that the programs of all its channels are read from
+     * the TV provider.
+     */
+    public static void delete(Context context, String inputId) {
+        mSchedules.put(inputId, NO_SCHEDULES);
+        AtomicFile file = getFile(context, inputId);
+        file.delete();
+        mFileStamps.put(inputId, getStamp(file));
+    }
+
+    private static LongSparseArray<RepeatSchedule> read(Context context, String inputId) {
+        AtomicFile file = getFile(context, inputId);
+        // Taken before the file is read, so that a write during the read causes another reload.
+        mFileStamps.put(inputId, getStamp(file));
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !inputId.equals(in.readUTF())) {
+                return NO_SCHEDULES;
+            }
+            String[] columns = new String[in.readInt()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = in.readUTF();
+            }
+            int scheduleCount = in.readInt();
+            LongSparseArray<RepeatSchedule> scheduleMap = new LongSparseArray<>(scheduleCount);
+            for (int i = 0; i < scheduleCount; i++) {
+                long channelId = in.readLong();
+                int programCount = in.readInt();
+                MatrixCursor cursor = new MatrixCursor(columns, programCount);
+                for (int j = 0; j < programCount; j++) {
+                    Object[] row = new Object[columns.length];
+                    for (int k = 0; k < columns.length; k++) {
+                        row[k] = ChannelMapStore.readValue(in);
+                    }
+                    cursor.addRow(row);
+                }
+                List<Program> playlist = new ArrayList<>(programCount);
+                Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+                while (cursor.moveToNext()) {
+                    playlist.add(mapper.read(cursor));
+                }
+                scheduleMap.put(channelId, new RepeatSchedule(channelId, playlist));
+            }
+            return scheduleMap;
+        } catch (FileNotFoundException e) {
+            return NO_SCHEDULES;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Ignoring unreadable repeat schedules for " + inputId, e);
+            return NO_SCHEDULES;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String getStamp(AtomicFile file) {
+        File baseFile = file.getBaseFile();
+        return baseFile.lastModified() + ":" + baseFile.length();
+    }
+
+    private static AtomicFile getFile(Context context, String inputId) {
+        String name = FILE_PREFIX + inputId.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new AtomicFile(new File(context.getNoBackupFilesDir(), name));
+    }
+}
@@ -19,7 +19,6 @@ package com.google.android.media.tv.companionlibrary.utils;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.media.tv.TvContentRating;
 import android.media.tv.TvContract;
@@ -32,7 +31,6 @@ import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.SparseArray;
 
-import com.google.android.media.tv.companionlibrary.BaseTvInputService;
 import com.google.android.media.tv.companionlibrary.model.Channel;
 import com.google.android.media.tv.companionlibrary.model.Program;
 
@@ -153,17 +151,66 @@ public class TvContractUtils {
 
         // Deletes channels which don't exist in the new feed.
         int size = channelMap.size();
+        long[] deletedIds = new long[size];
         for (int i = 0; i < size; ++i) {
             Long rowId = channelMap.valueAt(i);
             if (DEBUG) {
                 Log.d(TAG, "Deleting channel " + rowId);
             }
             resolver.delete(TvContract.buildChannelUri(rowId), null, null);
-            SharedPreferences.Editor editor = context.getSharedPreferences(
-                    BaseTvInputService.PREFERENCES_FILE_KEY, Context.MODE_PRIVATE).edit();
-            editor.remove(BaseTvInputService.SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY + rowId);
-            editor.apply();
+            deletedIds[i] = rowId;
         }
+        if (size > 0) {
+            OnTuneAdHistory.getInstance(context).remove(deletedIds);
+        }
+    }
+
+    /**
+     * Queries a set of channels by ID, for updating part of a channel map.
+     *
+     * @param resolver Application's ContentResolver.
+     * @param inputId The ID of the TV input service that provides these TV channels.
+     * @param channelIds The {@link TvContract.Channels#_ID} of each channel to query.
+     * @return LongSparseArray mapping the ID of each channel that still exists to the Channel
+     * object, or null if the query failed. Channels that were deleted or that belong to another
+     * input are missing from the result.
+     * @hide
+     */
+    public static LongSparseArray<Channel> queryChannels(@NonNull ContentResolver resolver,
+            @NonNull String inputId, @NonNull long[] channelIds) {
+        LongSparseArray<Channel> channelMap = new LongSparseArray<>(channelIds.length);
+        if (channelIds.length == 0) {
+            return channelMap;
+        }
+        StringBuilder selection = new StringBuilder(Channels._ID).append(" IN (");
+        for (int i = 0; i < channelIds.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(channelIds[i]);
+        }
+        selection.append(')');
+        Uri uri = TvContract.buildChannelsUriForInput(inputId);
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, Channel.PROJECTION, selection.toString(), null, null);
+            if (cursor == null) {
+                return null;
+            }
+            Channel.CursorMapper mapper = new Channel.CursorMapper(cursor);
+            while (cursor.moveToNext()) {
+                Channel channel = mapper.read(cursor);
+                channelMap.put(channel.getId(), channel);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to query channels " + Arrays.toString(channelIds), e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return channelMap;
     }
 
     /**
@@ -189,8 +236,9 @@ public class TvContractUtils {
                 return null;
             }
 
+            Channel.CursorMapper mapper = new Channel.CursorMapper(cursor);
             while (cursor.moveToNext()) {
-                Channel nextChannel = Channel.fromCursor(cursor);
+                Channel nextChannel = mapper.read(cursor);
                 channelMap.put(nextChannel.getId(), nextChannel);
             }
         } catch (Exception e) {
@@ -219,8 +267,9 @@ public class TvContractUtils {
             if (cursor == null || cursor.getCount() == 0) {
                 return channels;
             }
+            Channel.CursorMapper mapper = new Channel.CursorMapper(cursor);
             while (cursor.moveToNext()) {
-                channels.add(Channel.fromCursor(cursor));
+                channels.add(mapper.read(cursor));
             }
         } catch (Exception e) {
             Log.w(TAG, "Unable to get channels", e);
@@ -281,8 +330,9 @@ public class TvContractUtils {
             if (cursor == null || cursor.getCount() == 0) {
                 return programs;
             }
+            Program.CursorMapper mapper = new Program.CursorMapper(cursor);
             while (cursor.moveToNext()) {
-                programs.add(Program.fromCursor(cursor));
+                programs.add(mapper.read(cursor));
             }
         } catch (Exception e) {
             Log.w(TAG, "Unable to get programs for " + channelUri, e);
@@ -295,6 +345,44 @@ public class TvContractUtils {
         return programs;
     }
 
+    /**
+     * Returns the programs of a given channel that overlap a period of time, in chronological
+     * order.
+     *
+     * @param resolver Application's ContentResolver.
+     * @param channelUri Channel's Uri.
+     * @param startTimeMs The start of the period, in milliseconds since the epoch.
+     * @param endTimeMs The end of the period, in milliseconds since the epoch.
+     * @return The programs that overlap the period. This list is empty if the query failed.
+     * @hide
+     */
+    public static List<Program> getPrograms(ContentResolver resolver, Uri channelUri,
+            long startTimeMs, long endTimeMs) {
+        List<Program> programs = new ArrayList<>();
+        if (channelUri == null) {
+            return programs;
+        }
+        Uri uri = TvContract.buildProgramsUriForChannel(channelUri, startTimeMs, endTimeMs);
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, Program.PROJECTION, null, null, null);
+            if (cursor == null || cursor.getCount() == 0) {
+                return programs;
+            }
+            Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+            while (cursor.moveToNext()) {
+                programs.add(mapper.read(cursor));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to get programs for " + channelUri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return programs;
+    }
+
     /**
      * Returns the program that is scheduled to be playing now on a given channel.
      *
@@ -303,14 +391,32 @@ public class TvContractUtils {
      * @return The program that is scheduled for now in the EPG.
      */
     public static Program getCurrentProgram(ContentResolver resolver, Uri channelUri) {
-        List<Program> programs = getPrograms(resolver, channelUri);
-        if (programs == null) {
+        if (channelUri == null) {
             return null;
         }
+        Uri uri = TvContract.buildProgramsUriForChannel(channelUri);
         long nowMs = System.currentTimeMillis();
-        for (Program program : programs) {
-            if (program.getStartTimeUtcMillis() <= nowMs && program.getEndTimeUtcMillis() > nowMs) {
-                return program;
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, Program.PROJECTION, null, null, null);
+            if (cursor == null || cursor.getCount() == 0) {
+                return null;
+            }
+            // Only the matching row is copied out; every other row is read into the same holder.
+            Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+            Program holder = mapper.newHolder();
+            while (cursor.moveToNext()) {
+                mapper.readInto(cursor, holder);
+                if (holder.getStartTimeUtcMillis() <= nowMs
+                        && holder.getEndTimeUtcMillis() > nowMs) {
+                    return new Program.Builder(holder).build();
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to get current program for " + channelUri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
         }
         return null;
@@ -330,13 +436,38 @@ public class TvContractUtils {
         if (currentProgram == null) {
             return getCurrentProgram(resolver, channelUri);
         }
-        List<Program> programs = getPrograms(resolver, channelUri);
-        if (programs == null) {
+        if (channelUri == null) {
             return null;
         }
-        int currentProgramIndex = programs.indexOf(currentProgram);
-        if (currentProgramIndex + 1 < programs.size()) {
-            return programs.get(currentProgramIndex + 1);
+        Uri uri = TvContract.buildProgramsUriForChannel(channelUri);
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, Program.PROJECTION, null, null, null);
+            if (cursor == null || cursor.getCount() == 0) {
+                return null;
+            }
+            Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+            Program holder = mapper.newHolder();
+            Program firstProgram = null;
+            boolean foundCurrent = false;
+            while (cursor.moveToNext()) {
+                mapper.readInto(cursor, holder);
+                if (foundCurrent) {
+                    return new Program.Builder(holder).build();
+                }
+                if (cursor.isFirst()) {
+                    firstProgram = new Program.Builder(holder).build();
+                }
+                foundCurrent = holder.equals(currentProgram);
+            }
+            // If the given program is no longer in the EPG, fall back to the first program.
+            return foundCurrent ? null : firstProgram;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to get next program for " + channelUri, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
         return null;
     }
@@ -380,22 +511,16 @@ public class TvContractUtils {
     }
 
     /**
-     * Parses a string of comma-separated ratings into an array of {@link TvContentRating}.
+     * Parses a string of comma-separated ratings into an array of {@link TvContentRating}. The
+     * ratings are taken from {@link InternPool}, and the array is a copy the caller may modify.
      *
      * @param commaSeparatedRatings String containing various ratings, separated by commas.
      * @return An array of TvContentRatings.
      * @hide
      */
     public static TvContentRating[] stringToContentRatings(String commaSeparatedRatings) {
-        if (TextUtils.isEmpty(commaSeparatedRatings)) {
-            return null;
-        }
-        String[] ratings = commaSeparatedRatings.split("\\s*,\\s*");
-        TvContentRating[] contentRatings = new TvContentRating[ratings.length];
-        for (int i = 0; i < contentRatings.length; ++i) {
-            contentRatings[i] = TvContentRating.unflattenFromString(ratings[i]);
-        }
-        return contentRatings;
+        TvContentRating[] ratings = InternPool.getContentRatings(commaSeparatedRatings);
+        return ratings != null ? ratings.clone() : null;
     }
 
     /**
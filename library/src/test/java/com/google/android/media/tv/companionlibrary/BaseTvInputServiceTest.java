@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import android.content.Intent;
+import android.media.tv.TvContentRating;
+import android.media.tv.TvInputManager;
+
+import com.google.android.media.tv.companionlibrary.utils.FakeTvInputManagerService;
+import com.google.android.media.tv.companionlibrary.utils.ParentalControlsCache;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link BaseTvInputService} reads the parental control settings again after they
+ * change.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class BaseTvInputServiceTest extends TestCase {
+    private static final TvContentRating TV_14 =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_14");
+
+    @Test
+    public void testParentalControlsBroadcastsInvalidateCache() {
+        FakeTvInputManagerService service = new FakeTvInputManagerService();
+        TvInputManager tvInputManager = service.createTvInputManager();
+        ParentalControlsCache cache = BaseTvInputService.mParentalControlsCache;
+        cache.invalidate();
+        BaseTvInputService tvInputService = new TestTvInputService();
+
+        service.setBlockedRatings(TV_14);
+        assertTrue(cache.isRatingBlocked(tvInputManager, TV_14));
+        service.setBlockedRatings();
+        assertTrue(cache.isRatingBlocked(tvInputManager, TV_14));
+        tvInputService.mParentalControlsBroadcastReceiver.onReceive(
+                RuntimeEnvironment.application,
+                new Intent(TvInputManager.ACTION_BLOCKED_RATINGS_CHANGED));
+        assertFalse(cache.isRatingBlocked(tvInputManager, TV_14));
+
+        assertTrue(cache.isParentalControlsEnabled(tvInputManager));
+        service.setParentalControlsEnabled(false);
+        assertTrue(cache.isParentalControlsEnabled(tvInputManager));
+        tvInputService.mParentalControlsBroadcastReceiver.onReceive(
+                RuntimeEnvironment.application,
+                new Intent(TvInputManager.ACTION_PARENTAL_CONTROLS_ENABLED_CHANGED));
+        assertFalse(cache.isParentalControlsEnabled(tvInputManager));
+    }
+
+    private static final class TestTvInputService extends BaseTvInputService {
+        @Override
+        public Session onCreateSession(String inputId) {
+            return null;
+        }
+    }
+}
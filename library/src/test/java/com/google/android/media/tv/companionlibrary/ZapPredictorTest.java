@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.utils.ChannelMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+/**
+ * Tests that {@link ZapPredictor.AdjacentChannels} predicts channel up and channel down, in
+ * display number order.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class ZapPredictorTest extends TestCase {
+    private ChannelMap mChannelMap;
+
+    @Before
+    public void setUp() {
+        // Ids that do not follow the display numbers: 9, 9-1, 10, 11
+        mChannelMap = createChannelMap(
+                createChannel(40, "9"),
+                createChannel(10, "10"),
+                createChannel(30, "9-1"),
+                createChannel(20, "11"));
+    }
+
+    @Test
+    public void testPredictsNextChannelFirst() {
+        List<Channel> predicted =
+                new ZapPredictor.AdjacentChannels().predictNextChannels(mChannelMap, 30);
+        assertDisplayNumbers(predicted, "10", "9");
+
+        predicted = new ZapPredictor.AdjacentChannels(2).predictNextChannels(mChannelMap, 30);
+        assertDisplayNumbers(predicted, "10", "9", "11");
+    }
+
+    @Test
+    public void testWrapsAround() {
+        ZapPredictor predictor = new ZapPredictor.AdjacentChannels();
+        // Channel up from the last channel goes to the first one, and down from the first one to
+        // the last one.
+        assertDisplayNumbers(predictor.predictNextChannels(mChannelMap, 20), "9", "10");
+        assertDisplayNumbers(predictor.predictNextChannels(mChannelMap, 40), "9-1", "11");
+
+        predictor = new ZapPredictor.AdjacentChannels(10);
+        assertDisplayNumbers(predictor.predictNextChannels(mChannelMap, 20), "9", "10", "9-1");
+    }
+
+    @Test
+    public void testNoPrediction() {
+        ZapPredictor predictor = new ZapPredictor.AdjacentChannels();
+        assertTrue(predictor.predictNextChannels(mChannelMap, 50).isEmpty());
+        assertTrue(predictor.predictNextChannels(
+                createChannelMap(createChannel(1, "1")), 1).isEmpty());
+        assertTrue(predictor.predictNextChannels(ChannelMap.EMPTY, 1).isEmpty());
+    }
+
+    private static void assertDisplayNumbers(List<Channel> channels, String... displayNumbers) {
+        assertEquals(displayNumbers.length, channels.size());
+        for (int i = 0; i < displayNumbers.length; i++) {
+            assertEquals(displayNumbers[i], channels.get(i).getDisplayNumber());
+        }
+    }
+
+    private static ChannelMap createChannelMap(Channel... channels) {
+        LongSparseArray<Channel> channelArray = new LongSparseArray<>();
+        for (Channel channel : channels) {
+            channelArray.put(channel.getId(), channel);
+        }
+        return new ChannelMap(channelArray);
+    }
+
+    private static Channel createChannel(long id, String displayNumber) {
+        ContentValues values = new Channel.Builder()
+                .setDisplayName("Channel " + displayNumber)
+                .setDisplayNumber(displayNumber)
+                .setOriginalNetworkId(1)
+                .build()
+                .toContentValues();
+        values.put(TvContract.Channels._ID, id);
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION);
+        MatrixCursor.RowBuilder builder = cursor.newRow();
+        for (String column : Channel.PROJECTION) {
+            builder.add(column, values.get(column));
+        }
+        cursor.moveToFirst();
+        return Channel.fromCursor(cursor);
+    }
+}
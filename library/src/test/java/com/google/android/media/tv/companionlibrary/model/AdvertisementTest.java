@@ -24,10 +24,13 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -62,6 +65,38 @@ public class AdvertisementTest {
         compareAdvertisement(ADVERTISEMENT, advertisementCopy);
     }
 
+    @Test
+    public void testAdPod() throws InternalProviderData.ParseException {
+        List<String> requestUrls = Arrays.asList(AD_REQUEST_URL, AD_REQUEST_URL + "&pos=2",
+                AD_REQUEST_URL + "&pos=3");
+        Advertisement pod = new Advertisement.Builder(ADVERTISEMENT)
+                .setRequestUrls(requestUrls)
+                .build();
+        assertTrue(pod.isPod());
+        assertEquals(requestUrls, pod.getRequestUrls());
+        assertEquals(AD_REQUEST_URL, pod.getRequestUrl());
+        assertFalse(pod.equals(ADVERTISEMENT));
+        assertEquals(pod, new Advertisement.Builder(pod).build());
+
+        // A single request url is a plain advertisement.
+        assertFalse(ADVERTISEMENT.isPod());
+        assertEquals(Collections.singletonList(AD_REQUEST_URL), ADVERTISEMENT.getRequestUrls());
+        assertEquals(ADVERTISEMENT, new Advertisement.Builder(ADVERTISEMENT)
+                .setRequestUrls(Collections.singletonList(AD_REQUEST_URL))
+                .build());
+
+        // Pods survive both the JSON and the binary form of InternalProviderData.
+        InternalProviderData data = new InternalProviderData();
+        data.setAds(Arrays.asList(pod, new Advertisement.Builder(ADVERTISEMENT)
+                .setStartTimeUtcMillis(10)
+                .setStopTimeUtcMillis(20)
+                .build()));
+        assertEquals(data.getAds(), new InternalProviderData(data.toString()).getAds());
+        assertEquals(data.getAds(), new InternalProviderData(data.toByteArray()).getAds());
+        assertEquals(requestUrls,
+                new InternalProviderData(data.toByteArray()).getAds().get(0).getRequestUrls());
+    }
+
     @Test
     public void testInvalidType() {
         try {
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.model;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.media.tv.TvContentRating;
+import android.media.tv.TvContract;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the cursor mappers read the same values as the positional {@code fromCursor}
+ * methods.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class CursorMapperTest extends TestCase {
+    private static final String[] GENRES = new String[] {
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.MOVIES),
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.NEWS,
+                    TvContract.Programs.Genres.SPORTS),
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.FAMILY_KIDS)
+    };
+    private static final String[] RATINGS = new String[] {
+            "com.android.tv/US_TV/US_TV_Y7",
+            "com.android.tv/US_TV/US_TV_PG,com.android.tv/US_TV/US_TV_14",
+            "com.android.tv/US_MV/US_MV_R"
+    };
+
+    @Test
+    public void testProgramMapperMatchesFromCursor() {
+        MatrixCursor cursor = getProgramCursor(4);
+        Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+        while (cursor.moveToNext()) {
+            Program expected = Program.fromCursor(cursor);
+            assertEquals(expected, mapper.read(cursor));
+        }
+    }
+
+    @Test
+    public void testProgramMapperReadInto() {
+        MatrixCursor cursor = getProgramCursor(4);
+        Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+        Program holder = mapper.newHolder();
+        while (cursor.moveToNext()) {
+            Program expected = Program.fromCursor(cursor);
+            assertSame(holder, mapper.readInto(cursor, holder));
+            assertEquals(expected, holder);
+            assertEquals(expected, new Program.Builder(holder).build());
+        }
+    }
+
+    @Test
+    public void testProgramMapperSharesDecodedValues() {
+        MatrixCursor cursor = getProgramCursor(2 * RATINGS.length);
+        Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+        List<Program> programs = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            programs.add(mapper.read(cursor));
+        }
+        // Rows with the same encoded value share a single decoded array.
+        Program first = programs.get(0);
+        Program repeat = programs.get(RATINGS.length);
+        assertSame(first.getContentRatings(), repeat.getContentRatings());
+        assertSame(first.getCanonicalGenres(), repeat.getCanonicalGenres());
+    }
+
+    @Test
+    public void testProgramMapperMissingColumns() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                TvContract.Programs.COLUMN_TITLE,
+                TvContract.Programs.COLUMN_START_TIME_UTC_MILLIS,
+                TvContract.Programs.COLUMN_END_TIME_UTC_MILLIS
+        });
+        cursor.addRow(new Object[] {"Title", 0L, 1000L});
+        cursor.moveToFirst();
+        Program program = new Program.CursorMapper(cursor).read(cursor);
+        assertEquals("Title", program.getTitle());
+        assertEquals(1000, program.getEndTimeUtcMillis());
+        assertNull(program.getContentRatings());
+    }
+
+    @Test
+    public void testChannelMapperMatchesFromCursor() {
+        MatrixCursor cursor = getChannelCursor(4);
+        Channel.CursorMapper mapper = new Channel.CursorMapper(cursor);
+        while (cursor.moveToNext()) {
+            Channel expected = Channel.fromCursor(cursor);
+            assertEquals(expected.toString(), mapper.read(cursor).toString());
+        }
+    }
+
+    @Test
+    public void testChannelMapperRequiresOriginalNetworkId() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {
+                TvContract.Channels.COLUMN_DISPLAY_NAME
+        });
+        cursor.addRow(new Object[] {"Channel"});
+        cursor.moveToFirst();
+        try {
+            new Channel.CursorMapper(cursor).read(cursor);
+            fail("A channel should not be allowed to exist with an undefined original network id.");
+        } catch (IllegalArgumentException ignored) {
+            // Exception correctly handled
+        }
+    }
+
+    @Test
+    public void testProgramMapperMultipleRatings() {
+        MatrixCursor cursor = getProgramCursor(RATINGS.length);
+        Program.CursorMapper mapper = new Program.CursorMapper(cursor);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TvContentRating[] ratings = mapper.read(cursor).getContentRatings();
+            assertTrue(Arrays.equals(getContentRatings(RATINGS[i]), ratings));
+        }
+        cursor.moveToPosition(1);
+        TvContentRating[] ratings = mapper.read(cursor).getContentRatings();
+        assertEquals(2, ratings.length);
+        assertEquals("com.android.tv/US_TV/US_TV_PG", ratings[0].flattenToString());
+        assertEquals("com.android.tv/US_TV/US_TV_14", ratings[1].flattenToString());
+    }
+
+    private static MatrixCursor getProgramCursor(int rowCount) {
+        MatrixCursor cursor = new MatrixCursor(Program.PROJECTION, rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            Program program = new Program.Builder()
+                    .setChannelId(1)
+                    .setTitle("Program " + i)
+                    .setDescription("Description of program " + i)
+                    .setEpisodeNumber(i % 20 + 1)
+                    .setSeasonNumber(i % 5 + 1)
+                    .setCanonicalGenres(TvContract.Programs.Genres.decode(
+                            GENRES[i % GENRES.length]))
+                    .setContentRatings(getContentRatings(RATINGS[i % RATINGS.length]))
+                    .setThumbnailUri("http://www.example.com/programs/" + i + ".png")
+                    .setStartTimeUtcMillis(i * 1000L)
+                    .setEndTimeUtcMillis((i + 1) * 1000L)
+                    .build();
+            addRow(cursor, Program.PROJECTION, program.toContentValues());
+        }
+        return cursor;
+    }
+
+    private static TvContentRating[] getContentRatings(String commaSeparatedRatings) {
+        String[] flattenedRatings = commaSeparatedRatings.split(",");
+        TvContentRating[] ratings = new TvContentRating[flattenedRatings.length];
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = TvContentRating.unflattenFromString(flattenedRatings[i]);
+        }
+        return ratings;
+    }
+
+    private static MatrixCursor getChannelCursor(int rowCount) {
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION, rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            Channel channel = new Channel.Builder()
+                    .setDisplayName("Channel " + i)
+                    .setDisplayNumber(String.valueOf(i + 1))
+                    .setDescription("Description of channel " + i)
+                    .setOriginalNetworkId(i)
+                    .build();
+            addRow(cursor, Channel.PROJECTION, channel.toContentValues());
+        }
+        return cursor;
+    }
+
+    private static void addRow(MatrixCursor cursor, String[] projection,
+            ContentValues contentValues) {
+        MatrixCursor.RowBuilder builder = cursor.newRow();
+        for (String column : projection) {
+            builder.add(column, contentValues.get(column));
+        }
+    }
+}
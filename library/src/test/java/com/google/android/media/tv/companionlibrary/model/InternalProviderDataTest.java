@@ -16,6 +16,7 @@
 package com.google.android.media.tv.companionlibrary.model;
 
 import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.utils.TvContractUtils;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -25,7 +26,10 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests that core and custom data objects can be created using the InternalProviderData class
@@ -138,4 +142,199 @@ public class InternalProviderDataTest extends TestCase {
         assertFalse(internalProviderData.has(KEY_PREMIUM_CHANNEL));
         assertNull(internalProviderData.get(KEY_PREMIUM_CHANNEL));
     }
+
+    @Test
+    public void testBinaryEncoding() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = getSampleData(5);
+        byte[] encoded = internalProviderData.toByteArray();
+        InternalProviderData decoded = new InternalProviderData(encoded);
+        assertEquals(internalProviderData.getVideoType(), decoded.getVideoType());
+        assertEquals(internalProviderData.getVideoUrl(), decoded.getVideoUrl());
+        assertEquals(internalProviderData.isRepeatable(), decoded.isRepeatable());
+        assertEquals(internalProviderData.getRecordedProgramStartTime(),
+                decoded.getRecordedProgramStartTime());
+        assertEquals(internalProviderData.getAds(), decoded.getAds());
+        assertEquals(SPLASHSCREEN_URL, decoded.get(KEY_SPLASHSCREEN));
+        assertEquals(String.valueOf(true), decoded.get(KEY_PREMIUM_CHANNEL));
+        // Encoding is deterministic, so re-encoding gives back the same bytes.
+        assertTrue(Arrays.equals(encoded, decoded.toByteArray()));
+    }
+
+    @Test
+    public void testJsonBackwardCompatibility() throws InternalProviderData.ParseException {
+        // Rows written by earlier versions hold the JSON text of the data.
+        InternalProviderData internalProviderData = getSampleData(5);
+        byte[] json = internalProviderData.toString().getBytes(StandardCharsets.UTF_8);
+        InternalProviderData decoded = new InternalProviderData(json);
+        assertEquals(internalProviderData.getVideoUrl(), decoded.getVideoUrl());
+        assertEquals(internalProviderData.getAds(), decoded.getAds());
+        assertEquals(SPLASHSCREEN_URL, decoded.get(KEY_SPLASHSCREEN));
+        assertTrue(Arrays.equals(internalProviderData.toByteArray(), decoded.toByteArray()));
+    }
+
+    @Test
+    public void testMalformedBinaryEncoding() {
+        byte[] encoded = getSampleData(5).toByteArray();
+        try {
+            new InternalProviderData(Arrays.copyOf(encoded, encoded.length / 2));
+            fail("Truncated data should not be parsed.");
+        } catch (InternalProviderData.ParseException e) {
+            // Exception correctly handled
+        }
+    }
+
+    @Test
+    public void testBinaryEncodingIsSmaller() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = getSampleData(4);
+        byte[] json = internalProviderData.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] binary = internalProviderData.toByteArray();
+
+        assertTrue(binary.length < json.length);
+        assertEquals(new InternalProviderData(json), new InternalProviderData(binary));
+    }
+
+    @Test
+    public void testUnsupportedJsonAdType() {
+        String[] malformed = new String[] {
+                "{\"advertisements\":[{\"start\":0,\"stop\":1000,\"type\":7}]}",
+                "{\"advertisements\":[{\"start\":0,\"stop\":1000}]}"
+        };
+        for (String json : malformed) {
+            try {
+                new InternalProviderData(json.getBytes(StandardCharsets.UTF_8));
+                fail("An ad without a supported type should not be parsed: " + json);
+            } catch (InternalProviderData.ParseException e) {
+                // Exception correctly handled
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedBinaryAdType() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        // Zigzag varints 0x78 and 0x7A, followed by the type
+        internalProviderData.setAds(Arrays.asList(new Advertisement.Builder()
+                .setStartTimeUtcMillis(60)
+                .setStopTimeUtcMillis(121)
+                .setType(Advertisement.TYPE_VAST)
+                .build()));
+        byte[] encoded = internalProviderData.toByteArray();
+        int typeIndex = -1;
+        for (int i = 2; i < encoded.length; i++) {
+            if (encoded[i - 2] == 0x78 && encoded[i - 1] == 0x7A
+                    && encoded[i] == Advertisement.TYPE_VAST) {
+                assertEquals(-1, typeIndex);
+                typeIndex = i;
+            }
+        }
+        assertTrue(typeIndex >= 0);
+        encoded[typeIndex] = 5;
+        try {
+            new InternalProviderData(encoded);
+            fail("An unsupported ad type should not be parsed.");
+        } catch (InternalProviderData.ParseException e) {
+            // Exception correctly handled
+        }
+        // Programs holding the blob report it as missing rather than crashing.
+        Program program = new Program.Builder()
+                .setInternalProviderData(encoded)
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .build();
+        assertNull(program.getReadOnlyInternalProviderData());
+    }
+
+    @Test
+    public void testAdsAreSortedAndCached() {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        List<Advertisement> ads = new ArrayList<>();
+        for (int i = 4; i >= 0; i--) {
+            ads.add(new Advertisement.Builder()
+                    .setRequestUrl("http://example.com/vast.xml")
+                    .setStartTimeUtcMillis(i * 5000)
+                    .setStopTimeUtcMillis((i + 1) * 5000)
+                    .build());
+        }
+        internalProviderData.setAds(ads);
+        List<Advertisement> sortedAds = internalProviderData.getAds();
+        assertSame(sortedAds, internalProviderData.getAds());
+        for (int i = 0; i < sortedAds.size(); i++) {
+            assertEquals(i * 5000, sortedAds.get(i).getStartTimeUtcMillis());
+        }
+        try {
+            sortedAds.clear();
+            fail("The ads list should not be modifiable.");
+        } catch (UnsupportedOperationException ignored) {
+            // Exception correctly handled
+        }
+    }
+
+    @Test
+    public void testTypedCustomData() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = new InternalProviderData()
+                .putLong("count", 1L << 40)
+                .putDouble("ratio", 0.5)
+                .putBoolean(KEY_PREMIUM_CHANNEL, true)
+                .putString(KEY_SPLASHSCREEN, SPLASHSCREEN_URL)
+                .put("legacy", 42);
+        for (InternalProviderData data : new InternalProviderData[] {
+                internalProviderData,
+                new InternalProviderData(internalProviderData.toByteArray()),
+                new InternalProviderData(internalProviderData.toString())}) {
+            assertEquals(1L << 40, data.getLong("count", 0));
+            assertEquals(0.5, data.getDouble("ratio", 0));
+            assertTrue(data.getBoolean(KEY_PREMIUM_CHANNEL, false));
+            assertEquals(SPLASHSCREEN_URL, data.getString(KEY_SPLASHSCREEN));
+            // Values added with put() are stored as Strings, but can still be read as numbers.
+            assertEquals("42", data.get("legacy"));
+            assertEquals(42, data.getLong("legacy", 0));
+            assertEquals(-1, data.getLong("missing", -1));
+            assertEquals(internalProviderData, data);
+            assertEquals(internalProviderData.hashCode(), data.hashCode());
+        }
+    }
+
+    @Test
+    public void testEqualityAfterCustomData() throws InternalProviderData.ParseException {
+        // Keys that come after the custom data object must still be compared.
+        InternalProviderData providerData1 = new InternalProviderData();
+        providerData1.put(KEY_SPLASHSCREEN, SPLASHSCREEN_URL);
+        providerData1.setVideoUrl("http://example.com/stream1.m3u8");
+        InternalProviderData providerData2 = new InternalProviderData();
+        providerData2.put(KEY_SPLASHSCREEN, SPLASHSCREEN_URL);
+        providerData2.setVideoUrl("http://example.com/stream2.m3u8");
+        assertFalse(providerData1.equals(providerData2));
+    }
+
+    @Test
+    public void testUnknownKeysArePreserved() throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData =
+                new InternalProviderData("{\"url\":\"http://example.com\",\"extra\":[1,2.5]}");
+        InternalProviderData decoded =
+                new InternalProviderData(internalProviderData.toByteArray());
+        assertEquals(internalProviderData, decoded);
+        assertTrue(decoded.toString().contains("\"extra\":[1,2.5]"));
+    }
+
+    private static InternalProviderData getSampleData(int adCount)
+            throws InternalProviderData.ParseException {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setVideoType(TvContractUtils.SOURCE_TYPE_HLS);
+        internalProviderData.setVideoUrl("http://example.com/stream.m3u8");
+        internalProviderData.setRepeatable(true);
+        internalProviderData.setRecordingStartTime(1477000000000L);
+        List<Advertisement> ads = new ArrayList<>();
+        for (int i = 0; i < adCount; i++) {
+            ads.add(new Advertisement.Builder()
+                    .setRequestUrl("http://example.com/vast.xml?ad=" + i)
+                    .setStartTimeUtcMillis(1477000000000L + i * 60000)
+                    .setStopTimeUtcMillis(1477000000000L + i * 60000 + 30000)
+                    .setType(Advertisement.TYPE_VAST)
+                    .build());
+        }
+        internalProviderData.setAds(ads);
+        internalProviderData.put(KEY_SPLASHSCREEN, SPLASHSCREEN_URL);
+        internalProviderData.put(KEY_PREMIUM_CHANNEL, true);
+        return internalProviderData;
+    }
 }
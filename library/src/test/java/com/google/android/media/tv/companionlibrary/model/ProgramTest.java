@@ -116,6 +116,72 @@ public class ProgramTest extends TestCase {
         compareProgram(fullyPopulatedProgram, clonedFullyPopulatedProgram);
     }
 
+    @Test
+    public void testInternalProviderDataEquality() {
+        // Programs stored by earlier versions hold JSON text instead of the binary encoding. They
+        // differ from the same program with binary data, so that the sync migrates them.
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setVideoUrl("http://example.com/stream.m3u8");
+        Program program = new Program.Builder()
+                .setInternalProviderData(internalProviderData)
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .build();
+        Program jsonProgram = new Program.Builder(program)
+                .setInternalProviderData(internalProviderData.toString().getBytes())
+                .build();
+        assertFalse(program.equals(jsonProgram));
+        assertEquals(program.getReadOnlyInternalProviderData(),
+                jsonProgram.getReadOnlyInternalProviderData());
+        assertEquals(program, new Program.Builder(jsonProgram)
+                .setInternalProviderData(internalProviderData)
+                .build());
+
+        internalProviderData.setVideoUrl("http://example.com/other.m3u8");
+        Program otherProgram = new Program.Builder(program)
+                .setInternalProviderData(internalProviderData)
+                .build();
+        assertFalse(program.equals(otherProgram));
+    }
+
+    @Test
+    public void testReadOnlyInternalProviderData() {
+        // Tests that the parsed data is cached, cannot be changed, and is replaced along with the
+        // underlying data.
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setVideoUrl("http://example.com/stream.m3u8");
+        Program program = new Program.Builder()
+                .setInternalProviderData(internalProviderData)
+                .setStartTimeUtcMillis(0)
+                .setEndTimeUtcMillis(1000)
+                .build();
+
+        InternalProviderData readOnlyData = program.getReadOnlyInternalProviderData();
+        assertEquals(internalProviderData, readOnlyData);
+        assertTrue(readOnlyData.isReadOnly());
+        assertSame(readOnlyData, program.getReadOnlyInternalProviderData());
+        assertSame(readOnlyData, new Program.Builder(program).build()
+                .getReadOnlyInternalProviderData());
+        try {
+            readOnlyData.setVideoUrl("http://example.com/other.m3u8");
+            fail("Cached internal provider data should not be modifiable.");
+        } catch (UnsupportedOperationException ignored) {
+            // Exception correctly handled
+        }
+
+        // Copies are modifiable and independent of the cached data.
+        InternalProviderData copy = program.getInternalProviderData();
+        assertFalse(copy.isReadOnly());
+        copy.setVideoUrl("http://example.com/other.m3u8");
+        assertEquals("http://example.com/stream.m3u8", readOnlyData.getVideoUrl());
+
+        Program updatedProgram = new Program.Builder(program)
+                .setInternalProviderData(copy)
+                .build();
+        assertEquals("http://example.com/other.m3u8",
+                updatedProgram.getReadOnlyInternalProviderData().getVideoUrl());
+    }
+
     private static void compareProgram(Program programA, Program programB) {
         assertTrue(Objects.equals(programA.getAudioLanguages(), programB.getAudioLanguages()));
         assertTrue(Arrays.deepEquals(programA.getBroadcastGenres(), programB.getBroadcastGenres()));
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link AdResponseCache} ignores cache-busting parameters and expires its entries.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class AdResponseCacheTest extends TestCase {
+    private static final String AD_TAG_URL =
+            "https://example.com/ads?sz=640x480&output=vast&correlator=";
+    private static final String RESPONSE = "<VAST version=\"3.0\"></VAST>";
+
+    @Test
+    public void testCacheKey() {
+        assertEquals(AdResponseCache.getCacheKey("https://example.com/ads?sz=640x480&output=vast"),
+                AdResponseCache.getCacheKey(AD_TAG_URL));
+        assertEquals(AdResponseCache.getCacheKey(AD_TAG_URL),
+                AdResponseCache.getCacheKey(AD_TAG_URL + "12345"));
+        assertFalse(AdResponseCache.getCacheKey(AD_TAG_URL).equals(
+                AdResponseCache.getCacheKey(AD_TAG_URL.replace("640x480", "300x250"))));
+        assertEquals("https://example.com/vast.xml",
+                AdResponseCache.getCacheKey("https://example.com/vast.xml"));
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        AdResponseCache cache = new AdResponseCache();
+        cache.setTtlMillis(1000);
+
+        assertNull(cache.getResponse(AD_TAG_URL, 0));
+        cache.putResponse(AD_TAG_URL, RESPONSE, 0);
+        cache.putAdVideoUrl(AD_TAG_URL, "https://example.com/ad.mp4", 0);
+        assertEquals(RESPONSE, cache.getResponse(AD_TAG_URL + "67890", 999));
+        assertEquals("https://example.com/ad.mp4", cache.getAdVideoUrl(AD_TAG_URL, 999));
+        assertNull(cache.getResponse(AD_TAG_URL, 1000));
+        assertNull(cache.getAdVideoUrl(AD_TAG_URL, 1000));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        AdResponseCache cache = new AdResponseCache();
+        cache.setTtlMillis(0);
+        cache.putResponse(AD_TAG_URL, RESPONSE, 0);
+        assertNull(cache.getResponse(AD_TAG_URL, 0));
+
+        cache.setTtlMillis(1000);
+        cache.putResponse(AD_TAG_URL, RESPONSE, 0);
+        cache.clear();
+        assertNull(cache.getResponse(AD_TAG_URL, 0));
+        // Storing a video URL needs a cached response.
+        cache.putAdVideoUrl(AD_TAG_URL, "https://example.com/ad.mp4", 0);
+        assertNull(cache.getAdVideoUrl(AD_TAG_URL, 0));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+/**
+ * Tests that {@link AdTimeline} maps between wall-clock time, content position and time-shift
+ * position.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class AdTimelineTest extends TestCase {
+    private static final long PROGRAM_START_TIME_MS = 100000;
+
+    @Test
+    public void testNextAd() {
+        Advertisement first = createAd(1000, 2000);
+        Advertisement second = createAd(5000, 5500);
+        Advertisement third = createAd(9000, 10000);
+        // The ads are given out of order.
+        AdTimeline timeline = new AdTimeline(PROGRAM_START_TIME_MS,
+                Arrays.asList(third, first, second));
+
+        assertEquals(3, timeline.size());
+        assertEquals(first, timeline.getNextAd(PROGRAM_START_TIME_MS));
+        // An ad that has started but not stopped is still returned.
+        assertEquals(first, timeline.getNextAd(PROGRAM_START_TIME_MS + 1500));
+        assertEquals(second, timeline.getNextAd(PROGRAM_START_TIME_MS + 2000));
+        assertEquals(third, timeline.getNextAd(PROGRAM_START_TIME_MS + 5500));
+        assertNull(timeline.getNextAd(PROGRAM_START_TIME_MS + 10000));
+    }
+
+    @Test
+    public void testTimeToContentPosition() {
+        AdTimeline timeline = new AdTimeline(PROGRAM_START_TIME_MS,
+                Arrays.asList(createAd(1000, 2000), createAd(5000, 5500), createAd(9000, 10000)));
+
+        assertEquals(0, timeline.getAdDurationBefore(PROGRAM_START_TIME_MS + 1500));
+        assertEquals(1000, timeline.getAdDurationBefore(PROGRAM_START_TIME_MS + 3000));
+        assertEquals(1500, timeline.getAdDurationBefore(PROGRAM_START_TIME_MS + 9500));
+        assertEquals(2500, timeline.getAdDurationBefore(PROGRAM_START_TIME_MS + 20000));
+        assertEquals(500, timeline.getContentPosition(PROGRAM_START_TIME_MS + 500));
+        assertEquals(2000, timeline.getContentPosition(PROGRAM_START_TIME_MS + 3000));
+        assertEquals(8000, timeline.getContentPosition(PROGRAM_START_TIME_MS + 10500));
+    }
+
+    @Test
+    public void testContentPositionToTime() {
+        AdTimeline timeline = new AdTimeline(PROGRAM_START_TIME_MS,
+                Arrays.asList(createAd(1000, 2000), createAd(5000, 5500), createAd(9000, 10000)));
+
+        // The ads start at content positions 1000, 4000 and 7500.
+        assertEquals(0, timeline.getAdDurationBeforeContentPosition(1000));
+        assertEquals(1000, timeline.getAdDurationBeforeContentPosition(1001));
+        assertEquals(1000, timeline.getAdDurationBeforeContentPosition(4000));
+        assertEquals(1500, timeline.getAdDurationBeforeContentPosition(7500));
+        assertEquals(2500, timeline.getAdDurationBeforeContentPosition(7501));
+        assertEquals(PROGRAM_START_TIME_MS + 500, timeline.getTimeShiftPosition(500));
+        assertEquals(PROGRAM_START_TIME_MS + 3000, timeline.getTimeShiftPosition(2000));
+        assertEquals(PROGRAM_START_TIME_MS + 10500, timeline.getTimeShiftPosition(8000));
+
+        // Both mappings agree outside of the ad breaks.
+        for (long positionMs : new long[] {0, 500, 2000, 4500, 8000}) {
+            assertEquals(positionMs,
+                    timeline.getContentPosition(timeline.getTimeShiftPosition(positionMs)));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, AdTimeline.EMPTY.size());
+        assertNull(AdTimeline.EMPTY.getNextAd(0));
+        AdTimeline timeline = new AdTimeline(PROGRAM_START_TIME_MS, null);
+        assertEquals(1000, timeline.getContentPosition(PROGRAM_START_TIME_MS + 1000));
+        assertEquals(PROGRAM_START_TIME_MS + 1000, timeline.getTimeShiftPosition(1000));
+    }
+
+    private static Advertisement createAd(long startOffsetMs, long stopOffsetMs) {
+        return new Advertisement.Builder()
+                .setStartTimeUtcMillis(PROGRAM_START_TIME_MS + startOffsetMs)
+                .setStopTimeUtcMillis(PROGRAM_START_TIME_MS + stopOffsetMs)
+                .setType(Advertisement.TYPE_VAST)
+                .setRequestUrl("http://example.com/vast?ad=" + startOffsetMs)
+                .build();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Channel;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link ChannelMapStore} reads back the channels it wrote.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class ChannelMapStoreTest extends TestCase {
+    private static final String INPUT_ID =
+            "com.example.android.sampletvinput/.rich.RichTvInputService";
+
+    @Test
+    public void testRoundTrip() {
+        Context context = RuntimeEnvironment.application;
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setVideoUrl("http://example.com/stream.m3u8");
+        LongSparseArray<Channel> channels = new LongSparseArray<>();
+        channels.put(1, createChannel(1, "1", null));
+        channels.put(2, createChannel(2, "2-1", internalProviderData));
+        ChannelMapStore.write(context, INPUT_ID, new ChannelMap(channels));
+
+        ChannelMap channelMap = ChannelMapStore.read(context, INPUT_ID);
+        assertNotNull(channelMap);
+        assertEquals(2, channelMap.size());
+        assertEquals(channels.get(1).toContentValues(), channelMap.get(1).toContentValues());
+        assertEquals(channels.get(2).toContentValues(), channelMap.get(2).toContentValues());
+        assertEquals("http://example.com/stream.m3u8",
+                channelMap.get(2).getReadOnlyInternalProviderData().getVideoUrl());
+
+        assertNull(ChannelMapStore.read(context, INPUT_ID + "2"));
+        ChannelMapStore.delete(context, INPUT_ID);
+        assertNull(ChannelMapStore.read(context, INPUT_ID));
+    }
+
+    private static Channel createChannel(long id, String displayNumber,
+            InternalProviderData internalProviderData) {
+        Channel.Builder builder = new Channel.Builder()
+                .setDisplayName("Channel " + displayNumber)
+                .setDisplayNumber(displayNumber)
+                .setInputId(INPUT_ID)
+                .setOriginalNetworkId(1);
+        if (internalProviderData != null) {
+            builder.setInternalProviderData(internalProviderData);
+        }
+        ContentValues values = builder.build().toContentValues();
+        values.put(TvContract.Channels._ID, id);
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION);
+        MatrixCursor.RowBuilder row = cursor.newRow();
+        for (String column : Channel.PROJECTION) {
+            row.add(column, values.get(column));
+        }
+        cursor.moveToFirst();
+        return Channel.fromCursor(cursor);
+    }
+}
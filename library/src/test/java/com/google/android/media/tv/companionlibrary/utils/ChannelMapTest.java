@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.util.LongSparseArray;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Channel;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+/**
+ * Tests lookups and updates of {@link ChannelMap} snapshots.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class ChannelMapTest extends TestCase {
+    @Test
+    public void testLookup() {
+        LongSparseArray<Channel> channels = new LongSparseArray<>();
+        channels.put(30, createChannel(30, "10"));
+        channels.put(10, createChannel(10, "9"));
+        channels.put(20, createChannel(20, "9-1"));
+        ChannelMap channelMap = new ChannelMap(channels);
+
+        assertEquals(3, channelMap.size());
+        assertEquals("9-1", channelMap.get(20).getDisplayNumber());
+        assertNull(channelMap.get(40));
+        assertEquals(30, channelMap.getByDisplayNumber("10").getId());
+        assertNull(channelMap.getByDisplayNumber("11"));
+
+        List<Channel> ordered = channelMap.getChannelsByDisplayNumber();
+        assertEquals(10, ordered.get(0).getId());
+        assertEquals(20, ordered.get(1).getId());
+        assertEquals(30, ordered.get(2).getId());
+
+        // The snapshot does not follow changes to the array it was built from.
+        channels.remove(30);
+        assertNotNull(channelMap.get(30));
+    }
+
+    @Test
+    public void testUpdate() {
+        LongSparseArray<Channel> channels = new LongSparseArray<>();
+        channels.put(1, createChannel(1, "1"));
+        channels.put(2, createChannel(2, "2"));
+        ChannelMap channelMap = new ChannelMap(channels);
+
+        LongSparseArray<Channel> changedChannels = new LongSparseArray<>();
+        changedChannels.put(2, createChannel(2, "5"));
+        changedChannels.put(3, createChannel(3, "3"));
+        ChannelMap updated = channelMap.update(new long[] {1, 2, 3}, changedChannels);
+
+        assertNull(updated.get(1));
+        assertEquals("5", updated.get(2).getDisplayNumber());
+        assertEquals("3", updated.get(3).getDisplayNumber());
+        assertEquals(3, updated.getChannelsByDisplayNumber().get(0).getId());
+        assertNull(updated.getByDisplayNumber("2"));
+
+        // The original snapshot is unchanged.
+        assertEquals(2, channelMap.size());
+        assertEquals("2", channelMap.get(2).getDisplayNumber());
+    }
+
+    @Test
+    public void testAdjacentChannels() {
+        LongSparseArray<Channel> channels = new LongSparseArray<>();
+        for (int i = 1; i <= 5; i++) {
+            channels.put(i, createChannel(i, String.valueOf(i)));
+        }
+        ChannelMap channelMap = new ChannelMap(channels);
+
+        List<Channel> adjacent = channelMap.getAdjacentChannels(3, 1);
+        assertEquals(2, adjacent.size());
+        assertEquals(4, adjacent.get(0).getId());
+        assertEquals(2, adjacent.get(1).getId());
+
+        // Channel up from the last channel goes back to the first one.
+        adjacent = channelMap.getAdjacentChannels(5, 2);
+        assertEquals(4, adjacent.size());
+        assertEquals(1, adjacent.get(0).getId());
+        assertEquals(4, adjacent.get(1).getId());
+        assertEquals(2, adjacent.get(2).getId());
+        assertEquals(3, adjacent.get(3).getId());
+
+        // Each channel is returned at most once.
+        assertEquals(4, channelMap.getAdjacentChannels(1, 10).size());
+        assertTrue(channelMap.getAdjacentChannels(6, 1).isEmpty());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(ChannelMap.EMPTY.isEmpty());
+        assertNull(ChannelMap.EMPTY.get(1));
+        assertTrue(new ChannelMap(null).getChannelsByDisplayNumber().isEmpty());
+    }
+
+    @Test
+    public void testCompareDisplayNumbers() {
+        assertTrue(ChannelMap.compareDisplayNumbers("9", "10") < 0);
+        assertTrue(ChannelMap.compareDisplayNumbers("7-2", "7-10") < 0);
+        assertTrue(ChannelMap.compareDisplayNumbers("7", "7-1") < 0);
+        assertTrue(ChannelMap.compareDisplayNumbers("12.1", "7.1") > 0);
+        assertEquals(0, ChannelMap.compareDisplayNumbers("4", "4"));
+        assertTrue(ChannelMap.compareDisplayNumbers("1", null) < 0);
+    }
+
+    private static Channel createChannel(long id, String displayNumber) {
+        ContentValues values = new Channel.Builder()
+                .setDisplayName("Channel " + displayNumber)
+                .setDisplayNumber(displayNumber)
+                .setOriginalNetworkId(1)
+                .build()
+                .toContentValues();
+        values.put(TvContract.Channels._ID, id);
+        MatrixCursor cursor = new MatrixCursor(Channel.PROJECTION);
+        MatrixCursor.RowBuilder builder = cursor.newRow();
+        for (String column : Channel.PROJECTION) {
+            builder.add(column, values.get(column));
+        }
+        cursor.moveToFirst();
+        return Channel.fromCursor(cursor);
+    }
+}
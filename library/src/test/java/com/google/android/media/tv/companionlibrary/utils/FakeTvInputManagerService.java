@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.media.tv.TvContentRating;
+import android.media.tv.TvInputManager;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stands in for the system server behind a {@link TvInputManager}, with parental control
+ * settings kept in memory, and counts how often they are read.
+ */
+public final class FakeTvInputManagerService implements InvocationHandler {
+    private boolean mParentalControlsEnabled = true;
+    private final Set<String> mBlockedRatings = new HashSet<>();
+    private int mCallCount;
+
+    /**
+     * @return A {@link TvInputManager} that reads its settings from this service.
+     */
+    public TvInputManager createTvInputManager() {
+        try {
+            // Hidden from the SDK, so it is only reachable by reflection.
+            Class<?> serviceClass = Class.forName("android.media.tv.ITvInputManager", true,
+                    TvInputManager.class.getClassLoader());
+            Object service = Proxy.newProxyInstance(serviceClass.getClassLoader(),
+                    new Class<?>[] {serviceClass}, this);
+            Constructor<TvInputManager> constructor =
+                    TvInputManager.class.getDeclaredConstructor(serviceClass, int.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(service, 0);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void setParentalControlsEnabled(boolean enabled) {
+        mParentalControlsEnabled = enabled;
+    }
+
+    public synchronized void setBlockedRatings(TvContentRating... ratings) {
+        mBlockedRatings.clear();
+        for (TvContentRating rating : ratings) {
+            mBlockedRatings.add(rating.flattenToString());
+        }
+    }
+
+    /**
+     * @return How many times the parental control settings were read.
+     */
+    public synchronized int getCallCount() {
+        return mCallCount;
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "isParentalControlsEnabled":
+                mCallCount++;
+                return mParentalControlsEnabled;
+            case "isRatingBlocked":
+                mCallCount++;
+                return mBlockedRatings.contains((String) args[0]);
+            case "getTvInputList":
+                return new ArrayList<>();
+            default:
+                return null;
+        }
+    }
+}
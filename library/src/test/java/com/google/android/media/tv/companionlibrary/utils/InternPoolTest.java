@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.media.tv.TvContentRating;
+import android.media.tv.TvContract;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Tests that {@link InternPool} hands back canonical instances, and that it only keeps a bounded
+ * number of them.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class InternPoolTest extends TestCase {
+    private static final int PROGRAM_COUNT = 1000;
+    // More values than the pool keeps of each kind
+    private static final int OVERFLOW_COUNT = 5000;
+    private static final String[] RATINGS = new String[] {
+            "com.android.tv/US_TV/US_TV_Y7",
+            "com.android.tv/US_TV/US_TV_PG",
+            "com.android.tv/US_TV/US_TV_14,com.android.tv/US_TV/US_TV_D",
+            "com.android.tv/US_MV/US_MV_PG13",
+            "com.android.tv/US_MV/US_MV_R"
+    };
+    private static final String[] GENRES = new String[] {
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.MOVIES),
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.NEWS,
+                    TvContract.Programs.Genres.SPORTS),
+            TvContract.Programs.Genres.encode(TvContract.Programs.Genres.FAMILY_KIDS,
+                    TvContract.Programs.Genres.ANIMAL_WILDLIFE)
+    };
+
+    @Before
+    public void setUp() {
+        InternPool.clear();
+    }
+
+    @Test
+    public void testInternString() {
+        String url = "http://example.com/video.mp4";
+        String copy = new String(url);
+        assertSame(url, InternPool.intern(url));
+        assertSame(url, InternPool.intern(copy));
+        assertNull(InternPool.intern(null));
+    }
+
+    @Test
+    public void testContentRatings() {
+        TvContentRating[] ratings = InternPool.getContentRatings(RATINGS[2]);
+        assertEquals(2, ratings.length);
+        assertEquals(TvContentRating.unflattenFromString("com.android.tv/US_TV/US_TV_14"),
+                ratings[0]);
+        assertEquals(TvContentRating.unflattenFromString("com.android.tv/US_TV/US_TV_D"),
+                ratings[1]);
+        assertSame(ratings, InternPool.getContentRatings(new String(RATINGS[2])));
+        assertSame(ratings[0], InternPool.getContentRating("com.android.tv/US_TV/US_TV_14"));
+        assertNull(InternPool.getContentRatings(null));
+        assertNull(InternPool.getContentRatings(""));
+        assertNull(InternPool.getContentRating(null));
+    }
+
+    @Test
+    public void testContentRatingsWhitespace() {
+        TvContentRating[] ratings = InternPool.getContentRatings(
+                " com.android.tv/US_TV/US_TV_14 ,  com.android.tv/US_TV/US_TV_D,");
+        assertTrue(Arrays.equals(InternPool.getContentRatings(RATINGS[2]), ratings));
+    }
+
+    @Test
+    public void testInternContentRatings() {
+        TvContentRating[] ratings = new TvContentRating[] {
+                TvContentRating.unflattenFromString("com.android.tv/US_TV/US_TV_14"),
+                TvContentRating.unflattenFromString("com.android.tv/US_TV/US_TV_D")
+        };
+        TvContentRating[] interned = InternPool.internContentRatings(ratings);
+        assertTrue(Arrays.equals(ratings, interned));
+        assertSame(interned, InternPool.getContentRatings(RATINGS[2]));
+        assertNull(InternPool.internContentRatings(null));
+    }
+
+    @Test
+    public void testGenres() {
+        String[] genres = InternPool.getGenres(GENRES[1]);
+        assertTrue(Arrays.equals(new String[] {TvContract.Programs.Genres.NEWS,
+                TvContract.Programs.Genres.SPORTS}, genres));
+        assertSame(genres, InternPool.getGenres(new String(GENRES[1])));
+        assertSame(genres, InternPool.internGenres(new String[] {
+                TvContract.Programs.Genres.NEWS, TvContract.Programs.Genres.SPORTS}));
+        assertEquals(0, InternPool.getGenres(null).length);
+        assertEquals(0, InternPool.getGenres("").length);
+    }
+
+    @Test
+    public void testEqualInputSharesInstances() {
+        Object[][] decoded = new Object[2][PROGRAM_COUNT];
+        for (int i = 0; i < PROGRAM_COUNT; i++) {
+            // Copies, as strings read from a cursor or a parser are distinct instances.
+            decoded[0][i] = InternPool.getContentRatings(new String(RATINGS[i % RATINGS.length]));
+            decoded[1][i] = InternPool.getGenres(new String(GENRES[i % GENRES.length]));
+        }
+        for (int i = RATINGS.length; i < PROGRAM_COUNT; i++) {
+            assertSame(decoded[0][i - RATINGS.length], decoded[0][i]);
+        }
+        for (int i = GENRES.length; i < PROGRAM_COUNT; i++) {
+            assertSame(decoded[1][i - GENRES.length], decoded[1][i]);
+        }
+        // One array per distinct value, holding 6 distinct ratings and 5 distinct genres
+        assertEquals(RATINGS.length + GENRES.length + 6 + 5, countDistinctInstances(decoded));
+    }
+
+    @Test
+    public void testEviction() {
+        String first = new String("http://example.com/0.png");
+        assertSame(first, InternPool.intern(first));
+        String[] firstGenres = InternPool.getGenres("Genre 0");
+        for (int i = 1; i < OVERFLOW_COUNT; i++) {
+            InternPool.intern("http://example.com/" + i + ".png");
+            InternPool.getGenres("Genre " + i);
+        }
+        // The least recently used values were dropped, so equal input gets new instances.
+        String copy = new String(first);
+        assertSame(copy, InternPool.intern(copy));
+        String[] genres = InternPool.getGenres(new String("Genre 0"));
+        assertNotSame(firstGenres, genres);
+        assertTrue(Arrays.equals(firstGenres, genres));
+        // Values that are still pooled keep their instance.
+        String last = "http://example.com/" + (OVERFLOW_COUNT - 1) + ".png";
+        String pooled = InternPool.intern(last);
+        assertSame(pooled, InternPool.intern(new String(last)));
+    }
+
+    /**
+     * Counts the distinct arrays and array elements reachable from the given values.
+     */
+    private static int countDistinctInstances(Object[][] values) {
+        Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Object[] column : values) {
+            for (Object value : column) {
+                instances.add(value);
+                instances.addAll(Arrays.asList((Object[]) value));
+            }
+        }
+        return instances.size();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that {@link NowNextCache} finds the program playing at a given time and knows when its
+ * entries need to be refreshed.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class NowNextCacheTest extends TestCase {
+    @Test
+    public void testCurrentAndNext() {
+        NowNextCache cache = new NowNextCache();
+        Program past = createProgram(0, 1000);
+        Program current = createProgram(1000, 2000);
+        Program next = createProgram(2000, 3000);
+        Program later = createProgram(3000, 4000);
+        cache.put(1, Arrays.asList(past, current, next, later), 1500);
+
+        assertEquals(current, cache.get(1, 1500));
+        assertEquals(next, cache.get(1, 2500));
+        assertEquals(later, cache.get(1, 3500));
+        assertNull(cache.get(1, 4500));
+        assertNull(cache.get(2, 1500));
+
+        assertFalse(cache.needsRefresh(1, 1999));
+        assertTrue(cache.needsRefresh(1, 2000));
+        assertTrue(cache.needsRefresh(2, 1500));
+        assertEquals(2000, cache.getNextRefreshTimeMs());
+    }
+
+    @Test
+    public void testGapBeforeNext() {
+        NowNextCache cache = new NowNextCache();
+        Program next = createProgram(2000, 3000);
+        cache.put(1, Collections.singletonList(next), 1500);
+
+        assertNull(cache.get(1, 1500));
+        assertEquals(next, cache.get(1, 2000));
+        assertEquals(2000, cache.getNextRefreshTimeMs());
+    }
+
+    @Test
+    public void testFollowingPrograms() {
+        NowNextCache cache = new NowNextCache();
+        Program current = createProgram(1000, 2000);
+        Program next = createProgram(2000, 3000);
+        Program afterNext = createProgram(3000, 4000);
+        // Starts after a gap, so it cannot be queued without one.
+        Program later = createProgram(4500, 5000);
+        cache.put(1, Arrays.asList(current, next, afterNext, later), 1500);
+
+        List<Program> following = cache.getFollowingPrograms(1, current, 5);
+        assertEquals(Arrays.asList(next, afterNext), following);
+        assertEquals(Collections.singletonList(next), cache.getFollowingPrograms(1, current, 1));
+        assertTrue(cache.getFollowingPrograms(1, afterNext, 5).isEmpty());
+        assertTrue(cache.getFollowingPrograms(1, createProgram(0, 1000), 5).isEmpty());
+        assertTrue(cache.getFollowingPrograms(2, current, 5).isEmpty());
+    }
+
+    @Test
+    public void testRetain() {
+        NowNextCache cache = new NowNextCache();
+        cache.put(1, Collections.singletonList(createProgram(0, 1000)), 0);
+        cache.put(2, Collections.singletonList(createProgram(0, 2000)), 0);
+        cache.put(3, Collections.<Program>emptyList(), 0);
+
+        cache.retain(new long[] {3, 2});
+        assertNull(cache.get(1, 500));
+        assertNotNull(cache.get(2, 500));
+        assertFalse(cache.needsRefresh(3, 0));
+        assertEquals(2000, cache.getNextRefreshTimeMs());
+
+        cache.clear();
+        assertEquals(Long.MAX_VALUE, cache.getNextRefreshTimeMs());
+    }
+
+    private static Program createProgram(long startTimeMs, long endTimeMs) {
+        return new Program.Builder()
+                .setTitle("Program " + startTimeMs)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(endTimeMs)
+                .build();
+    }
+}
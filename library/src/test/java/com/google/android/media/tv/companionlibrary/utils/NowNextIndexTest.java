@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.util.AtomicFile;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that {@link NowNextIndex} finds the programs of a channel within its window, and that
+ * {@link NowNextIndexStore} reads back the index it wrote, also when another process wrote it.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class NowNextIndexTest extends TestCase {
+    private static final String INPUT_ID =
+            "com.example.android.sampletvinput/.rich.RichTvInputService";
+    private static final long CHANNEL_ID = 7;
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long WINDOW_START_MS = 1000 * 60 * MINUTE_MS;
+    private static final long WINDOW_END_MS = WINDOW_START_MS + 60 * MINUTE_MS;
+    // Out of order, with a gap between B and C and programs on both edges of the window
+    private static final List<Program> PROGRAMS = Arrays.asList(
+            createProgram("C", 40, 70),
+            createProgram("A", -10, 10),
+            createProgram("B", 10, 30),
+            createProgram("Z", -30, -10));
+
+    @Test
+    public void testGetProgramAt() {
+        NowNextIndex index = createIndex();
+
+        assertEquals("A", index.getProgramAt(CHANNEL_ID, WINDOW_START_MS).getTitle());
+        assertEquals("B", index.getProgramAt(CHANNEL_ID, at(10)).getTitle());
+        assertEquals("C", index.getProgramAt(CHANNEL_ID, at(59)).getTitle());
+        assertNull(index.getProgramAt(CHANNEL_ID, at(35)));
+        // Outside the window, even if the program extends past it
+        assertNull(index.getProgramAt(CHANNEL_ID, WINDOW_END_MS));
+        assertNull(index.getProgramAt(CHANNEL_ID, WINDOW_START_MS - 1));
+        assertNull(index.getProgramAt(CHANNEL_ID + 1, at(10)));
+    }
+
+    @Test
+    public void testGetNextProgram() {
+        NowNextIndex index = createIndex();
+        Program a = index.getProgramAt(CHANNEL_ID, at(0));
+
+        Program b = index.getNextProgram(CHANNEL_ID, a);
+        assertEquals("B", b.getTitle());
+        assertNull(index.getNextProgram(CHANNEL_ID, b));
+    }
+
+    @Test
+    public void testGetPrograms() {
+        NowNextIndex index = createIndex();
+
+        List<Program> programs = index.getPrograms(CHANNEL_ID, at(5), at(45));
+        assertEquals(3, programs.size());
+        assertEquals("A", programs.get(0).getTitle());
+        assertEquals("B", programs.get(1).getTitle());
+        assertEquals("C", programs.get(2).getTitle());
+        assertEquals(0, index.getPrograms(CHANNEL_ID, at(31), at(39)).size());
+        assertNull(index.getPrograms(CHANNEL_ID, at(30), WINDOW_END_MS + 1));
+        assertNull(NowNextIndex.EMPTY.getPrograms(CHANNEL_ID, 0, 0));
+    }
+
+    @Test
+    public void testStoreRoundTrip() {
+        Context context = RuntimeEnvironment.application;
+        NowNextIndexStore.write(context, INPUT_ID, createIndex());
+        NowNextIndex written = NowNextIndexStore.peek(INPUT_ID);
+        NowNextIndexStore.delete(context, INPUT_ID);
+        NowNextIndex deleted = NowNextIndexStore.get(context, INPUT_ID);
+        assertNull(deleted.getProgramAt(CHANNEL_ID, at(10)));
+        NowNextIndexStore.delete(context, INPUT_ID);
+        // Sessions notice every change, even between two empty indexes.
+        assertNotSame(deleted, NowNextIndexStore.peek(INPUT_ID));
+
+        NowNextIndexStore.write(context, INPUT_ID, written);
+        NowNextIndex index = NowNextIndexStore.get(context, INPUT_ID);
+        assertEquals(WINDOW_START_MS, index.getStartTimeMillis());
+        assertEquals(WINDOW_END_MS, index.getEndTimeMillis());
+        List<Program> programs = index.getPrograms(CHANNEL_ID, WINDOW_START_MS, WINDOW_END_MS);
+        assertEquals(3, programs.size());
+        assertEquals(createProgram("B", 10, 30).toContentValues(),
+                programs.get(1).toContentValues());
+
+        NowNextIndexStore.delete(context, INPUT_ID);
+        assertNull(NowNextIndexStore.get(context, INPUT_ID).getProgramAt(CHANNEL_ID, at(10)));
+    }
+
+    @Test
+    public void testStoreKeepsProgramIds() {
+        // The sync indexes the rows it wrote, so sessions can use the ids of indexed programs.
+        ContentValues values = createProgram("B", 10, 30).toContentValues();
+        values.put(TvContract.Programs._ID, 42L);
+        MatrixCursor cursor = new MatrixCursor(Program.PROJECTION);
+        Object[] row = new Object[Program.PROJECTION.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = values.get(Program.PROJECTION[i]);
+        }
+        cursor.addRow(row);
+        cursor.moveToFirst();
+        List<Program> programs = Arrays.asList(Program.fromCursor(cursor));
+        Context context = RuntimeEnvironment.application;
+
+        NowNextIndexStore.write(context, INPUT_ID,
+                new NowNextIndex.Builder(WINDOW_START_MS, WINDOW_END_MS)
+                        .setPrograms(CHANNEL_ID, programs)
+                        .build());
+        NowNextIndex index = NowNextIndexStore.get(context, INPUT_ID);
+        assertEquals(42, index.getProgramAt(CHANNEL_ID, at(10)).getId());
+        NowNextIndexStore.delete(context, INPUT_ID);
+    }
+
+    @Test
+    public void testReloadReadsIndexWrittenByAnotherProcess() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        File file = new File(context.getNoBackupFilesDir(),
+                "now_next_index_" + INPUT_ID.replaceAll("[^A-Za-z0-9._-]", "_"));
+        NowNextIndexStore.write(context, INPUT_ID, createIndex());
+        byte[] otherProcessIndex = new AtomicFile(file).readFully();
+        NowNextIndexStore.write(context, INPUT_ID, NowNextIndex.EMPTY);
+        assertFalse(NowNextIndexStore.reload(context, INPUT_ID));
+
+        // What a sync in another process leaves behind, without touching this process' memory
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(otherProcessIndex);
+        out.close();
+        assertNull(NowNextIndexStore.peek(INPUT_ID).getProgramAt(CHANNEL_ID, at(10)));
+        assertTrue(NowNextIndexStore.reload(context, INPUT_ID));
+        assertEquals("B", NowNextIndexStore.peek(INPUT_ID).getProgramAt(CHANNEL_ID, at(10))
+                .getTitle());
+        assertFalse(NowNextIndexStore.reload(context, INPUT_ID));
+
+        assertTrue(file.delete());
+        assertTrue(NowNextIndexStore.reload(context, INPUT_ID));
+        assertNull(NowNextIndexStore.peek(INPUT_ID).getProgramAt(CHANNEL_ID, at(10)));
+    }
+
+    private static NowNextIndex createIndex() {
+        return new NowNextIndex.Builder(WINDOW_START_MS, WINDOW_END_MS)
+                .setPrograms(CHANNEL_ID, PROGRAMS)
+                .build();
+    }
+
+    private static long at(long minute) {
+        return WINDOW_START_MS + minute * MINUTE_MS;
+    }
+
+    private static Program createProgram(String title, long startMinute, long endMinute) {
+        return new Program.Builder()
+                .setChannelId(CHANNEL_ID)
+                .setTitle(title)
+                .setStartTimeUtcMillis(at(startMinute))
+                .setEndTimeUtcMillis(at(endMinute))
+                .build();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.media.tv.companionlibrary.BaseTvInputService;
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link OnTuneAdHistory} reads and batches writes of on-tune ad times.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class OnTuneAdHistoryTest extends TestCase {
+    private static final String KEY =
+            BaseTvInputService.SHARED_PREFERENCES_KEY_LAST_CHANNEL_AD_PLAY;
+
+    @Test
+    public void testLoadAndWrite() {
+        SharedPreferences preferences = RuntimeEnvironment.application.getSharedPreferences(
+                BaseTvInputService.PREFERENCES_FILE_KEY, Context.MODE_PRIVATE);
+        preferences.edit().clear().putLong(KEY + 1, 1000).putLong(KEY + 2, 2000)
+                .putString("other", "value").commit();
+        OnTuneAdHistory history = new OnTuneAdHistory(preferences);
+
+        assertEquals(1000, history.getLastAdTimeMs(1));
+        assertEquals(0, history.getLastAdTimeMs(3));
+
+        history.setLastAdTimeMs(3, 3000);
+        history.remove(new long[] {1, 4});
+        assertEquals(3000, history.getLastAdTimeMs(3));
+        assertEquals(0, history.getLastAdTimeMs(1));
+        // Changes are only written in a batch.
+        assertEquals(1000, preferences.getLong(KEY + 1, 0));
+        assertFalse(preferences.contains(KEY + 3));
+
+        history.flush();
+        assertFalse(preferences.contains(KEY + 1));
+        assertEquals(2000, preferences.getLong(KEY + 2, 0));
+        assertEquals(3000, preferences.getLong(KEY + 3, 0));
+        assertEquals("value", preferences.getString("other", null));
+    }
+}
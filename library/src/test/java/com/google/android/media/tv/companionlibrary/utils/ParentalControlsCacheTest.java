@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.media.tv.TvContentRating;
+import android.media.tv.TvInputManager;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests that {@link ParentalControlsCache} reads each setting once until it is invalidated, and
+ * that it blocks a program for the right rating.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class ParentalControlsCacheTest extends TestCase {
+    private static final TvContentRating TV_Y7 =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_Y7");
+    private static final TvContentRating TV_14 =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_14");
+    private static final TvContentRating TV_MA =
+            TvContentRating.createRating("com.android.tv", "US_TV", "US_TV_MA");
+
+    private FakeTvInputManagerService mService;
+    private TvInputManager mTvInputManager;
+    private ParentalControlsCache mCache;
+
+    @Before
+    public void setUp() {
+        mService = new FakeTvInputManagerService();
+        mTvInputManager = mService.createTvInputManager();
+        mCache = new ParentalControlsCache();
+    }
+
+    @Test
+    public void testCachesDecisions() {
+        mService.setBlockedRatings(TV_14);
+
+        assertTrue(mCache.isParentalControlsEnabled(mTvInputManager));
+        assertTrue(mCache.isRatingBlocked(mTvInputManager, TV_14));
+        assertFalse(mCache.isRatingBlocked(mTvInputManager, TV_Y7));
+        assertEquals(3, mService.getCallCount());
+
+        // Changed settings are not read again until the cache is invalidated.
+        mService.setParentalControlsEnabled(false);
+        mService.setBlockedRatings(TV_Y7);
+        assertTrue(mCache.isParentalControlsEnabled(mTvInputManager));
+        assertTrue(mCache.isRatingBlocked(mTvInputManager, TV_14));
+        assertFalse(mCache.isRatingBlocked(mTvInputManager, TV_Y7));
+        assertEquals(3, mService.getCallCount());
+    }
+
+    @Test
+    public void testCachesBlockingRatingBySetOfRatings() {
+        mService.setBlockedRatings(TV_14);
+        Set<TvContentRating> unblocked = Collections.emptySet();
+
+        assertEquals(TV_14, mCache.getBlockingRating(mTvInputManager,
+                new TvContentRating[] {TV_Y7, TV_14}, unblocked));
+        int callCount = mService.getCallCount();
+        // Another program with the same ratings does not read the settings again.
+        assertEquals(TV_14, mCache.getBlockingRating(mTvInputManager,
+                new TvContentRating[] {TV_Y7, TV_14}, unblocked));
+        assertEquals(callCount, mService.getCallCount());
+        assertNull(mCache.getBlockingRating(mTvInputManager, null, unblocked));
+        assertNull(mCache.getBlockingRating(mTvInputManager, new TvContentRating[0], unblocked));
+    }
+
+    @Test
+    public void testInvalidate() {
+        mService.setBlockedRatings(TV_14);
+        assertTrue(mCache.isParentalControlsEnabled(mTvInputManager));
+        assertTrue(mCache.isRatingBlocked(mTvInputManager, TV_14));
+        assertEquals(TV_14, mCache.getBlockingRating(mTvInputManager,
+                new TvContentRating[] {TV_14}, Collections.<TvContentRating>emptySet()));
+
+        mService.setParentalControlsEnabled(false);
+        mService.setBlockedRatings();
+        mCache.invalidate();
+        assertFalse(mCache.isParentalControlsEnabled(mTvInputManager));
+        assertFalse(mCache.isRatingBlocked(mTvInputManager, TV_14));
+        assertNull(mCache.getBlockingRating(mTvInputManager,
+                new TvContentRating[] {TV_14}, Collections.<TvContentRating>emptySet()));
+    }
+
+    @Test
+    public void testBlocksForLastRatingNotUnblocked() {
+        mService.setBlockedRatings(TV_Y7, TV_14, TV_MA);
+        TvContentRating[] ratings = new TvContentRating[] {TV_Y7, TV_14, TV_MA};
+        Set<TvContentRating> unblocked = new HashSet<>();
+
+        assertEquals(TV_MA, mCache.getBlockingRating(mTvInputManager, ratings, unblocked));
+        unblocked.add(TV_MA);
+        assertEquals(TV_14, mCache.getBlockingRating(mTvInputManager, ratings, unblocked));
+        unblocked.add(TV_Y7);
+        assertEquals(TV_14, mCache.getBlockingRating(mTvInputManager, ratings, unblocked));
+        unblocked.add(TV_14);
+        assertNull(mCache.getBlockingRating(mTvInputManager, ratings, unblocked));
+
+        // Ratings that are not blocked are skipped, even if they come last.
+        mService.setBlockedRatings(TV_Y7);
+        mCache.invalidate();
+        unblocked.clear();
+        assertEquals(TV_Y7, mCache.getBlockingRating(mTvInputManager, ratings, unblocked));
+    }
+}
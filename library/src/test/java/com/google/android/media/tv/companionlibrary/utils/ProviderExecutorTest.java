@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that {@link ProviderExecutor} runs tasks in order of priority and can cancel them.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class ProviderExecutorTest extends TestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException {
+        ProviderExecutor executor = new ProviderExecutor("test", 1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch blocker = block(executor);
+
+        executor.execute(record(order, "background"), ProviderExecutor.PRIORITY_BACKGROUND);
+        executor.execute(record(order, "default"), ProviderExecutor.PRIORITY_DEFAULT);
+        executor.execute(record(order, "tune 1"), ProviderExecutor.PRIORITY_TUNE);
+        executor.execute(record(order, "tune 2"), ProviderExecutor.PRIORITY_TUNE);
+        assertEquals(4, executor.getQueueDepth());
+        blocker.countDown();
+        awaitIdle(executor);
+
+        assertEquals(Arrays.asList("tune 1", "tune 2", "default", "background"), order);
+        assertEquals(4, executor.getMaxQueueDepth());
+        assertEquals(2, executor.getTaskCount(ProviderExecutor.PRIORITY_TUNE));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        ProviderExecutor executor = new ProviderExecutor("test", 1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch blocker = block(executor);
+
+        Runnable cancelled = record(order, "cancelled");
+        executor.execute(cancelled, ProviderExecutor.PRIORITY_TUNE);
+        executor.executeDelayed(cancelled, ProviderExecutor.PRIORITY_TUNE, 0);
+        executor.execute(record(order, "kept"), ProviderExecutor.PRIORITY_TUNE);
+        executor.cancel(cancelled);
+        executor.cancel(null);
+        blocker.countDown();
+        awaitIdle(executor);
+
+        assertEquals(Collections.singletonList("kept"), order);
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPriority() {
+        ProviderExecutor executor = new ProviderExecutor("test", 1);
+        try {
+            executor.execute(record(new CopyOnWriteArrayList<String>(), "invalid"), 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Occupies the only thread of an executor until the returned latch is released. */
+    private static CountDownLatch block(ProviderExecutor executor) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocker.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, ProviderExecutor.PRIORITY_TUNE);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return blocker;
+    }
+
+    /** Waits until the tasks queued before it have run. */
+    private static void awaitIdle(ProviderExecutor executor) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, ProviderExecutor.PRIORITY_BACKGROUND);
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+}
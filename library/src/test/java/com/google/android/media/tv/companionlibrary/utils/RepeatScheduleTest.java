@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.media.tv.companionlibrary.utils;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import com.google.android.media.tv.companionlibrary.BuildConfig;
+import com.google.android.media.tv.companionlibrary.model.Advertisement;
+import com.google.android.media.tv.companionlibrary.model.InternalProviderData;
+import com.google.android.media.tv.companionlibrary.model.Program;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that {@link RepeatSchedule} computes the airings of a looped playlist, and that
+ * {@link RepeatScheduleStore} reads back the schedules it wrote, also when another process wrote
+ * them.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, manifest = "src/main/AndroidManifest.xml")
+public class RepeatScheduleTest extends TestCase {
+    private static final String INPUT_ID =
+            "com.example.android.sampletvinput/.rich.RichTvInputService";
+    private static final long CHANNEL_ID = 7;
+    private static final long MINUTE_MS = 60 * 1000;
+    // A loop of 10, 20 and 30 minutes, so it restarts every hour since the epoch
+    private static final List<Program> PLAYLIST = Arrays.asList(
+            createProgram("A", 0, 10 * MINUTE_MS),
+            createProgram("B", 5 * MINUTE_MS, 25 * MINUTE_MS),
+            createProgram("C", 0, 30 * MINUTE_MS));
+
+    @Test
+    public void testGetProgramAt() {
+        RepeatSchedule schedule = new RepeatSchedule(CHANNEL_ID, PLAYLIST);
+        assertEquals(60 * MINUTE_MS, schedule.getLoopDurationMillis());
+
+        long loopStartMs = 1000 * 60 * MINUTE_MS;
+        assertAiring(schedule.getProgramAt(loopStartMs), "A", loopStartMs, 10);
+        assertAiring(schedule.getProgramAt(loopStartMs + 10 * MINUTE_MS - 1), "A", loopStartMs,
+                10);
+        assertAiring(schedule.getProgramAt(loopStartMs + 10 * MINUTE_MS), "B", loopStartMs, 30);
+        assertAiring(schedule.getProgramAt(loopStartMs + 59 * MINUTE_MS), "C", loopStartMs, 60);
+        assertAiring(schedule.getProgramAt(loopStartMs + 60 * MINUTE_MS), "A",
+                loopStartMs + 60 * MINUTE_MS, 10);
+    }
+
+    @Test
+    public void testGetPrograms() {
+        RepeatSchedule schedule = new RepeatSchedule(CHANNEL_ID, PLAYLIST);
+        long startMs = 1000 * 60 * MINUTE_MS + 15 * MINUTE_MS;
+        List<Program> programs = schedule.getPrograms(startMs, startMs + 60 * MINUTE_MS);
+
+        assertEquals(4, programs.size());
+        assertEquals("B", programs.get(0).getTitle());
+        assertEquals("B", programs.get(3).getTitle());
+        for (Program program : programs) {
+            assertEquals(CHANNEL_ID, program.getChannelId());
+            // The sync writes the same airings the session computes.
+            assertEquals(schedule.getProgramAt(program.getStartTimeUtcMillis()), program);
+        }
+        for (int i = 1; i < programs.size(); i++) {
+            assertEquals(programs.get(i - 1).getEndTimeUtcMillis(),
+                    programs.get(i).getStartTimeUtcMillis());
+        }
+    }
+
+    @Test
+    public void testAdsAreShifted() {
+        InternalProviderData internalProviderData = new InternalProviderData();
+        internalProviderData.setAds(Collections.singletonList(new Advertisement.Builder()
+                .setStartTimeUtcMillis(MINUTE_MS)
+                .setStopTimeUtcMillis(2 * MINUTE_MS)
+                .setType(Advertisement.TYPE_VAST)
+                .setRequestUrl("http://example.com/vast")
+                .build()));
+        Program program = new Program.Builder(createProgram("A", 0, 10 * MINUTE_MS))
+                .setInternalProviderData(internalProviderData)
+                .build();
+        RepeatSchedule schedule =
+                new RepeatSchedule(CHANNEL_ID, Collections.singletonList(program));
+
+        long airingStartMs = 500 * 10 * MINUTE_MS;
+        Advertisement ad = schedule.getProgramAt(airingStartMs + MINUTE_MS)
+                .getReadOnlyInternalProviderData().getAds().get(0);
+        assertEquals(airingStartMs + MINUTE_MS, ad.getStartTimeUtcMillis());
+        assertEquals(airingStartMs + 2 * MINUTE_MS, ad.getStopTimeUtcMillis());
+    }
+
+    @Test
+    public void testStoreRoundTrip() {
+        Context context = RuntimeEnvironment.application;
+        RepeatScheduleStore.write(context, INPUT_ID,
+                Collections.singletonList(new RepeatSchedule(CHANNEL_ID, PLAYLIST)));
+        RepeatSchedule schedule = RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID);
+        assertNotNull(schedule);
+        assertEquals(PLAYLIST.size(), schedule.getPlaylist().size());
+        for (int i = 0; i < PLAYLIST.size(); i++) {
+            assertEquals(PLAYLIST.get(i).toContentValues(),
+                    schedule.getPlaylist().get(i).toContentValues());
+        }
+        assertNull(RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID + 1));
+
+        RepeatScheduleStore.delete(context, INPUT_ID);
+        assertNull(RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID));
+    }
+
+    @Test
+    public void testReloadReadsSchedulesWrittenByAnotherProcess() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        File file = new File(context.getNoBackupFilesDir(),
+                "repeat_schedules_" + INPUT_ID.replaceAll("[^A-Za-z0-9._-]", "_"));
+        RepeatScheduleStore.write(context, INPUT_ID,
+                Collections.singletonList(new RepeatSchedule(CHANNEL_ID, PLAYLIST)));
+        byte[] otherProcessSchedules = new AtomicFile(file).readFully();
+        RepeatScheduleStore.write(context, INPUT_ID, Collections.<RepeatSchedule>emptyList());
+        assertFalse(RepeatScheduleStore.reload(context, INPUT_ID));
+
+        // What a sync in another process leaves behind, without touching this process' memory
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(otherProcessSchedules);
+        out.close();
+        assertNull(RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID));
+        assertTrue(RepeatScheduleStore.reload(context, INPUT_ID));
+        assertEquals(PLAYLIST.size(),
+                RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID).getPlaylist().size());
+        assertFalse(RepeatScheduleStore.reload(context, INPUT_ID));
+
+        assertTrue(file.delete());
+        assertTrue(RepeatScheduleStore.reload(context, INPUT_ID));
+        assertNull(RepeatScheduleStore.get(context, INPUT_ID, CHANNEL_ID));
+    }
+
+    private static void assertAiring(Program program, String title, long loopStartMs,
+            long endMinute) {
+        assertEquals(title, program.getTitle());
+        assertEquals(loopStartMs + endMinute * MINUTE_MS, program.getEndTimeUtcMillis());
+    }
+
+    private static Program createProgram(String title, long startTimeMs, long endTimeMs) {
+        return new Program.Builder()
+                .setTitle(title)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(endTimeMs)
+                .build();
+    }
+}
@@ -30,10 +30,14 @@ import org.robolectric.annotation.Config;
 
 import java.io.InputStream;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -76,6 +80,34 @@ public class XmlTvAdvertisementTest {
         assertEquals(requestUrl2, adProgramAds.get(1).getRequestUrl());
     }
 
+    @Test
+    public void testAdPodParsing() throws XmlTvParser.XmlTvParseException {
+        String requestUrl1 = "https://pubads.g.doubleclick.net/gampad/ads?sz=640x480" +
+                "&iu=/124319096/external/single_ad_samples&ciu_szs=300x250&impl=s" +
+                "&gdfp_req=1&env=vp&output=vast&unviewed_position_start=1" +
+                "&cust_params=deployment%3Ddevsite%26sample_ct%3Dlinear&correlator=";
+        String requestUrl2 = "https://pubads.g.doubleclick.net/gampad/ads?sz=640x480" +
+                "&iu=/124319096/external/single_ad_samples&ciu_szs=300x250&impl=s" +
+                "&gdfp_req=1&env=vp&output=vast&unviewed_position_start=1" +
+                "&cust_params=deployment%3Ddevsite%26sample_ct%3Dredirectlinear&correlator=";
+        String testXmlFile = "xmltv_ad_pod.xml";
+        InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(testXmlFile);
+        XmlTvParser.TvListing listings = XmlTvParser.parse(inputStream);
+        List<Advertisement> ads =
+                listings.getAllPrograms().get(0).getInternalProviderData().getAds();
+        assertEquals(2, ads.size());
+        // An advertisement with several request URLs is a pod that plays them in order.
+        Advertisement pod = ads.get(0);
+        assertTrue(pod.isPod());
+        assertEquals(Arrays.asList(requestUrl1, requestUrl2), pod.getRequestUrls());
+        assertEquals(requestUrl1, pod.getRequestUrl());
+        // An advertisement without a request URL has no ads to request.
+        Advertisement emptyAd = ads.get(1);
+        assertFalse(emptyAd.isPod());
+        assertNull(emptyAd.getRequestUrl());
+        assertEquals(0, emptyAd.getRequestUrls().size());
+    }
+
     @Test
     public void testInvalidAdvertisement() throws XmlTvParser.XmlTvParseException {
         String testXmlFile = "invalid_xmltv_ad.xml";